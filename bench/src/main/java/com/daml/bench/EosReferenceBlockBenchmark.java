@@ -0,0 +1,132 @@
+// Copyright (c) 2020 Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+
+
+package com.daml.bench;
+
+import com.daml.EOS.ReferenceBlockCache;
+import com.daml.EOS.client.EosApiClientFactory;
+import com.daml.EOS.client.EosApiRestClient;
+import com.daml.EOS.client.domain.response.chain.Block;
+import com.daml.EOS.client.domain.response.chain.ChainInfo;
+import com.daml.Fabric.FabricContextConfigYaml;
+import com.codahale.metrics.MetricRegistry;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import okhttp3.OkHttpClient;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the ways an EOS write gets the block its transaction references.
+ *
+ * - perCall: get_info twice and get_block, as every write did before the reference block was cached
+ * - cached: the in-memory block of ReferenceBlockCache, refreshed in the background
+ *
+ * The node is a local HTTP server answering get_info and get_block with fixed responses after
+ * latencyMicros, standing in for nodeos. Set the latency to that of a real node to estimate the
+ * time saved per write.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EosReferenceBlockBenchmark {
+
+    private static final String CHAIN_ID = "cf057bbfb72640471fd910bcb67639c22df9f92470936cddc1ade0e2f2e7dc4f";
+    private static final String BLOCK_ID = "0000a7e4c8b7e4a3d3a2e1f0a1b2c3d4e5f60718293a4b5c6d7e8f9012345678";
+    private static final long BLOCK_NUM = 42980;
+
+    private static final String INFO_RESPONSE = "{"
+            + "\"server_version\":\"stand-in\","
+            + "\"chain_id\":\"" + CHAIN_ID + "\","
+            + "\"head_block_num\":" + BLOCK_NUM + ","
+            + "\"last_irreversible_block_num\":" + BLOCK_NUM + ","
+            + "\"last_irreversible_block_id\":\"" + BLOCK_ID + "\","
+            + "\"head_block_id\":\"" + BLOCK_ID + "\","
+            + "\"head_block_time\":\"2020-09-01T00:00:00.000\","
+            + "\"head_block_producer\":\"eosio\"}";
+
+    private static final String BLOCK_RESPONSE = "{"
+            + "\"timestamp\":\"2020-09-01T00:00:00.000\","
+            + "\"producer\":\"eosio\","
+            + "\"previous\":\"0000a7e3c8b7e4a3d3a2e1f0a1b2c3d4e5f60718293a4b5c6d7e8f9012345678\","
+            + "\"id\":\"" + BLOCK_ID + "\","
+            + "\"block_num\":" + BLOCK_NUM + ","
+            + "\"ref_block_prefix\":" + ReferenceBlockCache.refBlockPrefix(BLOCK_ID) + ","
+            + "\"transactions\":[]}";
+
+    @Param({"0", "500"})
+    public int latencyMicros;
+
+    private HttpServer node;
+    private ExecutorService nodeExecutor;
+    private EosApiRestClient client;
+    private ReferenceBlockCache cache;
+
+    @Setup
+    public void setup() throws IOException {
+        node = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        node.createContext("/v1/chain/get_info", exchange -> respond(exchange, INFO_RESPONSE));
+        node.createContext("/v1/chain/get_block", exchange -> respond(exchange, BLOCK_RESPONSE));
+        nodeExecutor = Executors.newFixedThreadPool(4);
+        node.setExecutor(nodeExecutor);
+        node.start();
+
+        String url = "http://127.0.0.1:" + node.getAddress().getPort();
+        client = EosApiClientFactory.newInstance(url, url, url, new OkHttpClient()).newRestClient();
+        cache = new ReferenceBlockCache(client, new FabricContextConfigYaml.EosConfig(), new MetricRegistry());
+    }
+
+    @TearDown
+    public void tearDown() {
+        cache.close();
+        node.stop(0);
+        nodeExecutor.shutdownNow();
+    }
+
+    @Benchmark
+    public void perCall(Blackhole bh) {
+        ChainInfo chainInfo = client.getChainInfo();
+        Block block = client.getBlock(client.getChainInfo().getHeadBlockId());
+        bh.consume(chainInfo.getChainId());
+        bh.consume(block.getBlockNum());
+        bh.consume(block.getRefBlockPrefix());
+    }
+
+    @Benchmark
+    public void cached(Blackhole bh) {
+        ReferenceBlockCache.ReferenceBlock block = cache.get();
+        bh.consume(block.chainId);
+        bh.consume(block.refBlockNum);
+        bh.consume(block.refBlockPrefix);
+    }
+
+    private void respond(HttpExchange exchange, String body) throws IOException {
+        if (latencyMicros > 0) {
+            long until = System.nanoTime() + latencyMicros * 1000L;
+            while (System.nanoTime() < until) {
+                Thread.yield();
+            }
+        }
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+        exchange.close();
+    }
+
+}
@@ -0,0 +1,155 @@
+// Copyright (c) 2020 Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+
+
+package com.daml.bench;
+
+import com.daml.EOS.TransactionSigner;
+import com.daml.EOS.client.EosApiClientFactory;
+import com.daml.EOS.client.EosApiRestClient;
+import com.daml.EOS.client.domain.common.transaction.PackedTransaction;
+import com.daml.EOS.client.domain.common.transaction.SignedPackedTransaction;
+import com.daml.EOS.client.domain.common.transaction.TransactionAction;
+import com.daml.EOS.client.domain.common.transaction.TransactionAuthorization;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import okhttp3.OkHttpClient;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the signing throughput of EOS transactions.
+ *
+ * - local: TransactionSigner, in-process
+ * - wallet: sign_transaction of keosd, as every write did before
+ *
+ * By default the wallet is a local HTTP server answering with a fixed signed transaction after
+ * latencyMicros, so the wallet numbers only count the round-trip. Set -p walletUrl=... to a running
+ * keosd (unlocked, holding the eosio development key) to measure a real one.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EosSigningBenchmark {
+
+    // the eosio development key
+    private static final String PRIVATE_KEY = "5KQwrPbwdL6PhXujxW37FSSQZ1JiwsST4cqQzDeyXtP79zkvFD3";
+    private static final String CHAIN_ID = "cf057bbfb72640471fd910bcb67639c22df9f92470936cddc1ade0e2f2e7dc4f";
+
+    @Param({"0"})
+    public int latencyMicros;
+
+    @Param({""})
+    public String walletUrl;
+
+    private TransactionSigner signer;
+    private List<String> publicKeys;
+    private PackedTransaction transaction;
+    private HttpServer wallet;
+    private ExecutorService walletExecutor;
+    private EosApiRestClient client;
+    private byte[] signedResponse;
+    private int next = 0;
+
+    @Setup
+    public void setup() throws IOException {
+        signer = new TransactionSigner(Collections.singletonList(PRIVATE_KEY));
+        publicKeys = signer.publicKeys();
+        transaction = sampleTransaction(0);
+        signedResponse = new ObjectMapper().writeValueAsBytes(signer.signTransaction(transaction, CHAIN_ID));
+
+        String url = walletUrl;
+        if (url.isEmpty()) {
+            wallet = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+            wallet.createContext("/v1/wallet/sign_transaction", this::respond);
+            walletExecutor = Executors.newFixedThreadPool(4);
+            wallet.setExecutor(walletExecutor);
+            wallet.start();
+            url = "http://127.0.0.1:" + wallet.getAddress().getPort();
+        }
+        client = EosApiClientFactory.newInstance(url, url, url, new OkHttpClient()).newRestClient();
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (wallet != null) {
+            wallet.stop(0);
+            walletExecutor.shutdownNow();
+        }
+    }
+
+    @Benchmark
+    public SignedPackedTransaction local() {
+        // a different block number every time, so no two digests are the same
+        transaction.setRefBlockNum(Integer.toString(next++ & 0xFFFF));
+        return signer.signTransaction(transaction, CHAIN_ID);
+    }
+
+    @Benchmark
+    public SignedPackedTransaction wallet() {
+        transaction.setRefBlockNum(Integer.toString(next++ & 0xFFFF));
+        return client.signTransaction(transaction, publicKeys, CHAIN_ID);
+    }
+
+    private static PackedTransaction sampleTransaction(int refBlockNum) {
+        TransactionAuthorization authorization = new TransactionAuthorization();
+        authorization.setActor("hello");
+        authorization.setPermission("active");
+
+        TransactionAction action = new TransactionAction();
+        action.setAccount("hello");
+        action.setName("rawwrite");
+        // rawArgs of two 32 byte values, as packed by AbiSerializer
+        StringBuilder data = new StringBuilder("02");
+        for (int i = 0; i < 2; i++) {
+            data.append("2c");
+            for (int j = 0; j < 44; j++) data.append("41");
+        }
+        action.setData(data.toString());
+        action.setAuthorization(Collections.singletonList(authorization));
+
+        PackedTransaction transaction = new PackedTransaction();
+        transaction.setExpiration("2020-09-01T00:03:00");
+        transaction.setRefBlockNum(Integer.toString(refBlockNum));
+        transaction.setRefBlockPrefix("3791698384");
+        transaction.setMax_net_usage_words("0");
+        transaction.setActions(Collections.singletonList(action));
+        return transaction;
+    }
+
+    private void respond(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] b = new byte[8192];
+            while (in.read(b) != -1) {
+                // the request is not looked at
+            }
+        }
+        if (latencyMicros > 0) {
+            long until = System.nanoTime() + latencyMicros * 1000L;
+            while (System.nanoTime() < until) {
+                Thread.yield();
+            }
+        }
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, signedResponse.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(signedResponse);
+        }
+        exchange.close();
+    }
+
+}
@@ -0,0 +1,157 @@
+// Copyright (c) 2020 Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+
+
+package com.daml.bench;
+
+import com.daml.Compression.ValueCompression;
+import com.daml.Compression.ZstdCodec;
+import com.daml.daml_lf_dev.DamlLf;
+import com.daml.ledger.participant.state.kvutils.DamlKvutils.DamlLogEntry;
+import com.daml.ledger.participant.state.kvutils.DamlKvutils.DamlPartyAllocation;
+import com.daml.ledger.participant.state.kvutils.DamlKvutils.DamlPartyAllocationEntry;
+import com.daml.ledger.participant.state.kvutils.DamlKvutils.DamlStateValue;
+import com.daml.ledger.participant.state.kvutils.Envelope;
+import com.google.protobuf.Timestamp;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Compares the value codecs on DAML envelopes.
+ *
+ * The samples are the package archives of the test DAR plus party allocation state values and
+ * log entries, all enclosed the way kvutils writes them. Set -p samplesDir=... to a directory of
+ * values dumped from a real ledger to measure those instead.
+ *
+ * The compression ratio of each setup is printed before its iterations run.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ValueCodecBenchmark {
+
+    private static final String SAMPLE_DAR = "/Test-1.5.dar";
+    private static final int PARTY_SAMPLES = 500;
+    private static final int DICTIONARY_SIZE = 16 * 1024;
+
+    @Param({"gzip", "none", "lz4", "zstd", "zstd-dict"})
+    public String codec;
+
+    @Param({"256"})
+    public int threshold;
+
+    @Param({""})
+    public String samplesDir;
+
+    private byte[][] values;
+    private byte[][] compressed;
+    private ValueCompression compression;
+    private int next = 0;
+
+    @Setup
+    public void setup() throws Exception {
+        List<byte[]> samples = samplesDir.isEmpty() ? envelopeSamples() : fileSamples(new File(samplesDir));
+        values = samples.toArray(new byte[0][]);
+
+        if (codec.equals("zstd-dict")) {
+            // trained on the measured samples, so this is the best case for a dictionary
+            byte[] dictionary = ZstdCodec.trainDictionary(samples, DICTIONARY_SIZE);
+            compression = new ValueCompression(ValueCompression.ZSTD, threshold, ZstdCodec.DEFAULT_LEVEL, dictionary);
+        } else {
+            compression = new ValueCompression(codec, threshold, ZstdCodec.DEFAULT_LEVEL, null);
+        }
+
+        compressed = new byte[values.length][];
+        long rawBytes = 0;
+        long compressedBytes = 0;
+        for (int i = 0; i < values.length; i++) {
+            compressed[i] = compression.compress(values[i]);
+            rawBytes += values[i].length;
+            compressedBytes += compressed[i].length;
+        }
+        System.out.format("%n%s: %d values, %d -> %d bytes (ratio %.3f)%n",
+                codec, values.length, rawBytes, compressedBytes, (double) compressedBytes / rawBytes);
+    }
+
+    @Benchmark
+    public byte[] compress() {
+        int i = next++ % values.length;
+        return compression.compress(values[i]);
+    }
+
+    @Benchmark
+    public byte[] decompress() {
+        int i = next++ % compressed.length;
+        return compression.decompress(compressed[i]);
+    }
+
+    private static List<byte[]> envelopeSamples() throws Exception {
+        List<byte[]> samples = new ArrayList<>();
+
+        try (InputStream in = ValueCodecBenchmark.class.getResourceAsStream(SAMPLE_DAR)) {
+            if (in == null)
+                throw new RuntimeException("Sample DAR " + SAMPLE_DAR + " not found on the classpath");
+            ZipInputStream zip = new ZipInputStream(in);
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                if (!entry.getName().endsWith(".dalf")) continue;
+                DamlLf.Archive archive = DamlLf.Archive.parseFrom(readAll(zip));
+                samples.add(Envelope.enclose(DamlStateValue.newBuilder().setArchive(archive).build()).toByteArray());
+            }
+        }
+
+        for (int i = 0; i < PARTY_SAMPLES; i++) {
+            String party = String.format("party-%04d", i);
+            samples.add(Envelope.enclose(DamlStateValue.newBuilder()
+                    .setParty(DamlPartyAllocation.newBuilder()
+                            .setParticipantId("fabric-participant")
+                            .setDisplayName(party))
+                    .build()).toByteArray());
+            samples.add(Envelope.enclose(DamlLogEntry.newBuilder()
+                    .setRecordTime(Timestamp.newBuilder().setSeconds(1600000000L + i))
+                    .setPartyAllocationEntry(DamlPartyAllocationEntry.newBuilder()
+                            .setSubmissionId("submission-" + i)
+                            .setParticipantId("fabric-participant")
+                            .setParty(party)
+                            .setDisplayName(party))
+                    .build()).toByteArray());
+        }
+
+        return samples;
+    }
+
+    private static List<byte[]> fileSamples(File dir) throws Exception {
+        File[] files = dir.listFiles(File::isFile);
+        if (files == null || files.length == 0)
+            throw new RuntimeException("No sample values in " + dir);
+        List<byte[]> samples = new ArrayList<>();
+        for (File f : files) {
+            samples.add(Files.readAllBytes(f.toPath()));
+        }
+        return samples;
+    }
+
+    private static byte[] readAll(InputStream in) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] b = new byte[8192];
+        int len;
+        while ((len = in.read(b)) != -1) {
+            out.write(b, 0, len);
+        }
+        return out.toByteArray();
+    }
+
+}
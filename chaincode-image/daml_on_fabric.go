@@ -23,12 +23,21 @@ const (
 	_prefixCommitLog = "DCommitLog:"
 	_commitLogStart  = _prefixCommitLog + "0000000000000000"
 	_commitLogEnd    = _prefixCommitLog + "ffffffffffffffff"
+	_prefixCommitKey = "DCommitLogKey:"
+	_commitLogEvent  = "DCommitLogAppended"
 	_prefixPackages  = "DPackages:"
 	_packagesList    = "DPackagesList"
 	_packagesStart   = _prefixPackages + "0000000000000000000000000000000000000000000000000000000000000000"
 	_packagesEnd     = _prefixPackages + "ffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffff"
 	_recordTime      = "DRecordTime"
 	_ledgerID        = "DLedgerID"
+	_prefixChunk     = "DChunk:"
+)
+
+// a value stored in chunks is replaced by a manifest: the marker, the number of chunks and the total size (uint32, little endian)
+const (
+	_chunkManifest    = 0xC0
+	_chunkManifestLen = 9
 )
 
 // DamlOnFabric implements storage of DAML data on Fabric
@@ -50,16 +59,32 @@ func (t *DamlOnFabric) Invoke(stub shim.ChaincodeStubInterface) pb.Response {
 
 	if function == "RawWrite" {
 
-		return t.rawWrite(stub, args, rawArgs)
+		return t.rawWriteReplacing(stub, args, rawArgs)
 
 	} else if function == "RawBatchWrite" {
 
 		return t.rawBatchWrite(stub, args, rawArgs)
 
+	} else if function == "RawMultiBatchWrite" {
+
+		return t.rawMultiBatchWrite(stub, args, rawArgs)
+
+	} else if function == "RawWriteChunks" {
+
+		return t.rawWriteChunks(stub, args, rawArgs)
+
+	} else if function == "RawReadChunks" {
+
+		return t.rawReadChunks(stub, args, rawArgs)
+
 	} else if function == "RawRead" {
 
 		return t.rawRead(stub, args, rawArgs)
 
+	} else if function == "RawMultiRead" {
+
+		return t.rawMultiRead(stub, args, rawArgs)
+
 	} else if function == "WriteCommitLog" {
 
 		return t.writeCommitLog(stub, args, rawArgs)
@@ -68,6 +93,10 @@ func (t *DamlOnFabric) Invoke(stub shim.ChaincodeStubInterface) pb.Response {
 
 		return t.readCommit(stub, args, rawArgs)
 
+	} else if function == "ReadCommitRange" {
+
+		return t.readCommitRange(stub, args, rawArgs)
+
 	} else if function == "ReadCommitHeight" {
 
 		return t.readCommitHeight(stub, args, rawArgs)
@@ -78,7 +107,15 @@ func (t *DamlOnFabric) Invoke(stub shim.ChaincodeStubInterface) pb.Response {
 
 	} else if function == "PackageWrite" {
 
-		return t.packageWrite(stub, args, rawArgs)
+		return t.packageWriteReplacing(stub, args, rawArgs)
+
+	} else if function == "PackageWriteChunks" {
+
+		return t.packageWriteChunks(stub, args, rawArgs)
+
+	} else if function == "PackageReadChunks" {
+
+		return t.packageReadChunks(stub, args, rawArgs)
 
 	} else if function == "PackageListRead" {
 
@@ -145,7 +182,45 @@ func (t *DamlOnFabric) rawBatchWrite(stub shim.ChaincodeStubInterface, args []st
 	logger.Infof("----------------------ENDED CALL-------------------")
 	logger.Infof("---------------------------------------------------")
 
-	return shim.Success([]byte{})
+	// the new commit log height, like writeCommitLog
+	return shim.Success(responseCommit.Payload)
+}
+
+// rawMultiBatchWrite: writes the state of several DAML submissions and appends their commits
+// to the commit log in a single transaction.
+// The first argument is the number of commits (uint32, little endian), followed by Key, Value pairs,
+// followed by the commits themselves, followed by the key of the log entry of each commit.
+func (t *DamlOnFabric) rawMultiBatchWrite(stub shim.ChaincodeStubInterface, args []string, rawArgs [][]byte) pb.Response {
+
+	if len(rawArgs) < 1 || len(rawArgs[0]) != 4 {
+		return shim.Error("Expected the number of commits as first argument")
+	}
+
+	commitCount := int(binary.LittleEndian.Uint32(rawArgs[0]))
+	if commitCount < 1 || len(rawArgs)-1 < 2*commitCount || (len(rawArgs)-1-2*commitCount)%2 != 0 {
+		return shim.Error(fmt.Sprintf("Expected Key, Value pairs followed by %d commits and %d log entry keys, got %d arguments", commitCount, commitCount, len(rawArgs)-1))
+	}
+
+	stateArgs := rawArgs[1 : len(rawArgs)-2*commitCount]
+	commits := rawArgs[len(rawArgs)-2*commitCount : len(rawArgs)-commitCount]
+	entryKeys := rawArgs[len(rawArgs)-commitCount:]
+
+	values := make(map[string][]byte, len(stateArgs)/2)
+	for i := 0; i < len(stateArgs); i += 2 {
+		response := t.rawWrite(stub, args, stateArgs[i:i+2])
+		if response.Status == 500 {
+			return shim.Error(response.Message)
+		}
+		values[string(stateArgs[i])] = stateArgs[i+1]
+	}
+
+	// the log entries travel with the commit log event, so readers do not have to query them
+	logEntries := make([][]byte, commitCount)
+	for i, entryKey := range entryKeys {
+		logEntries[i] = values[string(entryKey)]
+	}
+
+	return t.appendCommitLog(stub, commits, entryKeys, logEntries)
 }
 
 // rawWrite: writes a value to K/V world state
@@ -157,7 +232,8 @@ func (t *DamlOnFabric) rawWrite(stub shim.ChaincodeStubInterface, args []string,
 
 	mappedKey := fmt.Sprintf("%s%s", _prefixState, base64.StdEncoding.EncodeToString(rawArgs[0]))
 
-	logger.Infof("Writing key %v and value %v in ledger.", rawArgs[0], rawArgs[1])
+	//logger.Infof("Writing key %v and value %v in ledger.", rawArgs[0], rawArgs[1])
+	logger.Infof("Writing key %v and value %v in ledger.", mappedKey, rawArgs[1])
 
 	// in rawArgs, [2] should be the byte object to store
 	err := stub.PutState(mappedKey, rawArgs[1])
@@ -169,6 +245,25 @@ func (t *DamlOnFabric) rawWrite(stub shim.ChaincodeStubInterface, args []string,
 
 }
 
+// rawWriteReplacing: writes a value to K/V world state, deleting the chunks of a chunked value it replaces
+// Only RawWrite does this: the state writes of the batch functions are never chunked, and reading
+// every key they write would make concurrent batches fail validation with read conflicts.
+func (t *DamlOnFabric) rawWriteReplacing(stub shim.ChaincodeStubInterface, args []string, rawArgs [][]byte) pb.Response {
+
+	if len(rawArgs) != 2 {
+		return shim.Error(fmt.Sprintf("Expected 2 arguments (Key, Value), got %d", len(rawArgs)))
+	}
+
+	mappedKey := fmt.Sprintf("%s%s", _prefixState, base64.StdEncoding.EncodeToString(rawArgs[0]))
+	err := deleteChunks(stub, mappedKey, 0)
+	if err != nil {
+		return shim.Error(err.Error())
+	}
+
+	return t.rawWrite(stub, args, rawArgs)
+
+}
+
 // rawRead: reads a value from K/V world state directly
 func (t *DamlOnFabric) rawRead(stub shim.ChaincodeStubInterface, args []string, rawArgs [][]byte) pb.Response {
 
@@ -187,6 +282,31 @@ func (t *DamlOnFabric) rawRead(stub shim.ChaincodeStubInterface, args []string,
 
 }
 
+// rawMultiRead: reads the values of several keys from K/V world state in one query
+// output is the value count followed by each value prefixed with its length (0 for missing keys), in argument order
+func (t *DamlOnFabric) rawMultiRead(stub shim.ChaincodeStubInterface, args []string, rawArgs [][]byte) pb.Response {
+
+	output := make([]byte, 4)
+	binary.LittleEndian.PutUint32(output[0:4], uint32(len(rawArgs)))
+
+	for _, key := range rawArgs {
+		mappedKey := fmt.Sprintf("%s%s", _prefixState, base64.StdEncoding.EncodeToString(key))
+
+		value, err := stub.GetState(mappedKey)
+		if err != nil {
+			return shim.Error(fmt.Sprintf("Error reading Fabric state: %s", err.Error()))
+		}
+
+		singleValue := make([]byte, 4+len(value))
+		binary.LittleEndian.PutUint32(singleValue[0:4], uint32(len(value)))
+		copy(singleValue[4:], value)
+		output = append(output, singleValue...)
+	}
+
+	return shim.Success(output)
+
+}
+
 // writeCommitLog: writes a Commit incrementally
 func (t *DamlOnFabric) writeCommitLog(stub shim.ChaincodeStubInterface, args []string, rawArgs [][]byte) pb.Response {
 
@@ -194,6 +314,17 @@ func (t *DamlOnFabric) writeCommitLog(stub shim.ChaincodeStubInterface, args []s
 		return shim.Error(fmt.Sprintf("Expected 1 argument (Commit), got %d", len(rawArgs)))
 	}
 
+	return t.appendCommitLog(stub, rawArgs, nil, nil)
+
+}
+
+// appendCommitLog: appends Commits to the commit log and returns the new commit log height.
+// If entryKeys is given, the log entry key of each commit is recorded next to it for readCommitRange.
+// A DCommitLogAppended event is set with the index of the first Commit, the number of Commits and
+// the Commits with their log entries (empty if logEntries is not given), encoded like readCommitRange.
+// GetState does not observe writes of the same transaction, so the index is read once for all commits.
+func (t *DamlOnFabric) appendCommitLog(stub shim.ChaincodeStubInterface, commits [][]byte, entryKeys [][]byte, logEntries [][]byte) pb.Response {
+
 	// get current commit entry
 	var commitLogIndex int
 	commitLogIndexBytes, err := stub.GetState(_commitLogIndex)
@@ -208,15 +339,34 @@ func (t *DamlOnFabric) writeCommitLog(stub shim.ChaincodeStubInterface, args []s
 		commitLogIndex = 0
 	}
 
-	//
-	commitKey := fmt.Sprintf("%s%08x", _prefixCommitLog, commitLogIndex)
+	event := make([]byte, 8)
+	binary.LittleEndian.PutUint32(event[0:4], uint32(commitLogIndex))
+	binary.LittleEndian.PutUint32(event[4:8], uint32(len(commits)))
 
-	err = stub.PutState(commitKey, rawArgs[0])
-	if err != nil {
-		return shim.Error(fmt.Sprintf("Error writing Fabric state: %s", err.Error()))
+	for i, commit := range commits {
+		commitKey := fmt.Sprintf("%s%08x", _prefixCommitLog, commitLogIndex)
+
+		var logEntry []byte
+		if logEntries != nil {
+			logEntry = logEntries[i]
+		}
+		event = append(event, encodeCommitRecord(commit, logEntry)...)
+
+		err = stub.PutState(commitKey, commit)
+		if err != nil {
+			return shim.Error(fmt.Sprintf("Error writing Fabric state: %s", err.Error()))
+		}
+
+		if entryKeys != nil {
+			err = stub.PutState(fmt.Sprintf("%s%08x", _prefixCommitKey, commitLogIndex), entryKeys[i])
+			if err != nil {
+				return shim.Error(fmt.Sprintf("Error writing Fabric state: %s", err.Error()))
+			}
+		}
+
+		commitLogIndex++
 	}
 
-	commitLogIndex++
 	if commitLogIndexBytes == nil {
 		commitLogIndexBytes = make([]byte, 4)
 	}
@@ -228,6 +378,11 @@ func (t *DamlOnFabric) writeCommitLog(stub shim.ChaincodeStubInterface, args []s
 		return shim.Error(fmt.Sprintf("Error writing Fabric state: %s", err.Error()))
 	}
 
+	err = stub.SetEvent(_commitLogEvent, event)
+	if err != nil {
+		return shim.Error(fmt.Sprintf("Error setting Fabric event: %s", err.Error()))
+	}
+
 	return shim.Success(commitLogIndexBytes)
 
 }
@@ -276,6 +431,92 @@ func (t *DamlOnFabric) readCommit(stub shim.ChaincodeStubInterface, args []strin
 
 }
 
+// readCommitRange: reads up to Count Commits starting at index From, each with its log entry.
+// output is the number of Commits followed by, for each Commit, the length-prefixed Commit and
+// the length-prefixed log entry value. The log entry is empty for Commits that were written without
+// their log entry key (WriteCommitLog, RawBatchWrite); readers have to fetch those with RawRead.
+// Fewer Commits than requested are returned when the range goes past the commit log height.
+func (t *DamlOnFabric) readCommitRange(stub shim.ChaincodeStubInterface, args []string, rawArgs [][]byte) pb.Response {
+
+	if len(args) != 2 {
+		return shim.Error(fmt.Sprintf("Expected 2 arguments (From, Count), got %d", len(args)))
+	}
+
+	from64, err := strconv.ParseInt(args[0], 10, 32)
+	if err != nil {
+		return shim.Error(fmt.Sprintf("Expected an integer for From, got '%s'", args[0]))
+	}
+	count64, err := strconv.ParseInt(args[1], 10, 32)
+	if err != nil {
+		return shim.Error(fmt.Sprintf("Expected an integer for Count, got '%s'", args[1]))
+	}
+	from := int(from64)
+	count := int(count64)
+
+	// get current commit entry
+	var commitLogIndex int
+	commitLogIndexBytes, err := stub.GetState(_commitLogIndex)
+	if err != nil {
+		return shim.Error(fmt.Sprintf("Error reading Fabric state: %s", err.Error()))
+	}
+
+	if commitLogIndexBytes != nil && len(commitLogIndexBytes) == 4 {
+		commitLogIndex = int(binary.LittleEndian.Uint32(commitLogIndexBytes))
+	} else {
+		commitLogIndex = 0
+	}
+
+	if from < 0 || count < 0 {
+		return shim.Error(fmt.Sprintf("Expected a non-negative range, got From %d and Count %d", from, count))
+	}
+
+	end := from + count
+	if end > commitLogIndex {
+		end = commitLogIndex
+	}
+
+	output := make([]byte, 4)
+	returned := 0
+
+	for i := from; i < end; i++ {
+		commit, err := stub.GetState(fmt.Sprintf("%s%08x", _prefixCommitLog, i))
+		if err != nil {
+			return shim.Error(fmt.Sprintf("Error reading Fabric state: %s", err.Error()))
+		}
+
+		var logEntry []byte
+		entryKey, err := stub.GetState(fmt.Sprintf("%s%08x", _prefixCommitKey, i))
+		if err != nil {
+			return shim.Error(fmt.Sprintf("Error reading Fabric state: %s", err.Error()))
+		}
+		if len(entryKey) > 0 {
+			logEntry, err = stub.GetState(fmt.Sprintf("%s%s", _prefixState, base64.StdEncoding.EncodeToString(entryKey)))
+			if err != nil {
+				return shim.Error(fmt.Sprintf("Error reading Fabric state: %s", err.Error()))
+			}
+		}
+
+		output = append(output, encodeCommitRecord(commit, logEntry)...)
+		returned++
+	}
+
+	binary.LittleEndian.PutUint32(output[0:4], uint32(returned))
+	return shim.Success(output)
+
+}
+
+// encodeCommitRecord: the length-prefixed Commit followed by the length-prefixed log entry
+func encodeCommitRecord(commit []byte, logEntry []byte) []byte {
+
+	record := make([]byte, 8+len(commit)+len(logEntry))
+	binary.LittleEndian.PutUint32(record[0:4], uint32(len(commit)))
+	copy(record[4:], commit)
+	binary.LittleEndian.PutUint32(record[4+len(commit):8+len(commit)], uint32(len(logEntry)))
+	copy(record[8+len(commit):], logEntry)
+	return record
+
+}
+
 // readCommit: reads a Commit by index
 func (t *DamlOnFabric) readCommitHeight(stub shim.ChaincodeStubInterface, args []string, rawArgs [][]byte) pb.Response {
 
@@ -318,6 +559,23 @@ func (t *DamlOnFabric) packageWrite(stub shim.ChaincodeStubInterface, args []str
 
 }
 
+// packageWriteReplacing: writes an installed package by hash, deleting the chunks of a chunked package it replaces
+func (t *DamlOnFabric) packageWriteReplacing(stub shim.ChaincodeStubInterface, args []string, rawArgs [][]byte) pb.Response {
+
+	if len(rawArgs) != 2 {
+		return shim.Error(fmt.Sprintf("Expected 2 arguments (PackageID, Archive), got %d", len(rawArgs)))
+	}
+
+	mappedKey := fmt.Sprintf("%s%s", _prefixPackages, args[0])
+	err := deleteChunks(stub, mappedKey, 0)
+	if err != nil {
+		return shim.Error(err.Error())
+	}
+
+	return t.packageWrite(stub, args, rawArgs)
+
+}
+
 // packageRead: reads an installed package by hash
 func (t *DamlOnFabric) packageRead(stub shim.ChaincodeStubInterface, args []string, rawArgs [][]byte) pb.Response {
 
@@ -336,6 +594,167 @@ func (t *DamlOnFabric) packageRead(stub shim.ChaincodeStubInterface, args []stri
 
 }
 
+// rawWriteChunks: writes a value too large for a single argument and state entry
+// The first argument is the Key, followed by the chunks of the value.
+func (t *DamlOnFabric) rawWriteChunks(stub shim.ChaincodeStubInterface, args []string, rawArgs [][]byte) pb.Response {
+
+	if len(rawArgs) < 2 {
+		return shim.Error(fmt.Sprintf("Expected 2 or more arguments (Key, Chunks...), got %d", len(rawArgs)))
+	}
+
+	mappedKey := fmt.Sprintf("%s%s", _prefixState, base64.StdEncoding.EncodeToString(rawArgs[0]))
+	return writeChunks(stub, mappedKey, rawArgs[1:])
+
+}
+
+// rawReadChunks: reads chunks of a value written by rawWriteChunks
+// Arguments are the Key, the index of the first chunk and the number of chunks (as strings).
+func (t *DamlOnFabric) rawReadChunks(stub shim.ChaincodeStubInterface, args []string, rawArgs [][]byte) pb.Response {
+
+	if len(rawArgs) != 3 {
+		return shim.Error(fmt.Sprintf("Expected 3 arguments (Key, From, Count), got %d", len(rawArgs)))
+	}
+
+	mappedKey := fmt.Sprintf("%s%s", _prefixState, base64.StdEncoding.EncodeToString(rawArgs[0]))
+	return readChunks(stub, mappedKey, args[1], args[2])
+
+}
+
+// packageWriteChunks: writes an installed package by hash, in chunks
+func (t *DamlOnFabric) packageWriteChunks(stub shim.ChaincodeStubInterface, args []string, rawArgs [][]byte) pb.Response {
+
+	if len(rawArgs) < 2 {
+		return shim.Error(fmt.Sprintf("Expected 2 or more arguments (PackageID, Chunks...), got %d", len(rawArgs)))
+	}
+
+	mappedKey := fmt.Sprintf("%s%s", _prefixPackages, args[0])
+	return writeChunks(stub, mappedKey, rawArgs[1:])
+
+}
+
+// packageReadChunks: reads chunks of a package written by packageWriteChunks
+func (t *DamlOnFabric) packageReadChunks(stub shim.ChaincodeStubInterface, args []string, rawArgs [][]byte) pb.Response {
+
+	if len(rawArgs) != 3 {
+		return shim.Error(fmt.Sprintf("Expected 3 arguments (PackageID, From, Count), got %d", len(rawArgs)))
+	}
+
+	mappedKey := fmt.Sprintf("%s%s", _prefixPackages, args[0])
+	return readChunks(stub, mappedKey, args[1], args[2])
+
+}
+
+// chunkKey: key of a chunk of the value stored under mappedKey
+// The chunks are not under the prefix of mappedKey, so range reads of packages do not see them.
+func chunkKey(mappedKey string, index int) string {
+	return fmt.Sprintf("%s%s:%08x", _prefixChunk, mappedKey, index)
+}
+
+// chunkCount: number of chunks of a stored value, 0 if it is not a chunk manifest
+func chunkCount(value []byte) int {
+	if len(value) != _chunkManifestLen || value[0] != _chunkManifest {
+		return 0
+	}
+	return int(binary.LittleEndian.Uint32(value[1:5]))
+}
+
+// deleteChunks: deletes the chunks from index from on of the value stored under mappedKey, if it is chunked
+func deleteChunks(stub shim.ChaincodeStubInterface, mappedKey string, from int) error {
+
+	previous, err := stub.GetState(mappedKey)
+	if err != nil {
+		return fmt.Errorf("Error reading Fabric state: %s", err.Error())
+	}
+
+	for i := from; i < chunkCount(previous); i++ {
+		err = stub.DelState(chunkKey(mappedKey, i))
+		if err != nil {
+			return fmt.Errorf("Error writing Fabric state: %s", err.Error())
+		}
+	}
+
+	return nil
+}
+
+// writeChunks: stores the chunks next to mappedKey and the manifest under mappedKey.
+// Chunks left over from a longer value written before are deleted, as RawWrite and
+// PackageWrite delete all chunks of a chunked value they replace.
+func writeChunks(stub shim.ChaincodeStubInterface, mappedKey string, chunks [][]byte) pb.Response {
+
+	// before the chunks are written, GetState does not see writes of the same transaction
+	err := deleteChunks(stub, mappedKey, len(chunks))
+	if err != nil {
+		return shim.Error(err.Error())
+	}
+
+	total := 0
+	for i, chunk := range chunks {
+		err = stub.PutState(chunkKey(mappedKey, i), chunk)
+		if err != nil {
+			return shim.Error(fmt.Sprintf("Error writing Fabric state: %s", err.Error()))
+		}
+		total += len(chunk)
+	}
+
+	manifest := make([]byte, _chunkManifestLen)
+	manifest[0] = _chunkManifest
+	binary.LittleEndian.PutUint32(manifest[1:5], uint32(len(chunks)))
+	binary.LittleEndian.PutUint32(manifest[5:9], uint32(total))
+
+	err = stub.PutState(mappedKey, manifest)
+	if err != nil {
+		return shim.Error(fmt.Sprintf("Error writing Fabric state: %s", err.Error()))
+	}
+
+	return shim.Success([]byte{})
+
+}
+
+// readChunks: reads Count chunks starting at From with one range scan
+// output is the chunk count followed by each chunk prefixed with its length
+func readChunks(stub shim.ChaincodeStubInterface, mappedKey string, fromArg string, countArg string) pb.Response {
+
+	from64, err := strconv.ParseInt(fromArg, 10, 32)
+	if err != nil {
+		return shim.Error(fmt.Sprintf("Expected an integer for From, got '%s'", fromArg))
+	}
+	count64, err := strconv.ParseInt(countArg, 10, 32)
+	if err != nil {
+		return shim.Error(fmt.Sprintf("Expected an integer for Count, got '%s'", countArg))
+	}
+	from := int(from64)
+	count := int(count64)
+	if from < 0 || count < 0 {
+		return shim.Error(fmt.Sprintf("Expected a non-negative range, got From %d and Count %d", from, count))
+	}
+
+	chunksIter, err := stub.GetStateByRange(chunkKey(mappedKey, from), chunkKey(mappedKey, from+count))
+	if err != nil {
+		return shim.Error(err.Error())
+	}
+	defer chunksIter.Close()
+
+	output := make([]byte, 4)
+	returned := 0
+
+	for chunksIter.HasNext() {
+		chunk, iterErr := chunksIter.Next()
+		if iterErr != nil {
+			return shim.Error(iterErr.Error())
+		}
+
+		singleChunk := make([]byte, 4+len(chunk.GetValue()))
+		binary.LittleEndian.PutUint32(singleChunk[0:4], uint32(len(chunk.GetValue())))
+		copy(singleChunk[4:], chunk.GetValue())
+		output = append(output, singleChunk...)
+		returned++
+	}
+
+	binary.LittleEndian.PutUint32(output[0:4], uint32(returned))
+	return shim.Success(output)
+
+}
+
 // packageListRead:
 func (t *DamlOnFabric) packageListRead(stub shim.ChaincodeStubInterface, args []string, rawArgs [][]byte) pb.Response {
 
@@ -435,6 +854,8 @@ func (t *DamlOnFabric) ledgerIDRead(stub shim.ChaincodeStubInterface, args []str
 
 }
 
+// main: runs the chaincode as an external chaincode server. Apart from this, the chaincode is the same as
+// chaincode/src/github.com/digital-asset/daml-on-fabric/daml_on_fabric.go and has to be kept in step with it.
 func main() {
 	viper.AutomaticEnv()
 	replacer := strings.NewReplacer(".", "_")
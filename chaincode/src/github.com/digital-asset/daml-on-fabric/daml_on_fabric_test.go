@@ -0,0 +1,247 @@
+// Copyright (c) 2020 Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+
+package main
+
+import (
+	"bytes"
+	"encoding/base64"
+	"encoding/binary"
+	"fmt"
+	"strings"
+	"testing"
+
+	"github.com/hyperledger/fabric-chaincode-go/shim"
+	"github.com/hyperledger/fabric-chaincode-go/shimtest"
+)
+
+func newStub() *shimtest.MockStub {
+	return shimtest.NewMockStub("daml_on_fabric", new(DamlOnFabric))
+}
+
+func uint32Bytes(n int) []byte {
+	b := make([]byte, 4)
+	binary.LittleEndian.PutUint32(b, uint32(n))
+	return b
+}
+
+func stateKey(key string) string {
+	return _prefixState + base64.StdEncoding.EncodeToString([]byte(key))
+}
+
+func invoke(stub *shimtest.MockStub, function string, args ...[]byte) ([]byte, error) {
+	response := stub.MockInvoke("tx", append([][]byte{[]byte(function)}, args...))
+	if response.Status != shim.OK {
+		return nil, fmt.Errorf("%s failed: %s", function, response.Message)
+	}
+	return response.Payload, nil
+}
+
+func mustInvoke(t *testing.T, stub *shimtest.MockStub, function string, args ...[]byte) []byte {
+	t.Helper()
+	payload, err := invoke(stub, function, args...)
+	if err != nil {
+		t.Fatal(err)
+	}
+	return payload
+}
+
+func expectState(t *testing.T, stub *shimtest.MockStub, key string, value []byte) {
+	t.Helper()
+	if got := stub.State[key]; !bytes.Equal(got, value) {
+		t.Errorf("state %s is %q, expected %q", key, got, value)
+	}
+}
+
+func expectEvent(t *testing.T, stub *shimtest.MockStub, payload []byte) {
+	t.Helper()
+	select {
+	case event := <-stub.ChaincodeEventsChannel:
+		if event.EventName != _commitLogEvent {
+			t.Errorf("event is %s, expected %s", event.EventName, _commitLogEvent)
+		}
+		if !bytes.Equal(event.Payload, payload) {
+			t.Errorf("event payload is %v, expected %v", event.Payload, payload)
+		}
+	default:
+		t.Errorf("no %s event was set", _commitLogEvent)
+	}
+}
+
+func commitRecords(firstIndex int, records ...[]byte) []byte {
+	output := append(uint32Bytes(firstIndex), uint32Bytes(len(records))...)
+	for _, record := range records {
+		output = append(output, record...)
+	}
+	return output
+}
+
+func TestRawMultiBatchWriteAppendsCommits(t *testing.T) {
+	stub := newStub()
+
+	height := mustInvoke(t, stub, "RawMultiBatchWrite",
+		uint32Bytes(2),
+		[]byte("DSk1"), []byte("v1"), []byte("L1"), []byte("entry1"), []byte("L2"), []byte("entry2"),
+		[]byte("c1"), []byte("c2"),
+		[]byte("L1"), []byte("L2"))
+
+	if !bytes.Equal(height, uint32Bytes(2)) {
+		t.Errorf("height is %v, expected 2", height)
+	}
+	expectState(t, stub, stateKey("DSk1"), []byte("v1"))
+	expectState(t, stub, stateKey("L2"), []byte("entry2"))
+	expectState(t, stub, _prefixCommitLog+"00000000", []byte("c1"))
+	expectState(t, stub, _prefixCommitLog+"00000001", []byte("c2"))
+	expectState(t, stub, _prefixCommitKey+"00000000", []byte("L1"))
+	expectState(t, stub, _prefixCommitKey+"00000001", []byte("L2"))
+	expectState(t, stub, _commitLogIndex, uint32Bytes(2))
+	expectEvent(t, stub, commitRecords(0,
+		encodeCommitRecord([]byte("c1"), []byte("entry1")),
+		encodeCommitRecord([]byte("c2"), []byte("entry2"))))
+
+	// the next batch continues at the height the first one left
+	height = mustInvoke(t, stub, "RawMultiBatchWrite",
+		uint32Bytes(1), []byte("L3"), []byte("entry3"), []byte("c3"), []byte("L3"))
+
+	if !bytes.Equal(height, uint32Bytes(3)) {
+		t.Errorf("height is %v, expected 3", height)
+	}
+	expectState(t, stub, _prefixCommitLog+"00000002", []byte("c3"))
+	expectEvent(t, stub, commitRecords(2, encodeCommitRecord([]byte("c3"), []byte("entry3"))))
+}
+
+func TestRawMultiBatchWriteRejectsMalformedArguments(t *testing.T) {
+	stub := newStub()
+
+	malformed := map[string][][]byte{
+		"no commit count":       {},
+		"short commit count":    {[]byte{1, 0}, []byte("c1"), []byte("L1")},
+		"no commits":            {uint32Bytes(0), []byte("k"), []byte("v")},
+		"missing log entry key": {uint32Bytes(2), []byte("c1"), []byte("c2"), []byte("L1")},
+		"key without value":     {uint32Bytes(1), []byte("k"), []byte("c1"), []byte("L1")},
+	}
+	for name, args := range malformed {
+		if _, err := invoke(stub, "RawMultiBatchWrite", args...); err == nil {
+			t.Errorf("%s: RawMultiBatchWrite succeeded", name)
+		}
+	}
+	if len(stub.State) != 0 {
+		t.Errorf("malformed batches wrote %d keys", len(stub.State))
+	}
+}
+
+func TestReadCommitRangeReturnsLogEntries(t *testing.T) {
+	stub := newStub()
+	mustInvoke(t, stub, "WriteCommitLog", []byte("c0"))
+	mustInvoke(t, stub, "RawMultiBatchWrite", uint32Bytes(1), []byte("L1"), []byte("entry1"), []byte("c1"), []byte("L1"))
+
+	// the commit written without its log entry key has an empty log entry, and the range stops at the height
+	commits := mustInvoke(t, stub, "ReadCommitRange", []byte("0"), []byte("5"))
+
+	expected := append(uint32Bytes(2), encodeCommitRecord([]byte("c0"), nil)...)
+	expected = append(expected, encodeCommitRecord([]byte("c1"), []byte("entry1"))...)
+	if !bytes.Equal(commits, expected) {
+		t.Errorf("commit range is %v, expected %v", commits, expected)
+	}
+}
+
+func chunkManifest(count int, total int) []byte {
+	return append([]byte{_chunkManifest}, append(uint32Bytes(count), uint32Bytes(total)...)...)
+}
+
+func chunkPage(chunks ...string) []byte {
+	output := uint32Bytes(len(chunks))
+	for _, chunk := range chunks {
+		output = append(output, uint32Bytes(len(chunk))...)
+		output = append(output, chunk...)
+	}
+	return output
+}
+
+func TestRawWriteChunksRoundTrip(t *testing.T) {
+	stub := newStub()
+	mustInvoke(t, stub, "RawWriteChunks", []byte("k"), []byte("abcd"), []byte("efgh"), []byte("ij"))
+
+	expectState(t, stub, stateKey("k"), chunkManifest(3, 10))
+	expectState(t, stub, chunkKey(stateKey("k"), 2), []byte("ij"))
+	if manifest := mustInvoke(t, stub, "RawRead", []byte("k")); !bytes.Equal(manifest, chunkManifest(3, 10)) {
+		t.Errorf("RawRead returned %v, expected the manifest", manifest)
+	}
+
+	pages := map[[2]string][]byte{
+		{"0", "2"}: chunkPage("abcd", "efgh"),
+		{"2", "2"}: chunkPage("ij"),
+		{"3", "1"}: chunkPage(),
+	}
+	for page, expected := range pages {
+		chunks := mustInvoke(t, stub, "RawReadChunks", []byte("k"), []byte(page[0]), []byte(page[1]))
+		if !bytes.Equal(chunks, expected) {
+			t.Errorf("chunks %s+%s are %v, expected %v", page[0], page[1], chunks, expected)
+		}
+	}
+}
+
+func TestRawWriteChunksDeletesChunksOfLongerValue(t *testing.T) {
+	stub := newStub()
+	mustInvoke(t, stub, "RawWriteChunks", []byte("k"), []byte("abcd"), []byte("efgh"), []byte("ij"))
+	mustInvoke(t, stub, "RawWriteChunks", []byte("k"), []byte("klmn"), []byte("o"))
+
+	expectState(t, stub, stateKey("k"), chunkManifest(2, 5))
+	if _, ok := stub.State[chunkKey(stateKey("k"), 2)]; ok {
+		t.Errorf("chunk 2 of the longer value was left behind")
+	}
+	if chunks := mustInvoke(t, stub, "RawReadChunks", []byte("k"), []byte("0"), []byte("4")); !bytes.Equal(chunks, chunkPage("klmn", "o")) {
+		t.Errorf("chunks are %v, expected the two chunks of the new value", chunks)
+	}
+}
+
+func TestRawWriteDeletesChunksOfValueItReplaces(t *testing.T) {
+	stub := newStub()
+	mustInvoke(t, stub, "RawWriteChunks", []byte("k"), []byte("abcd"), []byte("efgh"))
+	mustInvoke(t, stub, "RawWrite", []byte("k"), []byte("small"))
+
+	expectState(t, stub, stateKey("k"), []byte("small"))
+	for key := range stub.State {
+		if strings.HasPrefix(key, _prefixChunk) {
+			t.Errorf("chunk %s of the replaced value was left behind", key)
+		}
+	}
+}
+
+func TestPackageWriteChunksAreNotListedAsPackages(t *testing.T) {
+	stub := newStub()
+	mustInvoke(t, stub, "PackageWriteChunks", []byte("0a1b"), []byte("abcd"), []byte("ef"))
+
+	expectState(t, stub, _prefixPackages+"0a1b", chunkManifest(2, 6))
+	if chunks := mustInvoke(t, stub, "PackageReadChunks", []byte("0a1b"), []byte("0"), []byte("2")); !bytes.Equal(chunks, chunkPage("abcd", "ef")) {
+		t.Errorf("chunks are %v, expected the two chunks of the package", chunks)
+	}
+	if packages := mustInvoke(t, stub, "PackageListRead"); !bytes.Equal(packages, chunkPage("0a1b")) {
+		t.Errorf("package list is %v, expected only the package", packages)
+	}
+}
+
+func TestReadChunksRejectsMalformedRange(t *testing.T) {
+	stub := newStub()
+	mustInvoke(t, stub, "RawWriteChunks", []byte("k"), []byte("abcd"))
+
+	for _, page := range [][2]string{{"-1", "2"}, {"0", "-2"}, {"zero", "2"}, {"0", "two"}} {
+		if _, err := invoke(stub, "RawReadChunks", []byte("k"), []byte(page[0]), []byte(page[1])); err == nil {
+			t.Errorf("RawReadChunks %s+%s succeeded", page[0], page[1])
+		}
+	}
+}
+
+func TestPackageListReadListsPackageHashes(t *testing.T) {
+	stub := newStub()
+	mustInvoke(t, stub, "PackageWrite", []byte("2c3d"), []byte("archive2"))
+	mustInvoke(t, stub, "PackageWrite", []byte("0a1b"), []byte("archive1"))
+	mustInvoke(t, stub, "RawWrite", []byte("k"), []byte("v"))
+
+	// in key order, without the state written next to them
+	if packages := mustInvoke(t, stub, "PackageListRead"); !bytes.Equal(packages, chunkPage("0a1b", "2c3d")) {
+		t.Errorf("package list is %v, expected both packages", packages)
+	}
+	if archive := mustInvoke(t, stub, "PackageRead", []byte("2c3d")); !bytes.Equal(archive, []byte("archive2")) {
+		t.Errorf("package is %q, expected archive2", archive)
+	}
+}
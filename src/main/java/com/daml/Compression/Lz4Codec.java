@@ -0,0 +1,61 @@
+// Copyright (c) 2020 Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+
+
+package com.daml.Compression;
+
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Exception;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4SafeDecompressor;
+
+import java.util.Arrays;
+
+/**
+ * LZ4 block compression. Much faster than gzip at a somewhat lower ratio.
+ */
+public final class Lz4Codec implements ValueCodec {
+
+    public static final byte ID = 0x01;
+
+    private final LZ4Compressor compressor;
+    // the safe decompressor never reads or writes outside the given ranges, whatever the input
+    private final LZ4SafeDecompressor decompressor;
+
+    public Lz4Codec() {
+        LZ4Factory factory = LZ4Factory.fastestInstance();
+        compressor = factory.fastCompressor();
+        decompressor = factory.safeDecompressor();
+    }
+
+    @Override
+    public byte id() {
+        return ID;
+    }
+
+    @Override
+    public String name() {
+        return "lz4";
+    }
+
+    @Override
+    public byte[] compress(byte[] data) {
+        byte[] out = new byte[compressor.maxCompressedLength(data.length)];
+        int len = compressor.compress(data, 0, data.length, out, 0, out.length);
+        return Arrays.copyOf(out, len);
+    }
+
+    @Override
+    public void decompress(byte[] src, int srcOffset, int srcLength, byte[] dst) {
+        int written;
+        try {
+            written = decompressor.decompress(src, srcOffset, srcLength, dst, 0, dst.length);
+        } catch (LZ4Exception e) {
+            throw new RuntimeException("Corrupt LZ4 value", e);
+        }
+        if (written != dst.length)
+            throw new RuntimeException(String.format("Corrupt LZ4 value: %d of %d bytes", written, dst.length));
+    }
+
+}
@@ -0,0 +1,31 @@
+// Copyright (c) 2020 Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+
+
+package com.daml.Compression;
+
+/**
+ * A compression algorithm for the values written to the ledger.
+ * Framing (header byte, original size) is done by ValueCompression.
+ */
+public interface ValueCodec {
+
+    /**
+     * @return header byte that marks values written with this codec
+     */
+    byte id();
+
+    /**
+     * @return name used in the configuration
+     */
+    String name();
+
+    byte[] compress(byte[] data);
+
+    /**
+     * Decompresses src[srcOffset, srcOffset + srcLength) into dst, which has exactly the original size.
+     */
+    void decompress(byte[] src, int srcOffset, int srcLength, byte[] dst);
+
+}
@@ -0,0 +1,234 @@
+// Copyright (c) 2020 Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+
+
+package com.daml.Compression;
+
+import com.daml.Fabric.FabricContextConfigYaml;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compresses the values written to the ledger with the configured codec.
+ *
+ * Stored format:
+ *   - [0x00][value]                                 value below the threshold, or one that did not shrink
+ *   - [codec id][original size, uint32 LE][payload] value compressed with LZ4 (0x01), zstd (0x02) or zstd with dictionary (0x03)
+ *   - gzip stream (starts with 0x1f)                the format of all values before codecs were introduced
+ *
+ * Every format is always readable, whatever codec is configured for writing,
+ * except zstd with dictionary which needs the dictionary. A value that would
+ * decompress to more than maxSize bytes is rejected before anything is allocated.
+ */
+public final class ValueCompression {
+
+    public static final byte RAW = 0x00;
+    // first byte of a gzip stream
+    private static final byte GZIP_MAGIC = 0x1f;
+    private static final int HEADER_SIZE = 5;
+
+    public static final String GZIP = "gzip";
+    public static final String NONE = "none";
+    public static final String LZ4 = "lz4";
+    public static final String ZSTD = "zstd";
+
+    public static final int DEFAULT_MAX_SIZE = 256 << 20;
+
+    // codec used for writing, null for legacy gzip
+    private final ValueCodec codec;
+    private final boolean raw;
+    private final int threshold;
+    private final int maxSize;
+
+    private final ValueCodec lz4 = new Lz4Codec();
+    private final ValueCodec zstd;
+    private final ValueCodec zstdDict;
+
+    /**
+     * @param codecName gzip, none, lz4 or zstd
+     * @param threshold values shorter than this are stored uncompressed
+     * @param zstdLevel zstd compression level
+     * @param zstdDictionary zstd dictionary, or null
+     */
+    public ValueCompression(String codecName, int threshold, int zstdLevel, byte[] zstdDictionary) {
+        this(codecName, threshold, zstdLevel, zstdDictionary, DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * @param maxSize largest decompressed value (bytes) that is read
+     */
+    public ValueCompression(String codecName, int threshold, int zstdLevel, byte[] zstdDictionary, int maxSize) {
+        if (maxSize <= 0)
+            throw new RuntimeException(String.format("Invalid maximum value size %d", maxSize));
+        this.threshold = threshold;
+        this.maxSize = maxSize;
+        this.zstd = new ZstdCodec(zstdLevel);
+        this.zstdDict = (zstdDictionary != null) ? new ZstdCodec(zstdLevel, zstdDictionary) : null;
+
+        String name = (codecName == null || codecName.isEmpty()) ? GZIP : codecName.toLowerCase();
+        switch (name) {
+            case GZIP:
+                codec = null;
+                raw = false;
+                break;
+            case NONE:
+                codec = null;
+                raw = true;
+                break;
+            case LZ4:
+                codec = lz4;
+                raw = false;
+                break;
+            case ZSTD:
+                codec = (zstdDict != null) ? zstdDict : zstd;
+                raw = false;
+                break;
+            default:
+                throw new RuntimeException(String.format("Invalid compression codec '%s'", codecName));
+        }
+    }
+
+    /**
+     * @param config compression settings, null for the defaults
+     */
+    public static ValueCompression fromConfig(FabricContextConfigYaml.CompressionConfig config) {
+        if (config == null)
+            config = new FabricContextConfigYaml.CompressionConfig();
+
+        byte[] dictionary = null;
+        if (config.zstdDictionary != null && !config.zstdDictionary.isEmpty()) {
+            try {
+                dictionary = Files.readAllBytes(Paths.get(config.zstdDictionary));
+            } catch (Throwable t) {
+                throw new RuntimeException(String.format("Cannot read zstd dictionary '%s'", config.zstdDictionary), t);
+            }
+        }
+
+        return new ValueCompression(config.codec, config.threshold, config.zstdLevel, dictionary, config.maxValueSize);
+    }
+
+    public byte[] compress(byte[] data) {
+        if (codec == null && !raw)
+            return gzip(data);
+        if (raw || data.length < threshold)
+            return frameRaw(data);
+
+        byte[] payload = codec.compress(data);
+        if (payload.length + HEADER_SIZE > data.length)
+            return frameRaw(data);
+
+        byte[] out = new byte[HEADER_SIZE + payload.length];
+        out[0] = codec.id();
+        ByteBuffer.wrap(out, 1, 4).order(ByteOrder.LITTLE_ENDIAN).putInt(data.length);
+        System.arraycopy(payload, 0, out, HEADER_SIZE, payload.length);
+        return out;
+    }
+
+    public byte[] decompress(byte[] data) {
+        return decompress(data, 0, data.length);
+    }
+
+    public byte[] decompress(byte[] data, int offset, int length) {
+        if (length == 0)
+            return new byte[0];
+
+        byte header = data[offset];
+        if (header == GZIP_MAGIC)
+            return gunzip(data, offset, length, maxSize);
+        if (header == RAW) {
+            byte[] out = new byte[length - 1];
+            System.arraycopy(data, offset + 1, out, 0, out.length);
+            return out;
+        }
+
+        ValueCodec decoder = decoder(header);
+        if (length < HEADER_SIZE)
+            throw new RuntimeException(String.format("Corrupt %s value of %d bytes", decoder.name(), length));
+        int size = ByteBuffer.wrap(data, offset + 1, 4).order(ByteOrder.LITTLE_ENDIAN).getInt();
+        if (size < 0)
+            throw new RuntimeException(String.format("Corrupt %s value: size %d", decoder.name(), size));
+        if (size > maxSize)
+            throw new RuntimeException(String.format("%s value of %d bytes is over the maximum of %d", decoder.name(), size, maxSize));
+        byte[] out = new byte[size];
+        decoder.decompress(data, offset + HEADER_SIZE, length - HEADER_SIZE, out);
+        return out;
+    }
+
+    private ValueCodec decoder(byte header) {
+        switch (header) {
+            case Lz4Codec.ID:
+                return lz4;
+            case ZstdCodec.ID:
+                return zstd;
+            case ZstdCodec.DICT_ID:
+                if (zstdDict == null)
+                    throw new RuntimeException("Value is compressed with a zstd dictionary, but no dictionary is configured");
+                return zstdDict;
+            default:
+                throw new RuntimeException(String.format("Unknown compression header 0x%02x", header));
+        }
+    }
+
+    private static byte[] frameRaw(byte[] data) {
+        byte[] out = new byte[data.length + 1];
+        out[0] = RAW;
+        System.arraycopy(data, 0, out, 1, data.length);
+        return out;
+    }
+
+    public static byte[] gzip(byte[] data) {
+        try {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            GZIPOutputStream out = new GZIPOutputStream(baos);
+            out.write(data);
+            out.close();
+            return baos.toByteArray();
+        } catch (Throwable t) {
+            if (RuntimeException.class.isAssignableFrom(t.getClass())) {
+                throw (RuntimeException) t;
+            } else {
+                throw new RuntimeException(t);
+            }
+        }
+    }
+
+    public static byte[] gunzip(byte[] data, int offset, int length) {
+        return gunzip(data, offset, length, Integer.MAX_VALUE);
+    }
+
+    // fails once more than maxSize bytes come out, rather than trusting the size in the trailer
+    public static byte[] gunzip(byte[] data, int offset, int length, int maxSize) {
+        try {
+            // the gzip trailer ends with the uncompressed size (mod 2^32), good enough to size the buffer
+            int sizeHint = (length >= 18)
+                    ? ByteBuffer.wrap(data, offset + length - 4, 4).order(ByteOrder.LITTLE_ENDIAN).getInt()
+                    : 0;
+            ByteArrayOutputStream baos = new ByteArrayOutputStream((sizeHint > 0 && sizeHint < Math.min(maxSize, 64 << 20)) ? sizeHint : 1024);
+            GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(data, offset, length), 8192);
+            byte[] b = new byte[8192];
+            int len;
+            while ((len = in.read(b)) != -1) {
+                if (baos.size() > maxSize - len)
+                    throw new RuntimeException(String.format("gzip value is over the maximum of %d bytes", maxSize));
+                baos.write(b, 0, len);
+            }
+            in.close();
+            return baos.toByteArray();
+        } catch (Throwable t) {
+            if (RuntimeException.class.isAssignableFrom(t.getClass())) {
+                throw (RuntimeException) t;
+            } else {
+                throw new RuntimeException(t);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,93 @@
+// Copyright (c) 2020 Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+
+
+package com.daml.Compression;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdDictCompress;
+import com.github.luben.zstd.ZstdDictDecompress;
+import com.github.luben.zstd.ZstdDictTrainer;
+
+/**
+ * Zstandard compression, optionally with a dictionary.
+ *
+ * DAML envelopes are small and share a lot of structure (protobuf field layout, package ids,
+ * party names), so a dictionary trained on them helps the ratio of small values considerably.
+ * Values written with a dictionary get their own header byte: a participant reading them
+ * has to be configured with the same dictionary.
+ */
+public final class ZstdCodec implements ValueCodec {
+
+    public static final byte ID = 0x02;
+    public static final byte DICT_ID = 0x03;
+
+    public static final int DEFAULT_LEVEL = 3;
+
+    private final int level;
+    private final ZstdDictCompress dictCompress;
+    private final ZstdDictDecompress dictDecompress;
+
+    public ZstdCodec(int level) {
+        this(level, null);
+    }
+
+    /**
+     * @param dictionary trained dictionary, or null for plain zstd
+     */
+    public ZstdCodec(int level, byte[] dictionary) {
+        this.level = level;
+        if (dictionary != null) {
+            dictCompress = new ZstdDictCompress(dictionary, level);
+            dictDecompress = new ZstdDictDecompress(dictionary);
+        } else {
+            dictCompress = null;
+            dictDecompress = null;
+        }
+    }
+
+    /**
+     * Trains a dictionary from sample values.
+     *
+     * @param dictSize maximum size of the dictionary in bytes
+     */
+    public static byte[] trainDictionary(Iterable<byte[]> samples, int dictSize) {
+        int total = 0;
+        for (byte[] sample : samples) {
+            total += sample.length;
+        }
+        ZstdDictTrainer trainer = new ZstdDictTrainer(total, dictSize);
+        for (byte[] sample : samples) {
+            trainer.addSample(sample);
+        }
+        return trainer.trainSamples();
+    }
+
+    @Override
+    public byte id() {
+        return (dictCompress != null) ? DICT_ID : ID;
+    }
+
+    @Override
+    public String name() {
+        return "zstd";
+    }
+
+    @Override
+    public byte[] compress(byte[] data) {
+        return (dictCompress != null) ? Zstd.compress(data, dictCompress) : Zstd.compress(data, level);
+    }
+
+    @Override
+    public void decompress(byte[] src, int srcOffset, int srcLength, byte[] dst) {
+        long result = (dictDecompress != null)
+                ? Zstd.decompressFastDict(dst, 0, src, srcOffset, srcLength, dictDecompress)
+                : Zstd.decompressByteArray(dst, 0, dst.length, src, srcOffset, srcLength);
+        if (Zstd.isError(result))
+            throw new RuntimeException("Corrupt zstd value: " + Zstd.getErrorName(result));
+        if (result != dst.length)
+            throw new RuntimeException(String.format("Corrupt zstd value: got %d of %d bytes", result, dst.length));
+    }
+
+}
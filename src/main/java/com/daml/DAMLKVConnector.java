@@ -5,34 +5,86 @@
 
 package com.daml;
 
+import com.daml.Compression.ValueCompression;
 import com.daml.EOS.EOSContext;
 import com.daml.Fabric.FabricContext;
 import com.daml.Fabric.FabricContextConfigYaml;
+import com.daml.Fabric.FabricContextException;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import org.hyperledger.fabric.protos.ledger.rwset.kvrwset.KvRwset;
 import org.hyperledger.fabric.sdk.BlockEvent;
+import org.hyperledger.fabric.sdk.BlockInfo;
 import org.hyperledger.fabric.sdk.BlockListener;
+import org.hyperledger.fabric.sdk.ChaincodeEvent;
+import org.hyperledger.fabric.sdk.ChaincodeEventListener;
 import org.hyperledger.fabric.sdk.Channel;
+import org.hyperledger.fabric.sdk.TxReadWriteSetInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.math.BigInteger;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Base64;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
 
 public class DAMLKVConnector {
 
+    private static final Logger logger = LoggerFactory.getLogger(DAMLKVConnector.class);
+
     public String DEFAULT_LEDGER_ID = "fabric-ledger-server";
 
     private FabricContext ctx;
     private EOSContext etx;
+    // codec of the values written to the ledger, set from the connector configuration
+    private ValueCompression compression;
+    // values and packages larger than this (after compression) are written in chunks
+    private int chunkSize;
+    // chunks fetched per query when reading a chunked value
+    private int chunksPerRead;
+
+    // when failed invokes are sent again
+    private RetryPolicy retryPolicy;
+    // schedules the back-off of retried async invokes
+    private final ScheduledExecutorService retryScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "daml-kv-retry");
+        t.setDaemon(true);
+        return t;
+    });
     
+    public static final long DEFAULT_STATE_CACHE_BYTES = 64L * 1024 * 1024;
+
+    // chaincode key prefix of the values written by RawWrite
+    private static final String STATE_KEY_PREFIX = "DState:";
+    // DAML state keys are namespaced with "DS", log entries are not cached
+    private static final byte[] DAML_STATE_PREFIX = "DS".getBytes(StandardCharsets.UTF_8);
+
+    // registry of the connector, chaincode call and retry metrics
+    private final MetricRegistry metrics;
+
+    // DAML state values by their chaincode key
+    private final StateCache stateCache;
+
     private static DAMLKVConnector instance;
     public static synchronized DAMLKVConnector get(boolean doEnsure, boolean doExplorer) {
+        return get(doEnsure, doExplorer, new MetricRegistry(), DEFAULT_STATE_CACHE_BYTES);
+    }
+
+    public static synchronized DAMLKVConnector get(boolean doEnsure, boolean doExplorer, MetricRegistry metrics, long stateCacheBytes) {
         if (instance == null) {
-            instance = new DAMLKVConnector(doEnsure, doExplorer);
+            instance = new DAMLKVConnector(doEnsure, doExplorer, metrics, stateCacheBytes);
         }
         
         return instance;
@@ -42,48 +94,169 @@ public class DAMLKVConnector {
         return get(false, false);
     }
 
-    private static void logTime(String f, long time) {
-        //System.out.format("%s : took %dms%n", f, System.currentTimeMillis()-time);
-        //System.out.flush();
+    // times the connector operation f, started at time (ms), as daml.fabric.connector.(f)
+    private void logTime(String f, long time) {
+        metrics.timer(MetricRegistry.name("daml.fabric.connector", f)).update(System.currentTimeMillis() - time, TimeUnit.MILLISECONDS);
     }
     
-    private String keyToString(byte[] key) {
+    private static String keyToString(byte[] key) {
         return Base64.getEncoder().encodeToString(key);
     }
 
-    private boolean haveBlocks;
+    // chaincode key of the commit log height
+    private static final String COMMIT_LOG_INDEX_KEY = "DCommitLogIndex";
+    // chaincode key prefix of the packages, followed by the package hash
+    private static final String PACKAGE_KEY_PREFIX = "DPackages:";
+
+    // hashes of the packages on the ledger: loaded once, then kept up to date by putPackage and the block listener
+    private final Set<String> knownPackages = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Notified with the new commit log height whenever a block raises it
+     */
+    @FunctionalInterface
+    public interface CommitHeightListener {
+
+        void newHeight(int height);
+
+    }
+
+    private final List<CommitHeightListener> heightListeners = new CopyOnWriteArrayList<>();
+    private int lastCommitHeight = 0;
+
+    public void addCommitHeightListener(CommitHeightListener listener) {
+        heightListeners.add(listener);
+    }
+
+    private void signalCommitHeight(int height) {
+        synchronized (heightListeners) {
+            if (height <= lastCommitHeight) return;
+            lastCommitHeight = height;
+        }
+        for (CommitHeightListener listener : heightListeners) {
+            listener.newHeight(height);
+        }
+    }
+
     private class DAMLBlockListener implements BlockListener {
 
         @Override
         public void received(BlockEvent blockEvent) {
-            synchronized (DAMLKVConnector.this) {
-                haveBlocks = true;
+            processBlock(blockEvent);
+        }
+    }
+
+    // reads the writes of the committed transactions of the block:
+    //   - cached state values are replaced, this is how writes from other participants reach the cache
+    //   - the commit log height is passed on to the height listeners, so nobody has to poll for it
+    //   - uploaded packages are added to the package index
+    private void processBlock(BlockEvent blockEvent) {
+        String ccName = ctx.getConfig().channel.chaincode.name;
+        int height = -1;
+        try {
+            for (BlockEvent.TransactionEvent txEvent : blockEvent.getTransactionEvents()) {
+                if (!txEvent.isValid()) continue;
+                for (BlockInfo.TransactionEnvelopeInfo.TransactionActionInfo action : txEvent.getTransactionActionInfos()) {
+                    TxReadWriteSetInfo rwSet = action.getTxReadWriteSet();
+                    if (rwSet == null) continue;
+                    for (TxReadWriteSetInfo.NsRwsetInfo nsRwSet : rwSet.getNsRwsetInfos()) {
+                        if (!ccName.equals(nsRwSet.getNamespace())) continue;
+                        height = Math.max(height, applyBlockWrites(nsRwSet.getRwset().getWritesList(), stateCache, knownPackages, compression));
+                    }
+                }
+            }
+        } catch (Throwable t) {
+            // a block we cannot read makes every cached value suspect, and the height has to be asked for
+            logger.warn("Dropping the state cache, cannot read block {}", blockEvent.getBlockNumber(), t);
+            stateCache.invalidateAll();
+            getCommitHeightAsync().thenAccept(this::signalCommitHeight);
+            return;
+        }
+
+        if (height >= 0)
+            signalCommitHeight(height);
+    }
+
+    // applies the chaincode writes of a committed transaction to the state cache and the package index,
+    //   returns the commit log height they set, -1 if they do not append to the commit log
+    static int applyBlockWrites(List<KvRwset.KVWrite> writes, StateCache stateCache, Set<String> knownPackages, ValueCompression compression) {
+        int height = -1;
+        for (KvRwset.KVWrite write : writes) {
+            if (write.getKey().startsWith(STATE_KEY_PREFIX)) {
+                // a chunked value is dropped, its chunks are in writes of their own
+                stateCache.blockWrite(write.getKey(), () -> {
+                    byte[] value = write.getValue().toByteArray();
+                    return (write.getIsDelete() || isChunkManifest(value)) ? null : compression.decompress(value);
+                });
+            } else if (write.getKey().startsWith(PACKAGE_KEY_PREFIX) && !write.getIsDelete()) {
+                knownPackages.add(write.getKey().substring(PACKAGE_KEY_PREFIX.length()));
+            } else if (COMMIT_LOG_INDEX_KEY.equals(write.getKey()) && write.getValue().size() == 4) {
+                height = Math.max(height, write.getValue().asReadOnlyByteBuffer().order(ByteOrder.LITTLE_ENDIAN).getInt());
             }
         }
+        return height;
     }
 
-    public boolean checkNewBlocks() {
-        boolean rNewBlocks;
-        synchronized (this) {
-            rNewBlocks = haveBlocks;
-            haveBlocks = false;
+    private boolean isStateKey(byte[] key) {
+        if (key.length < DAML_STATE_PREFIX.length) return false;
+        for (int i = 0; i < DAML_STATE_PREFIX.length; i++) {
+            if (key[i] != DAML_STATE_PREFIX[i]) return false;
         }
-        return rNewBlocks;
+        return true;
+    }
+
+    private String stateCacheKey(byte[] key) {
+        return STATE_KEY_PREFIX + keyToString(key);
     }
 
-    private DAMLKVConnector(boolean doEnsure, boolean doExplorer) {
-        synchronized (this) {
-            haveBlocks = true;
+    // stateBatch is [key, compressed value]* with an optional trailing commit,
+    //   the generations of its state keys are taken before it is sent (see cacheStateBatch)
+    private long[] stateGenerations(byte[][] stateBatch) {
+        long[] generations = new long[stateBatch.length / 2];
+        for (int i = 0; i + 1 < stateBatch.length; i += 2) {
+            if (isStateKey(stateBatch[i]))
+                generations[i / 2] = stateCache.generation(stateCacheKey(stateBatch[i]));
         }
+        return generations;
+    }
 
-        ctx = new FabricContext(doEnsure);
-        etx = new EOSContext();
+    // caches the state values of a batch once it is committed, unless a block wrote them since it was sent
+    private void cacheStateBatch(byte[][] stateBatch, long[] generations) {
+        for (int i = 0; i + 1 < stateBatch.length; i += 2) {
+            if (isStateKey(stateBatch[i])) {
+                stateCache.cacheWrite(stateCacheKey(stateBatch[i]), generations[i / 2], decompressBytes(stateBatch[i + 1]));
+            }
+        }
+    }
+
+    private DAMLKVConnector(boolean doEnsure, boolean doExplorer, MetricRegistry metrics, long stateCacheBytes) {
+        this.metrics = metrics;
+        stateCache = new StateCache(stateCacheBytes);
+        metrics.register("daml.fabric.state_cache.hits", (Gauge<Long>) () -> stateCache.stats().hitCount());
+        metrics.register("daml.fabric.state_cache.misses", (Gauge<Long>) () -> stateCache.stats().missCount());
+        metrics.register("daml.fabric.state_cache.evictions", (Gauge<Long>) () -> stateCache.stats().evictionCount());
+        metrics.register("daml.fabric.state_cache.size", (Gauge<Long>) stateCache::estimatedSize);
+
+        ctx = new FabricContext(doEnsure, metrics);
+        etx = new EOSContext(metrics, ctx.getConfig().eos);
+        compression = ValueCompression.fromConfig(ctx.getConfig().compression);
+        retryPolicy = new RetryPolicy(ctx.getConfig().retry, retryScheduler, metrics);
+        FabricContextConfigYaml.ChunkingConfig chunking = ctx.getConfig().chunking != null
+                ? ctx.getConfig().chunking
+                : new FabricContextConfigYaml.ChunkingConfig();
+        if (chunking.chunkSize <= 0)
+            throw new FabricContextException(String.format("Invalid chunking.chunkSize %d, must be positive", chunking.chunkSize));
+        chunkSize = chunking.chunkSize;
+        chunksPerRead = Math.max(1, chunking.chunksPerRead);
         if (doExplorer) ExplorerService.Run(ctx);
 
         // run block checker
         Channel c = ctx.getChannel();
         try {
             c.registerBlockListener(new DAMLBlockListener());
+            ctx.registerChaincodeEventListener("DCommitLogAppended", new DAMLCommitLogEventListener());
+            // after the block listener, so no package uploaded meanwhile is missed
+            knownPackages.addAll(Arrays.asList(getPackageList()));
         } catch (Throwable t) {
             if (RuntimeException.class.isAssignableFrom(t.getClass())) {
                 throw (RuntimeException) t;
@@ -108,80 +281,230 @@ public class DAMLKVConnector {
 
     }
 
-    // if we have a chaincode invoke exception with invalid transaction - status 10 or 11, this means
-    //   that there was a state read/write conflict at the Orderer. we need to retry the transaction
-    private boolean checkException(String msg) {
-        return (msg != null && (msg.contains("status 11") || msg.contains("status 10")));
-    }
+    @FunctionalInterface
+    private interface AsyncRetryFunction<T> {
 
-    private byte[] retryInvoke(RetryFunction f) {
-        // logically, ce cannot be uninitialized here, but Java does not recognize this
-        RuntimeException ce = null;
+        CompletableFuture<T> call();
 
-        for (int i = 0; i < 5; i++) {
-            try {
-                return f.call();
-            } catch (RuntimeException e) {
-
-                String msg = e.getMessage();
-                // Status 11 means there was some kind of concurrency conflict at the orderer
-                if (checkException(msg)) {
-                    ce = e;
-                    try {
-                        Thread.sleep(250);
-                        System.out.format("INTERNAL: retrying Fabric transaction...%n");
-                    } catch (InterruptedException ie) {
-                        throw new RuntimeException(ie);
-                    }
-                    continue;
-                }
+    }
 
-                e.printStackTrace(System.err);
-                throw e;
+    // retries the invoke if it lost a read conflict at validation, see RetryPolicy
+    private byte[] retryInvoke(String fcn, RetryFunction f) {
+        return retryPolicy.call(fcn, f::call);
+    }
 
-            }
-        }
+    private <T> CompletableFuture<T> retryInvokeAsync(String fcn, AsyncRetryFunction<T> f) {
+        return retryPolicy.callAsync(fcn, f::call);
+    }
 
-        throw ce;
+    // CompletableFuture.failedFuture is Java 9+
+    private static <T> CompletableFuture<T> failedFuture(Throwable t) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(t);
+        return future;
     }
-    
+
+    private static <T> CompletableFuture<Void> discard(CompletableFuture<T> future) {
+        return future.thenApply(r -> null);
+    }
+
     public void putValue(byte[] key, byte[] value) {
-        System.out.println("========== putValue start ==========");
-        long init = System.currentTimeMillis();
-        retryInvoke(() -> ctx.invokeChaincode("RawWrite", key, gzipBytes(value)));
-        logTime("putValue", init);
-        System.out.println("========== putValue end ==========");
+        FabricContext.await(putValueAsync(key, value));
+    }
 
-        putEOSValue(key, value);
+    public CompletableFuture<Void> putValueAsync(byte[] key, byte[] value) {
+        logger.trace("putValue start");
+        long init = System.currentTimeMillis();
+        byte[] stored = compressBytes(value);
+        boolean chunked = stored.length > chunkSize;
+        String fcn = chunked ? "RawWriteChunks" : "RawWrite";
+        String cacheKey = stateCacheKey(key);
+        long generation = stateCache.generation(cacheKey);
+        return retryInvokeAsync(fcn, () -> chunked
+                        ? ctx.invokeChaincodeAsync(fcn, chunkArgs(key, stored, chunkSize))
+                        : ctx.invokeChaincodeAsync(fcn, key, stored))
+                .thenCompose(r -> {
+                    if (isStateKey(key))
+                        stateCache.cacheWrite(cacheKey, generation, value);
+                    logTime("putValue", init);
+                    logger.trace("putValue end");
+                    return putEOSValueAsync(key, value);
+                });
     }
 
     public void putEOSValue(byte[] key, byte[] value) {
-        System.out.println("========== putEOSValue start ==========");
+        FabricContext.await(putEOSValueAsync(key, value));
+    }
+
+    public CompletableFuture<Void> putEOSValueAsync(byte[] key, byte[] value) {
+        logger.trace("putEOSValue start");
         long init = System.currentTimeMillis();
-        retryInvoke(() -> etx.invokeChaincode("rawwrite", key, gzipBytes(value)));
-        logTime("putValue", init);
-        System.out.println("========== putEOSValue end ==========");
+        return discard(retryInvokeAsync("rawwrite", () -> etx.invokeChaincodeAsync("rawwrite", key, compressBytes(value)))
+                .thenApply(r -> {
+                    logTime("putEOSValue", init);
+                    logger.trace("putEOSValue end");
+                    return r;
+                }));
     }
 
-    public void putBatchAndCommit(byte[][] stateBatch) {
-        System.out.println("========== putBatchAndCommit start ==========");
+    /**
+     * Acknowledgement of a transaction that appended to the commit log
+     */
+    public static final class CommitAck {
+        // commit log height after the transaction
+        public final int height;
+        // block that validated the transaction
+        public final long blockNumber;
+
+        CommitAck(int height, long blockNumber) {
+            this.height = height;
+            this.blockNumber = blockNumber;
+        }
+    }
+
+    private CommitAck toCommitAck(FabricContext.InvokeAck ack) {
+        return new CommitAck(decodeCommitHeight(ack.payload), ack.blockNumber);
+    }
+
+    public CommitAck putBatchAndCommit(byte[][] stateBatch) {
+        return FabricContext.await(putBatchAndCommitAsync(stateBatch));
+    }
+
+    public CompletableFuture<CommitAck> putBatchAndCommitAsync(byte[][] stateBatch) {
+        logger.trace("putBatchAndCommit start");
         long init = System.currentTimeMillis();
-        retryInvoke(() -> ctx.invokeChaincode("RawBatchWrite", stateBatch));
-        logTime("putBatch", init);
-        System.out.println("========== putBatchAndCommit end ==========");
+        long[] generations = stateGenerations(stateBatch);
+        return retryInvokeAsync("RawBatchWrite", () -> ctx.invokeChaincodeWithAckAsync("RawBatchWrite", stateBatch))
+                .thenApply(ack -> {
+                    cacheStateBatch(stateBatch, generations);
+                    logTime("putBatch", init);
+                    logger.trace("putBatchAndCommit end");
+                    return toCommitAck(ack);
+                });
+    }
+
+    public CommitAck putMultiBatchAndCommit(byte[][] stateBatch, byte[][] commits, byte[][] entryKeys) {
+        return FabricContext.await(putMultiBatchAndCommitAsync(stateBatch, commits, entryKeys));
+    }
+
+    // writes the state updates of several submissions and appends all their commits in one transaction,
+    //   entryKeys[i] is the key of the log entry of commits[i] (it is returned along with it by getCommitRange).
+    //   completes with the new commit log height and the block the transaction was validated in
+    public CompletableFuture<CommitAck> putMultiBatchAndCommitAsync(byte[][] stateBatch, byte[][] commits, byte[][] entryKeys) {
+        logger.trace("putMultiBatchAndCommit start");
+        long init = System.currentTimeMillis();
+        byte[][] args = multiBatchArgs(stateBatch, commits, entryKeys);
+        long[] generations = stateGenerations(stateBatch);
+        return retryInvokeAsync("RawMultiBatchWrite", () -> ctx.invokeChaincodeWithAckAsync("RawMultiBatchWrite", args))
+                .thenApply(ack -> {
+                    cacheStateBatch(stateBatch, generations);
+                    logTime("putMultiBatch", init);
+                    logger.trace("putMultiBatchAndCommit end");
+                    return toCommitAck(ack);
+                });
+    }
+
+    // the arguments of RawMultiBatchWrite: the number of commits (uint32 LE), the [key, value] pairs,
+    //   the commits and the log entry key of each commit
+    static byte[][] multiBatchArgs(byte[][] stateBatch, byte[][] commits, byte[][] entryKeys) {
+        if (entryKeys.length != commits.length)
+            throw new IllegalArgumentException("Expected one log entry key per commit");
+        if (stateBatch.length % 2 != 0)
+            throw new IllegalArgumentException("Expected [key, value] pairs of state");
+        byte[][] args = new byte[1 + stateBatch.length + 2 * commits.length][];
+        args[0] = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(commits.length).array();
+        System.arraycopy(stateBatch, 0, args, 1, stateBatch.length);
+        System.arraycopy(commits, 0, args, 1 + stateBatch.length, commits.length);
+        System.arraycopy(entryKeys, 0, args, 1 + stateBatch.length + commits.length, entryKeys.length);
+        return args;
     }
 
     public void putEOSBatchAndCommit(byte[][] stateBatch) {
-        System.out.println("========== putEOSBatchAndCommit start ========== ");
+        FabricContext.await(putEOSBatchAndCommitAsync(stateBatch));
+    }
+
+    public CompletableFuture<Void> putEOSBatchAndCommitAsync(byte[][] stateBatch) {
+        logger.trace("putEOSBatchAndCommit start");
         long init = System.currentTimeMillis();
-        retryInvoke(() -> etx.invokeChaincode("rawbatchwrite", stateBatch));
-        logTime("putEOSBatch", init);
-        System.out.println("========== putEOSBatchAndCommit end ==========");
+        return discard(retryInvokeAsync("rawbatchwrite", () -> etx.invokeChaincodeAsync("rawbatchwrite", stateBatch))
+                .thenApply(r -> {
+                    logTime("putEOSBatch", init);
+                    logger.trace("putEOSBatchAndCommit end");
+                    return r;
+                }));
     }
 
-    public byte[] getValue(byte[] key) {
-        System.out.println("========== getValue start ==========");
-        byte[] data = ctx.queryChaincode("RawRead", new byte[][]{ key });
+    // a chunked value is stored as a manifest: the marker, the number of chunks and the total size (uint32 LE)
+    private static final byte CHUNK_MANIFEST = (byte) 0xC0;
+    private static final int CHUNK_MANIFEST_LEN = 9;
+
+    static boolean isChunkManifest(byte[] value) {
+        return value != null && value.length == CHUNK_MANIFEST_LEN && value[0] == CHUNK_MANIFEST;
+    }
+
+    // the key followed by the data cut into chunkSize pieces, the arguments of RawWriteChunks/PackageWriteChunks
+    static byte[][] chunkArgs(byte[] key, byte[] data, int chunkSize) {
+        int count = (data.length + chunkSize - 1) / chunkSize;
+        byte[][] args = new byte[1 + count][];
+        args[0] = key;
+        for (int i = 0; i < count; i++) {
+            args[1 + i] = Arrays.copyOfRange(data, i * chunkSize, Math.min(data.length, (i + 1) * chunkSize));
+        }
+        return args;
+    }
+
+    private CompletableFuture<byte[]> readChunksAsync(String fcn, byte[] key, byte[] manifest) {
+        return readChunksAsync((from, count) -> ctx.queryChaincodeAsync(fcn, key,
+                Integer.toString(from).getBytes(StandardCharsets.UTF_8),
+                Integer.toString(count).getBytes(StandardCharsets.UTF_8)), key, manifest, chunksPerRead);
+    }
+
+    /**
+     * Reads the chunks a manifest points to, chunksPerRead per range query (readPage, given the index of
+     *   the first chunk and the number of chunks) with all queries in flight at once, and puts them together
+     *   in one buffer of the size given by the manifest.
+     */
+    static CompletableFuture<byte[]> readChunksAsync(BiFunction<Integer, Integer, CompletableFuture<byte[]>> readPage,
+                                                     byte[] key, byte[] manifest, int chunksPerRead) {
+        ByteBuffer manifestView = ByteBuffer.wrap(manifest).order(ByteOrder.LITTLE_ENDIAN);
+        int count = manifestView.getInt(1);
+        int total = manifestView.getInt(5);
+        if (count < 0 || total < 0)
+            return failedFuture(new RuntimeException(String.format("Corrupt chunk manifest of %s: %d chunks, %d bytes", keyToString(key), count, total)));
+
+        List<CompletableFuture<byte[]>> pages = new ArrayList<>();
+        for (int from = 0; from < count; from += chunksPerRead) {
+            pages.add(readPage.apply(from, Math.min(chunksPerRead, count - from)));
+        }
+
+        return CompletableFuture.allOf(pages.toArray(new CompletableFuture[0])).thenApply(v -> {
+            byte[] data = new byte[total];
+            int offset = 0;
+            int chunks = 0;
+            for (CompletableFuture<byte[]> page : pages) {
+                byte[] pageData = page.join();
+                ByteBuffer pageView = ByteBuffer.wrap(pageData).order(ByteOrder.LITTLE_ENDIAN);
+                int returned = pageView.getInt(0);
+                int pageOffset = 4;
+                for (int i = 0; i < returned; i++) {
+                    int chunkLen = pageView.getInt(pageOffset);
+                    if (offset + chunkLen > total)
+                        throw new RuntimeException(String.format("Chunks of %s exceed the %d bytes of the manifest", keyToString(key), total));
+                    System.arraycopy(pageData, pageOffset + 4, data, offset, chunkLen);
+                    offset += chunkLen;
+                    pageOffset += 4 + chunkLen;
+                }
+                chunks += returned;
+            }
+            if (chunks != count || offset != total)
+                throw new RuntimeException(String.format("Read %d chunks (%d bytes) of %s, manifest has %d (%d bytes)",
+                        chunks, offset, keyToString(key), count, total));
+            return data;
+        });
+    }
+
+    // logs the key and value the way the EOS table stores them, then unpacks the value (blocking reads only)
+    private byte[] decodeValue(byte[] key, byte[] data) {
         if (data != null && data.length > 0) {
 
             String hexadecimal_key = etx.byteArrayToHex(key).trim();
@@ -203,9 +526,121 @@ public class DAMLKVConnector {
 
             System.out.println("#### getValue key (base64): " + "DState:" + sb_key.toString());
             System.out.println("#### getValue value (base64): " + sb_data.toString());
+        }
+        return unpackValue(data);
+    }
+
+    // unpacks a value read from the ledger, an empty value stays empty
+    private byte[] unpackValue(byte[] data) {
+        return (data != null && data.length > 0) ? decompressBytes(data) : data;
+    }
+
+    public byte[] getValue(byte[] key) {
+        if (!isStateKey(key))
+            return readValue(key);
+
+        byte[] data = stateCache.get(stateCacheKey(key), k -> {
+            byte[] value = readValue(key);
+            return value == null ? StateCache.ABSENT : value;
+        });
+        return data == StateCache.ABSENT ? null : data;
+    }
+
+    public CompletableFuture<byte[]> getValueAsync(byte[] key) {
+        if (!isStateKey(key))
+            return readValueAsync(key);
+
+        String cacheKey = stateCacheKey(key);
+        byte[] cached = stateCache.getIfPresent(cacheKey);
+        if (cached != null)
+            return CompletableFuture.completedFuture(cached == StateCache.ABSENT ? null : cached);
+
+        long generation = stateCache.generation(cacheKey);
+        return readValueAsync(key).thenApply(value -> {
+            stateCache.cacheRead(cacheKey, generation, value);
+            return value;
+        });
+    }
+
+    /**
+     * Reads the values of several keys with a single RawMultiRead query,
+     *   keys found in the state cache are not sent to Fabric.
+     *
+     * @return the values in the order of the keys, null for keys without a value
+     */
+    public byte[][] getValues(byte[][] keys) {
+        return FabricContext.await(getValuesAsync(keys));
+    }
+
+    public CompletableFuture<byte[][]> getValuesAsync(byte[][] keys) {
+        byte[][] values = new byte[keys.length][];
+        int[] missing = new int[keys.length];
+        int missingCount = 0;
 
-            data = gunzipBytes(data);
+        for (int i = 0; i < keys.length; i++) {
+            byte[] cached = isStateKey(keys[i]) ? stateCache.getIfPresent(stateCacheKey(keys[i])) : null;
+            if (cached != null) {
+                values[i] = (cached == StateCache.ABSENT) ? null : cached;
+            } else {
+                missing[missingCount++] = i;
+            }
         }
+        if (missingCount == 0)
+            return CompletableFuture.completedFuture(values);
+
+        int requested = missingCount;
+        byte[][] missingKeys = new byte[requested][];
+        long[] generations = new long[requested];
+        for (int i = 0; i < requested; i++) {
+            missingKeys[i] = keys[missing[i]];
+            generations[i] = stateCache.generation(stateCacheKey(missingKeys[i]));
+        }
+
+        long init = System.currentTimeMillis();
+        return ctx.queryChaincodeAsync("RawMultiRead", missingKeys).thenCompose(data -> {
+            logTime("getValues", init);
+
+            ByteBuffer dataView = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+            int count = dataView.getInt(0);
+            if (count != requested)
+                throw new RuntimeException(String.format("RawMultiRead returned %d values for %d keys", count, requested));
+
+            // chunked values are read with all their chunk queries in flight at once
+            List<CompletableFuture<Void>> reads = new ArrayList<>();
+            int offset = 4;
+            for (int i = 0; i < requested; i++) {
+                int valueLen = dataView.getInt(offset);
+                int index = i;
+                if (valueLen == CHUNK_MANIFEST_LEN && data[offset + 4] == CHUNK_MANIFEST) {
+                    byte[] manifest = Arrays.copyOfRange(data, offset + 4, offset + 4 + valueLen);
+                    reads.add(readChunksAsync("RawReadChunks", missingKeys[i], manifest)
+                            .thenAccept(stored -> resolveValue(keys, values, missing[index], generations[index], decompressBytes(stored))));
+                } else {
+                    resolveValue(keys, values, missing[i], generations[i],
+                            valueLen > 0 ? compression.decompress(data, offset + 4, valueLen) : null);
+                }
+                offset += 4 + valueLen;
+            }
+
+            return CompletableFuture.allOf(reads.toArray(new CompletableFuture[0])).thenApply(v -> values);
+        });
+    }
+
+    // puts the value read for keys[index] in place, and in the state cache
+    private void resolveValue(byte[][] keys, byte[][] values, int index, long generation, byte[] value) {
+        if (value != null && value.length == 0)
+            value = null;
+        if (isStateKey(keys[index]))
+            stateCache.cacheRead(stateCacheKey(keys[index]), generation, value);
+        values[index] = value;
+    }
+
+    private byte[] readValue(byte[] key) {
+        System.out.println("========== getValue start ==========");
+        byte[] raw = ctx.queryChaincode("RawRead", new byte[][]{ key });
+        if (isChunkManifest(raw))
+            raw = FabricContext.await(readChunksAsync("RawReadChunks", key, raw));
+        byte[] data = decodeValue(key, raw);
         if (data.length == 0)
             return null;
 
@@ -213,116 +648,225 @@ public class DAMLKVConnector {
         return data;
     }
 
+    private CompletableFuture<byte[]> readValueAsync(byte[] key) {
+        logger.trace("getValue start");
+        return ctx.queryChaincodeAsync("RawRead", new byte[][]{ key })
+                .thenCompose(raw -> isChunkManifest(raw)
+                        ? readChunksAsync("RawReadChunks", key, raw)
+                        : CompletableFuture.completedFuture(raw))
+                .thenApply(raw -> {
+                    byte[] data = unpackValue(raw);
+                    if (data.length == 0)
+                        return null;
+
+                    logger.trace("getValue end");
+                    return data;
+                });
+    }
+
     public byte[] getEOSValue(byte[] key) {
         System.out.println("========== getEOSValue start ==========");
-        byte[] data = etx.queryChaincode("RawRead", new byte[][]{ key });
-        if (data != null && data.length > 0) {
-
-            String hexadecimal_key = etx.byteArrayToHex(key).trim();
-            String hexadecimal_data = etx.byteArrayToHex(data).trim();
-
-            BigInteger bigint_key = new BigInteger(hexadecimal_key, 16);
-            BigInteger bigint_data = new BigInteger(hexadecimal_data, 16);
+        byte[] data = decodeValue(key, etx.queryChaincode("RawRead", new byte[][]{ key }));
 
-            StringBuilder sb_key = new StringBuilder();
-            byte[] ba_key = org.apache.commons.codec.binary.Base64.encodeInteger(bigint_key);
-            for (byte b : ba_key) {
-                sb_key.append((char)b);
-            }
-            StringBuilder sb_data = new StringBuilder();
-            byte[] ba_data = org.apache.commons.codec.binary.Base64.encodeInteger(bigint_data);
-            for (byte b : ba_data) {
-                sb_data.append((char)b);
-            }
+        System.out.println("========== getEOSValue end ==========");
+        return data;
+    }
 
-            System.out.println("#### getValue key (base64): " + "DState:" + sb_key.toString());
-            System.out.println("#### getValue value (base64): " + sb_data.toString());
+    public CompletableFuture<byte[]> getEOSValueAsync(byte[] key) {
+        logger.trace("getEOSValue start");
+        return etx.queryChaincodeAsync("RawRead", new byte[][]{ key }).thenApply(raw -> {
+            byte[] data = unpackValue(raw);
 
-            data = gunzipBytes(data);
-        }
+            logger.trace("getEOSValue end");
+            return data;
+        });
+    }
 
-        System.out.println("========== getEOSValue end ==========");
-        return data;
+    public CommitAck putCommit(byte[] commit) {
+        return FabricContext.await(putCommitAsync(commit));
     }
 
-    public int putCommit(byte[] commit) {
+    public CompletableFuture<CommitAck> putCommitAsync(byte[] commit) {
         long init = System.currentTimeMillis();
-        logTime("putCommit", init);
-        byte[] newIndexBytes = retryInvoke(() -> ctx.invokeChaincode("WriteCommitLog", new byte[][]{ gzipBytes(commit) }));
-        int newIndex = ByteBuffer.wrap(newIndexBytes).order(ByteOrder.LITTLE_ENDIAN).getInt();
-        return newIndex;
+        return retryInvokeAsync("WriteCommitLog", () -> ctx.invokeChaincodeWithAckAsync("WriteCommitLog", new byte[][]{ compressBytes(commit) }))
+                .thenApply(ack -> {
+                    logTime("putCommit", init);
+                    return toCommitAck(ack);
+                });
     }
-    
-    public int getCommitHeight() {
 
-        long init = System.currentTimeMillis();
-        byte[] indexBytes = ctx.queryChaincode("ReadCommitHeight");
-        logTime("getCommitHeight", init);
+    private int decodeCommitHeight(byte[] indexBytes) {
         if (indexBytes == null || indexBytes.length == 0)
             return 0;
         int index = ByteBuffer.wrap(indexBytes).order(ByteOrder.LITTLE_ENDIAN).getInt();
         return index;
+    }
+
+    public int getCommitHeight() {
+
+        long init = System.currentTimeMillis();
+        byte[] indexBytes = ctx.queryChaincode("ReadCommitHeight");
+        logTime("getCommitHeight", init);
+        return decodeCommitHeight(indexBytes);
 
     }
 
-    public byte[] getCommit(int index) {
+    public CompletableFuture<Integer> getCommitHeightAsync() {
         long init = System.currentTimeMillis();
-        byte[] data = ctx.queryChaincode("ReadCommit", Integer.toString(index));
+        return ctx.queryChaincodeAsync("ReadCommitHeight").thenApply(indexBytes -> {
+            logTime("getCommitHeight", init);
+            return decodeCommitHeight(indexBytes);
+        });
+    }
+
+    private byte[] decodeCommit(byte[] data) {
         if (data != null && data.length > 0) {
-            data = gunzipBytes(data);
+            data = decompressBytes(data);
         }
-        logTime("getCommit", init);
         if (data.length == 0)
             return null;
         return data;
     }
+
+    public byte[] getCommit(int index) {
+        long init = System.currentTimeMillis();
+        byte[] data = decodeCommit(ctx.queryChaincode("ReadCommit", Integer.toString(index)));
+        logTime("getCommit", init);
+        return data;
+    }
+
+    public CompletableFuture<byte[]> getCommitAsync(int index) {
+        long init = System.currentTimeMillis();
+        return ctx.queryChaincodeAsync("ReadCommit", Integer.toString(index)).thenApply(data -> {
+            logTime("getCommit", init);
+            return decodeCommit(data);
+        });
+    }
     
-    public byte[] gzipBytes(byte[] data) {
-        
-        try {
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            GZIPOutputStream out = new GZIPOutputStream(baos);
-            out.write(data);
-            out.close();
-            return baos.toByteArray();
-        } catch (Throwable t) {
-            if (RuntimeException.class.isAssignableFrom(t.getClass())) {
-                throw (RuntimeException) t;
-            } else {
-                throw new RuntimeException(t);
-            }
+    /**
+     * A commit read back from the commit log, with the log entry it points to
+     *   (null if the commit was written without its log entry key and has to be read with getValue)
+     */
+    public static final class CommitLogRecord {
+        public final byte[] commit;
+        public final byte[] logEntry;
+
+        CommitLogRecord(byte[] commit, byte[] logEntry) {
+            this.commit = commit;
+            this.logEntry = logEntry;
         }
-        
     }
-    
-    private byte[] gunzipBytes(byte[] data) {
-        
-        try {
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            ByteArrayInputStream bais = new ByteArrayInputStream(data);
-            GZIPInputStream in = new GZIPInputStream(bais);
-            byte[] b = new byte[1024];
-            int len;            
-            while ((len = in.read(b)) != -1) {
-                baos.write(b, 0, len);
+
+    public CommitLogRecord[] getCommitRange(int from, int count) {
+        return FabricContext.await(getCommitRangeAsync(from, count));
+    }
+
+    /**
+     * Reads up to count commits starting at index from with a single ReadCommitRange query.
+     *   Fewer commits are returned if the peer's commit log is not that high (yet).
+     */
+    public CompletableFuture<CommitLogRecord[]> getCommitRangeAsync(int from, int count) {
+        long init = System.currentTimeMillis();
+        return ctx.queryChaincodeAsync("ReadCommitRange", Integer.toString(from), Integer.toString(count)).thenApply(data -> {
+            int returned = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN).getInt(0);
+            CommitLogRecord[] records = decodeCommitRecords(data, 4, returned);
+            logTime("getCommitRange", init);
+            return records;
+        });
+    }
+
+    private CommitLogRecord[] decodeCommitRecords(byte[] data, int offset, int count) {
+        return decodeCommitRecords(data, offset, count, compression);
+    }
+
+    // count records of [length][commit][length][log entry], as written by the chaincode's encodeCommitRecord
+    static CommitLogRecord[] decodeCommitRecords(byte[] data, int offset, int count, ValueCompression compression) {
+        ByteBuffer dataView = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+        CommitLogRecord[] records = new CommitLogRecord[count];
+        for (int i = 0; i < count; i++) {
+            int commitLen = dataView.getInt(offset);
+            byte[] commit = compression.decompress(data, offset + 4, commitLen);
+            if (commit.length == 0)
+                commit = null;
+            offset += 4 + commitLen;
+
+            int entryLen = dataView.getInt(offset);
+            byte[] logEntry = null;
+            // a chunked log entry is left to the reader to fetch with getValue
+            if (entryLen > 0 && !(entryLen == CHUNK_MANIFEST_LEN && data[offset + 4] == CHUNK_MANIFEST))
+                logEntry = compression.decompress(data, offset + 4, entryLen);
+            offset += 4 + entryLen;
+
+            records[i] = new CommitLogRecord(commit, logEntry);
+        }
+        return records;
+    }
+
+    /**
+     * Notified with the commits of every valid transaction that appended to the commit log,
+     *   taken from the DCommitLogAppended chaincode event
+     */
+    @FunctionalInterface
+    public interface CommitLogListener {
+
+        void appended(int firstIndex, CommitLogRecord[] records);
+
+    }
+
+    private final List<CommitLogListener> commitLogListeners = new CopyOnWriteArrayList<>();
+
+    public void addCommitLogListener(CommitLogListener listener) {
+        commitLogListeners.add(listener);
+    }
+
+    private class DAMLCommitLogEventListener implements ChaincodeEventListener {
+
+        @Override
+        public void received(String handle, BlockEvent blockEvent, ChaincodeEvent chaincodeEvent) {
+            // events of transactions that failed validation are delivered too
+            for (BlockEvent.TransactionEvent txEvent : blockEvent.getTransactionEvents()) {
+                if (txEvent.getTransactionID().equals(chaincodeEvent.getTxId()) && !txEvent.isValid())
+                    return;
             }
-            in.close();
-            bais.close();
-            return baos.toByteArray();
-        } catch (Throwable t) {
-            if (RuntimeException.class.isAssignableFrom(t.getClass())) {
-                throw (RuntimeException) t;
-            } else {
-                throw new RuntimeException(t);
+
+            byte[] payload = chaincodeEvent.getPayload();
+            int firstIndex;
+            CommitLogRecord[] records;
+            try {
+                ByteBuffer payloadView = ByteBuffer.wrap(payload).order(ByteOrder.LITTLE_ENDIAN);
+                firstIndex = payloadView.getInt(0);
+                records = decodeCommitRecords(payload, 8, payloadView.getInt(4));
+            } catch (Throwable t) {
+                // readers fall back to range reads for whatever they did not get here
+                logger.warn("Cannot read the commit log event of tx {}", chaincodeEvent.getTxId(), t);
+                return;
+            }
+
+            for (CommitLogListener listener : commitLogListeners) {
+                listener.appended(firstIndex, records);
             }
         }
-        
     }
-    
+
+    public byte[] compressBytes(byte[] data) {
+        return compression.compress(data);
+    }
+
+    private byte[] decompressBytes(byte[] data) {
+        return compression.decompress(data);
+    }
+
     private void putPackage(String cacheKey, byte[] value, boolean cacheOnly) {
         System.out.println("========== putPackage start ==========");
         long init = System.currentTimeMillis();
-        retryInvoke(() -> ctx.invokeChaincode("PackageWrite", cacheKey.getBytes(StandardCharsets.UTF_8), gzipBytes(value)));
+        byte[] key = cacheKey.getBytes(StandardCharsets.UTF_8);
+        byte[] stored = compressBytes(value);
+        boolean chunked = stored.length > chunkSize;
+        String fcn = chunked ? "PackageWriteChunks" : "PackageWrite";
+        retryInvoke(fcn, () -> chunked
+                ? ctx.invokeChaincode(fcn, chunkArgs(key, stored, chunkSize))
+                : ctx.invokeChaincode(fcn, key, stored));
+        knownPackages.add(cacheKey);
         logTime("putPackage", init);
         System.out.println("========== putPackage end ==========");
     }
@@ -330,7 +874,7 @@ public class DAMLKVConnector {
     private void putEOSPackage(String cacheKey, byte[] value, boolean cacheOnly) {
         System.out.println("========== putEOSPackage start ==========");
         long init = System.currentTimeMillis();
-        retryInvoke(() -> etx.invokeChaincode("packagewrite", cacheKey.getBytes(StandardCharsets.UTF_8), gzipBytes(value)));
+        retryInvoke("packagewrite", () -> etx.invokeChaincode("packagewrite", cacheKey.getBytes(StandardCharsets.UTF_8), compressBytes(value)));
         logTime("putEOSPackage", init);
         System.out.println("========== putEOSPackage end ==========");
     }
@@ -344,17 +888,28 @@ public class DAMLKVConnector {
     }
     
     public byte[] getPackage(String cacheKey) {
-        System.out.println("========== getPackage start ==========");
+        return FabricContext.await(getPackageAsync(cacheKey));
+    }
+
+    // completes with null if there is no such package
+    public CompletableFuture<byte[]> getPackageAsync(String cacheKey) {
+        logger.trace("getPackage start");
         long init = System.currentTimeMillis();
-        byte[] data = ctx.queryChaincode("PackageRead", new byte[][] { cacheKey.getBytes(StandardCharsets.UTF_8) });
-        if (data != null && data.length > 0) {
-            data = gunzipBytes(data);
-        }
-        logTime("getPackage", init);
-        if (data.length == 0)
-            return null;
-        System.out.println("========== getPackage end ==========");
-        return data;        
+        byte[] key = cacheKey.getBytes(StandardCharsets.UTF_8);
+        return ctx.queryChaincodeAsync("PackageRead", new byte[][] { key })
+                .thenCompose(data -> isChunkManifest(data)
+                        ? readChunksAsync("PackageReadChunks", key, data)
+                        : CompletableFuture.completedFuture(data))
+                .thenApply(data -> {
+                    if (data != null && data.length > 0) {
+                        data = decompressBytes(data);
+                    }
+                    logTime("getPackage", init);
+                    if (data == null || data.length == 0)
+                        return null;
+                    logger.trace("getPackage end");
+                    return data;
+                });
     }
 
     public byte[] getEOSPackage(String cacheKey) {
@@ -362,7 +917,7 @@ public class DAMLKVConnector {
         long init = System.currentTimeMillis();
         byte[] data = etx.queryChaincode("PackageRead", new byte[][] { cacheKey.getBytes(StandardCharsets.UTF_8) });
         if (data != null && data.length > 0) {
-            data = gunzipBytes(data);
+            data = decompressBytes(data);
         }
         logTime("getEOSPackage", init);
         if (data.length == 0)
@@ -380,32 +935,40 @@ public class DAMLKVConnector {
         return data;
     }
     
+    /**
+     * @return whether the package is on the ledger, answered from the package index without a query
+     */
+    public boolean hasPackage(String packageHash) {
+        return knownPackages.contains(packageHash);
+    }
+
     public String[] getPackageList() {
         System.out.println("========== getPackageList start ==========");
         long init = System.currentTimeMillis();
-        byte[] data = getPackageListBytes();
+        String[] packages = decodePackageList(getPackageListBytes());
+        logTime("getPackageList", init);
+        System.out.println("========== getPackageList end ==========");
+        return packages;
+    }
+
+    // the package hashes of a PackageListRead response: their count, then each hash prefixed with its length
+    static String[] decodePackageList(byte[] data) {
         ByteBuffer dataView = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
         int packagesCount = dataView.getInt(0);
         String[] packages = new String[packagesCount];
         int offset = 4;
         for (int i = 0; i < packagesCount; i++) {
             int packageLen = dataView.getInt(offset);
-            byte[] packageBytes = new byte[packageLen];
-            for (int j = 0; j < packageLen; j++) {
-                packageBytes[j] = data[offset+4+j];
-            }
-            packages[i] = new String(packageBytes, StandardCharsets.UTF_8);
+            packages[i] = new String(data, offset + 4, packageLen, StandardCharsets.UTF_8);
             offset += 4 + packageLen;
         }
-        logTime("getPackageList", init);
-        System.out.println("========== getPackageList end ==========");
         return packages;
     }
 
     void putRecordTime(String time) {
         System.out.println("========== putRecordTime start ==========");
         long init = System.currentTimeMillis();
-        retryInvoke(() -> ctx.invokeChaincode("RecordTimeWrite", time));
+        retryInvoke("RecordTimeWrite", () -> ctx.invokeChaincode("RecordTimeWrite", time));
         logTime("putRecordTime", init);
         System.out.println("========== putRecordTime end ==========");
     }
@@ -413,7 +976,7 @@ public class DAMLKVConnector {
     void putEOSRecordTime(String time) {
         System.out.println("========== putEOSRecordTime start ==========");
         long init = System.currentTimeMillis();
-        retryInvoke(() -> etx.invokeChaincode("recordtwrite", time));
+        retryInvoke("recordtwrite", () -> etx.invokeChaincode("recordtwrite", time));
         logTime("putEOSRecordTime", init);
         System.out.println("========== putEOSRecordTime end ==========");
     }
@@ -449,7 +1012,7 @@ public class DAMLKVConnector {
     void putLedgerId(String ledgerId) {
         System.out.println("========== putLedgerId start ==========");
         long init = System.currentTimeMillis();
-        retryInvoke(() -> ctx.invokeChaincode("LedgerIDWrite", ledgerId));
+        retryInvoke("LedgerIDWrite", () -> ctx.invokeChaincode("LedgerIDWrite", ledgerId));
         logTime("putLedgerId", init);
         System.out.println("========== putLedgerId end ==========");
     }
@@ -457,7 +1020,7 @@ public class DAMLKVConnector {
     void putEOSLedgerId(String ledgerId) {
         System.out.println("========== putEOSLedgerId start ==========");
         long init = System.currentTimeMillis();
-        retryInvoke(() -> etx.invokeChaincode("ledgeridwrite", ledgerId));
+        retryInvoke("ledgeridwrite", () -> etx.invokeChaincode("ledgeridwrite", ledgerId));
         logTime("putEOSLedgerId", init);
         System.out.println("========== putEOSLedgerId end ==========");
     }
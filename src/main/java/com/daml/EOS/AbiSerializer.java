@@ -0,0 +1,285 @@
+package com.daml.EOS;
+
+import com.daml.EOS.client.domain.response.chain.code.Abi;
+import com.daml.EOS.client.domain.response.chain.code.Action;
+import com.daml.EOS.client.domain.response.chain.code.Struct;
+import com.daml.EOS.client.domain.response.chain.code.StructField;
+import com.daml.EOS.client.domain.response.chain.code.Type;
+import com.daml.Fabric.FabricContextException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Packs action data to the binary form of a contract ABI, as abi_json_to_bin does on the node.
+ *
+ * Java values are taken for the ABI types as follows:
+ *   - string: String, or byte[] which is packed as its base64 text, the way it is written to JSON
+ *   - bytes: byte[], or String of hex digits
+ *   - checksum160/256/512: byte[] of 20/32/64 bytes, or String of hex digits
+ *   - bool, (u)int8 to (u)int64, varuint32, varint32: Boolean, Number or decimal String
+ *   - name: String
+ *   - T[]: List, array or byte[][]; T?: null or a T
+ *   - structs: Map from field name to value
+ */
+public final class AbiSerializer {
+
+    private static final ObjectMapper mapper = new ObjectMapper()
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final Map<String, String> typedefs = new HashMap<>();
+    private final Map<String, Struct> structs = new HashMap<>();
+    private final Map<String, String> actions = new HashMap<>();
+
+    public AbiSerializer(Abi abi) {
+        if (abi == null)
+            throw new FabricContextException("Contract has no ABI");
+        if (abi.getTypes() != null) {
+            for (Type t : abi.getTypes()) typedefs.put(t.getNewTypeName(), t.getType());
+        }
+        if (abi.getStructs() != null) {
+            for (Struct s : abi.getStructs()) structs.put(s.getName(), s);
+        }
+        if (abi.getActions() != null) {
+            for (Action a : abi.getActions()) actions.put(a.getName(), a.getType());
+        }
+    }
+
+    /**
+     * Reads an ABI file as written by eosio-abigen, e.g. contracts/hello/hello.abi
+     */
+    public static AbiSerializer fromFile(File file) {
+        try {
+            return new AbiSerializer(mapper.readValue(file, Abi.class));
+        } catch (IOException e) {
+            throw new FabricContextException(e);
+        }
+    }
+
+    /**
+     * @return the packed data of the action, in hex as pushed in a transaction
+     */
+    public String packActionHex(String action, Object data) {
+        return toHex(packAction(action, data));
+    }
+
+    public byte[] packAction(String action, Object data) {
+        String type = actions.get(action);
+        if (type == null)
+            throw new FabricContextException(String.format("Action '%s' is not in the ABI", action));
+        return pack(type, data);
+    }
+
+    public byte[] pack(String type, Object value) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        write(out, type, value);
+        return out.toByteArray();
+    }
+
+    private void write(ByteArrayOutputStream out, String type, Object value) {
+        // typedefs may refer to other typedefs
+        for (int i = 0; i < 32 && typedefs.containsKey(type); i++) {
+            type = typedefs.get(type);
+        }
+
+        if (type.endsWith("?")) {
+            if (value == null) {
+                out.write(0);
+            } else {
+                out.write(1);
+                write(out, type.substring(0, type.length() - 1), value);
+            }
+            return;
+        }
+        if (type.endsWith("[]")) {
+            String elementType = type.substring(0, type.length() - 2);
+            List<?> elements = asList(type, value);
+            writeVarUint32(out, elements.size());
+            for (Object element : elements) {
+                write(out, elementType, element);
+            }
+            return;
+        }
+
+        if (value == null)
+            throw new FabricContextException(String.format("Missing value of ABI type '%s'", type));
+
+        switch (type) {
+            case "bool":
+                out.write(toBoolean(value) ? 1 : 0);
+                return;
+            case "int8":
+            case "uint8":
+                writeLittleEndian(out, toBigInteger(value).longValue(), 1);
+                return;
+            case "int16":
+            case "uint16":
+                writeLittleEndian(out, toBigInteger(value).longValue(), 2);
+                return;
+            case "int32":
+            case "uint32":
+                writeLittleEndian(out, toBigInteger(value).longValue(), 4);
+                return;
+            case "int64":
+            case "uint64":
+                writeLittleEndian(out, toBigInteger(value).longValue(), 8);
+                return;
+            case "varuint32":
+                writeVarUint32(out, toBigInteger(value).longValue());
+                return;
+            case "varint32": {
+                int v = toBigInteger(value).intValue();
+                writeVarUint32(out, ((v << 1) ^ (v >> 31)) & 0xFFFFFFFFL);
+                return;
+            }
+            case "name":
+                writeLittleEndian(out, nameToLong(value.toString()), 8);
+                return;
+            case "string": {
+                byte[] b = (value instanceof byte[])
+                        ? Base64.getEncoder().encode((byte[]) value)
+                        : value.toString().getBytes(StandardCharsets.UTF_8);
+                writeVarUint32(out, b.length);
+                out.write(b, 0, b.length);
+                return;
+            }
+            case "bytes": {
+                byte[] b = toBytes(value);
+                writeVarUint32(out, b.length);
+                out.write(b, 0, b.length);
+                return;
+            }
+            case "checksum160":
+                writeFixed(out, type, toBytes(value), 20);
+                return;
+            case "checksum256":
+                writeFixed(out, type, toBytes(value), 32);
+                return;
+            case "checksum512":
+                writeFixed(out, type, toBytes(value), 64);
+                return;
+            default:
+                break;
+        }
+
+        Struct struct = structs.get(type);
+        if (struct == null)
+            throw new FabricContextException(String.format("Unsupported ABI type '%s'", type));
+        if (!(value instanceof Map))
+            throw new FabricContextException(String.format("Value of ABI struct '%s' must be a map of its fields", type));
+        writeStruct(out, struct, (Map<?, ?>) value);
+    }
+
+    private void writeStruct(ByteArrayOutputStream out, Struct struct, Map<?, ?> fields) {
+        if (struct.getBase() != null && !struct.getBase().isEmpty()) {
+            Struct base = structs.get(struct.getBase());
+            if (base == null)
+                throw new FabricContextException(String.format("Unsupported ABI type '%s'", struct.getBase()));
+            writeStruct(out, base, fields);
+        }
+        if (struct.getFields() == null)
+            return;
+        for (StructField field : struct.getFields()) {
+            write(out, field.getType(), fields.get(field.getName()));
+        }
+    }
+
+    private static List<?> asList(String type, Object value) {
+        if (value == null)
+            return Collections.emptyList();
+        if (value instanceof List)
+            return (List<?>) value;
+        if (value instanceof Object[])
+            return Arrays.asList((Object[]) value);
+        throw new FabricContextException(String.format("Value of ABI type '%s' must be a list or an array", type));
+    }
+
+    private static void writeFixed(ByteArrayOutputStream out, String type, byte[] b, int length) {
+        if (b.length != length)
+            throw new FabricContextException(String.format("Value of ABI type '%s' must have %d bytes, not %d", type, length, b.length));
+        out.write(b, 0, b.length);
+    }
+
+    private static void writeLittleEndian(ByteArrayOutputStream out, long v, int bytes) {
+        for (int i = 0; i < bytes; i++) {
+            out.write((int) (v >>> (8 * i)) & 0xFF);
+        }
+    }
+
+    private static void writeVarUint32(ByteArrayOutputStream out, long v) {
+        do {
+            int b = (int) (v & 0x7F);
+            v >>>= 7;
+            out.write(v != 0 ? b | 0x80 : b);
+        } while (v != 0);
+    }
+
+    private static boolean toBoolean(Object value) {
+        return (value instanceof Boolean) ? (Boolean) value : Boolean.parseBoolean(value.toString());
+    }
+
+    private static BigInteger toBigInteger(Object value) {
+        if (value instanceof BigInteger)
+            return (BigInteger) value;
+        if (value instanceof Number)
+            return BigInteger.valueOf(((Number) value).longValue());
+        return new BigInteger(value.toString().trim());
+    }
+
+    private static byte[] toBytes(Object value) {
+        if (value instanceof byte[])
+            return (byte[]) value;
+        String hex = value.toString();
+        if (hex.length() % 2 != 0)
+            throw new FabricContextException(String.format("Invalid hex value '%s'", hex));
+        byte[] b = new byte[hex.length() / 2];
+        for (int i = 0; i < b.length; i++) {
+            b[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return b;
+    }
+
+    /**
+     * Packs an account or action name: up to 12 characters of a-z, 1-5 and '.', then a 13th of a-j, 1-5 and '.'
+     */
+    public static long nameToLong(String name) {
+        if (name.length() > 13)
+            throw new FabricContextException(String.format("Invalid name '%s'", name));
+        long v = 0;
+        for (int i = 0; i <= 12; i++) {
+            long c = (i < name.length()) ? nameSymbol(name, name.charAt(i)) : 0;
+            if (i < 12) {
+                v |= (c & 0x1F) << (64 - 5 * (i + 1));
+            } else {
+                if (c > 0x0F)
+                    throw new FabricContextException(String.format("Invalid name '%s'", name));
+                v |= c & 0x0F;
+            }
+        }
+        return v;
+    }
+
+    private static long nameSymbol(String name, char c) {
+        if (c >= 'a' && c <= 'z') return (c - 'a') + 6;
+        if (c >= '1' && c <= '5') return (c - '1') + 1;
+        if (c == '.') return 0;
+        throw new FabricContextException(String.format("Invalid name '%s'", name));
+    }
+
+    public static String toHex(byte[] b) {
+        char[] out = new char[b.length * 2];
+        for (int i = 0; i < b.length; i++) {
+            out[2 * i] = HEX[(b[i] >> 4) & 0x0F];
+            out[2 * i + 1] = HEX[b[i] & 0x0F];
+        }
+        return new String(out);
+    }
+
+}
@@ -0,0 +1,224 @@
+package com.daml.EOS;
+
+import com.daml.EOS.client.domain.common.transaction.TransactionAction;
+import com.daml.EOS.client.domain.response.chain.transaction.PushedTransaction;
+import com.daml.Fabric.ChaincodeMetrics;
+import com.daml.Fabric.FabricContextConfigYaml;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects the actions of EOS writes into multi-action transactions.
+ *
+ * One push is in flight at a time. The actions added while it runs are cut into transactions of at
+ * most batchMaxActions actions, batchMaxNetBytes estimated bytes and batchMaxCpuUs estimated CPU time
+ * (actionCpuUs per action), and up to batchMaxTransactions of them are pushed in one push_transactions
+ * call. When no push is in flight an action waits batchWindow ms for others before it is pushed.
+ *
+ * Like unbatched writes, a failed push is logged and its writes complete with null.
+ *
+ * daml.eos.batch.actions is the number of actions per transaction, .transactions the number of
+ * transactions per push; the phases of the pushes are timed as the invoke function "batch".
+ */
+final class ActionBatcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(ActionBatcher.class);
+
+    private static final String BATCH = "batch";
+    // bytes a transaction and an action add to their data (header, names, authorization, lengths)
+    private static final int TRANSACTION_OVERHEAD = 16;
+    private static final int ACTION_OVERHEAD = 40;
+
+    private static final class Pending {
+        final TransactionAction action;
+        final long bytes;
+        final CompletableFuture<byte[]> result = new CompletableFuture<>();
+
+        Pending(TransactionAction action) {
+            this.action = action;
+            this.bytes = ACTION_OVERHEAD + (action.getData() != null ? action.getData().length() / 2 : 0);
+        }
+    }
+
+    /**
+     * The EOS node actions are packed for and transactions pushed to, the EOSContext of the batcher
+     */
+    interface Node {
+
+        TransactionAction createAction(String fcn, byte[]... args);
+
+        List<PushedTransaction> pushTransactions(String fcn, List<List<TransactionAction>> transactions);
+    }
+
+    private final Node node;
+    private final ChaincodeMetrics chaincodeMetrics;
+    private final Set<String> functions;
+    private final int maxActions;
+    private final int maxTransactions;
+    private final long window;
+    private final long maxNetBytes;
+    private final long maxCpuUs;
+    private final long actionCpuUs;
+    private final Histogram actionsPerTransaction;
+    private final Histogram transactionsPerPush;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "eos-action-batcher");
+        t.setDaemon(true);
+        return t;
+    });
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "eos-action-batcher-window");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final Deque<Pending> queue = new ArrayDeque<>();
+    // a push is in flight or scheduled
+    private boolean flushing = false;
+
+    ActionBatcher(Node node, ChaincodeMetrics chaincodeMetrics, FabricContextConfigYaml.EosConfig config, MetricRegistry metrics) {
+        this.node = node;
+        this.chaincodeMetrics = chaincodeMetrics;
+        this.functions = new HashSet<>(config.batchFunctions != null ? config.batchFunctions : Collections.<String>emptyList());
+        this.maxActions = Math.max(1, config.batchMaxActions);
+        this.maxTransactions = Math.max(1, config.batchMaxTransactions);
+        this.window = Math.max(0, config.batchWindow);
+        this.maxNetBytes = config.batchMaxNetBytes;
+        this.maxCpuUs = config.batchMaxCpuUs;
+        this.actionCpuUs = Math.max(0, config.actionCpuUs);
+        this.actionsPerTransaction = metrics.histogram("daml.eos.batch.actions");
+        this.transactionsPerPush = metrics.histogram("daml.eos.batch.transactions");
+    }
+
+    boolean batches(String fcn) {
+        return functions.contains(fcn);
+    }
+
+    /**
+     * @return completes with null once the transaction with the action was pushed, or failed
+     */
+    CompletableFuture<byte[]> add(String fcn, byte[]... args) {
+        chaincodeMetrics.requestBytes(ChaincodeMetrics.INVOKE, fcn).update(ChaincodeMetrics.size(args));
+        Pending p;
+        try {
+            p = new Pending(node.createAction(fcn, args));
+        } catch (RuntimeException e) {
+            logger.warn("Cannot create the EOS action of {}", fcn, e);
+            return CompletableFuture.completedFuture(null);
+        }
+
+        synchronized (this) {
+            queue.add(p);
+            if (!flushing) {
+                flushing = true;
+                if (window > 0) {
+                    scheduler.schedule(() -> executor.execute(this::flush), window, TimeUnit.MILLISECONDS);
+                } else {
+                    executor.execute(this::flush);
+                }
+            }
+        }
+        return p.result;
+    }
+
+    private void flush() {
+        List<List<Pending>> transactions = new ArrayList<>();
+        synchronized (this) {
+            while (!queue.isEmpty() && transactions.size() < maxTransactions) {
+                transactions.add(nextTransaction());
+            }
+            if (transactions.isEmpty()) {
+                flushing = false;
+                return;
+            }
+        }
+
+        try {
+            push(transactions);
+        } finally {
+            synchronized (this) {
+                // the actions added during the push go out right away
+                if (queue.isEmpty()) {
+                    flushing = false;
+                } else {
+                    executor.execute(this::flush);
+                }
+            }
+        }
+    }
+
+    // takes the actions of one transaction off the queue; an action over the budgets on its own still gets one
+    private List<Pending> nextTransaction() {
+        List<Pending> actions = new ArrayList<>();
+        long bytes = TRANSACTION_OVERHEAD;
+        long cpu = 0;
+        while (!queue.isEmpty() && actions.size() < maxActions) {
+            Pending next = queue.peek();
+            if (!actions.isEmpty() && (bytes + next.bytes > maxNetBytes || cpu + actionCpuUs > maxCpuUs))
+                break;
+            actions.add(queue.poll());
+            bytes += next.bytes;
+            cpu += actionCpuUs;
+        }
+        return actions;
+    }
+
+    private void push(List<List<Pending>> transactions) {
+        long start = System.nanoTime();
+        List<PushedTransaction> pushed = null;
+        try {
+            List<List<TransactionAction>> actions = new ArrayList<>(transactions.size());
+            for (List<Pending> t : transactions) {
+                List<TransactionAction> a = new ArrayList<>(t.size());
+                for (Pending p : t) a.add(p.action);
+                actions.add(a);
+                actionsPerTransaction.update(t.size());
+            }
+            transactionsPerPush.update(transactions.size());
+            if (logger.isDebugEnabled())
+                logger.debug("pushing {} actions in {} transactions", actions.stream().mapToInt(List::size).sum(), actions.size());
+
+            pushed = node.pushTransactions(BATCH, actions);
+            chaincodeMetrics.time(ChaincodeMetrics.INVOKE, BATCH, ChaincodeMetrics.TOTAL, start);
+        } catch (Exception e) {
+            chaincodeMetrics.failures(ChaincodeMetrics.INVOKE, BATCH).mark();
+            logger.warn("Pushing {} EOS transactions failed", transactions.size(), e);
+        } finally {
+            // also on an Error, so the writes do not wait forever
+            complete(transactions, pushed);
+        }
+    }
+
+    private void complete(List<List<Pending>> transactions, List<PushedTransaction> pushed) {
+        for (List<Pending> t : transactions) {
+            for (Pending p : t) {
+                p.result.complete(null);
+            }
+        }
+        if (pushed == null)
+            return;
+        for (int i = 0; i < transactions.size(); i++) {
+            PushedTransaction result = (i < pushed.size()) ? pushed.get(i) : null;
+            if (!isPushed(result)) {
+                // push_transactions answers a transaction it could not apply with an error in its place
+                chaincodeMetrics.failures(ChaincodeMetrics.INVOKE, BATCH).mark();
+                logger.warn("EOS transaction {} of {} in a push failed: {}", i + 1, transactions.size(), result);
+            }
+        }
+    }
+
+    private static boolean isPushed(PushedTransaction result) {
+        return result != null && result.getTransactionId() != null && !result.getTransactionId().matches("0*");
+    }
+
+}
@@ -6,12 +6,23 @@ import com.daml.EOS.client.domain.common.transaction.PackedTransaction;
 import com.daml.EOS.client.domain.common.transaction.SignedPackedTransaction;
 import com.daml.EOS.client.domain.common.transaction.TransactionAction;
 import com.daml.EOS.client.domain.common.transaction.TransactionAuthorization;
-import com.daml.EOS.client.domain.response.chain.AbiJsonToBin;
-import com.daml.EOS.client.domain.response.chain.Block;
-import com.daml.EOS.client.domain.response.chain.ChainInfo;
+import com.daml.EOS.client.domain.request.chain.transaction.PushTransactionRequest;
 import com.daml.EOS.client.domain.response.chain.transaction.PushedTransaction;
+import com.daml.Fabric.ChaincodeMetrics;
+import com.daml.Fabric.FabricContext;
 import com.daml.Fabric.FabricContextConfigYaml;
 import com.daml.Fabric.FabricContextException;
+import com.daml.EOS.client.impl.HostConcurrencyInterceptor;
+import com.codahale.metrics.MetricRegistry;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.logging.HttpLoggingInterceptor;
 import org.apache.commons.codec.binary.Base64;
 import org.hyperledger.fabric.protos.peer.ProposalResponsePackage;
 import org.hyperledger.fabric.sdk.*;
@@ -19,11 +30,7 @@ import org.hyperledger.fabric.sdk.exception.InvalidArgumentException;
 import org.hyperledger.fabric.sdk.exception.ProposalException;
 
 
-import java.io.BufferedReader;
-import java.io.DataOutputStream;
-import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.io.File;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.time.ZoneId;
@@ -41,7 +48,10 @@ import java.time.format.DateTimeFormatter;
 import java.time.temporal.ChronoUnit;
 import java.math.BigInteger;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
@@ -57,7 +67,70 @@ public final class EOSContext {
     private String chainBaseUrl = "http://127.0.0.1:8888";
     private String historyBaseUrl = "http://127.0.0.1:8888";
 
+    private static final MediaType JSON = MediaType.get("application/json");
+
+    // built once and shared by every call, so connections to the nodes are pooled and kept alive
+    private final OkHttpClient httpClient;
+    private final EosApiRestClient eosApiRestClient;
+    private final ReferenceBlockCache referenceBlocks;
+    // packs the action data of the hello contract, read from abiFile or else from the node on first use
+    private volatile AbiSerializer helloAbi;
+    // signs transactions in-process when signing keys are configured, else keosd signs them with walletKeys
+    private final TransactionSigner signer;
+    private final List<String> walletKeys;
+    // collects the actions of the batched functions into multi-action transactions, null when not batching
+    private final ActionBatcher batcher;
+
+    // the EOS REST client is blocking, so the async methods run it here, sized by eos.executor
+    private final ExecutorService executor;
+
+    // phases of an invoke, timed next to the total (see ChaincodeMetrics)
+    private static final String REFERENCE = "reference";
+    private static final String PACK = "pack";
+    private static final String SIGN = "sign";
+    private static final String PUSH = "push";
+
+    private final ChaincodeMetrics chaincodeMetrics;
+
     public EOSContext() {
+        this(new MetricRegistry(), null);
+    }
+
+    /**
+     * @param metrics registry the contract call metrics are added to
+     * @param eosConfig node endpoints and HTTP client settings, null for the defaults
+     */
+    public EOSContext(MetricRegistry metrics, FabricContextConfigYaml.EosConfig eosConfig) {
+        chaincodeMetrics = new ChaincodeMetrics(metrics, "daml.eos");
+        if (eosConfig == null)
+            eosConfig = new FabricContextConfigYaml.EosConfig();
+        walletBaseUrl = eosConfig.walletUrl;
+        chainBaseUrl = eosConfig.chainUrl;
+        historyBaseUrl = eosConfig.historyUrl;
+        executor = FabricContext.newBoundedExecutor("eos-context",
+                eosConfig.executor != null ? eosConfig.executor : new FabricContextConfigYaml.ExecutorConfig(16, 1024));
+        httpClient = createHttpClient(eosConfig);
+        eosApiRestClient = EosApiClientFactory.newInstance(walletBaseUrl, chainBaseUrl, historyBaseUrl, httpClient).newRestClient();
+        referenceBlocks = new ReferenceBlockCache(eosApiRestClient, eosConfig, metrics);
+        if (eosConfig.abiFile != null && !eosConfig.abiFile.isEmpty())
+            helloAbi = AbiSerializer.fromFile(new File(eosConfig.abiFile));
+        signer = (eosConfig.signingKeys != null && !eosConfig.signingKeys.isEmpty())
+                ? new TransactionSigner(eosConfig.signingKeys)
+                : null;
+        walletKeys = eosConfig.walletKeys;
+        batcher = (eosConfig.batchMaxActions > 1 || eosConfig.batchMaxTransactions > 1)
+                ? new ActionBatcher(new ActionBatcher.Node() {
+                    @Override
+                    public TransactionAction createAction(String fcn, byte[]... args) {
+                        return EOSContext.this.createAction(fcn, args);
+                    }
+
+                    @Override
+                    public List<PushedTransaction> pushTransactions(String fcn, List<List<TransactionAction>> transactions) {
+                        return EOSContext.this.pushTransactions(fcn, transactions);
+                    }
+                }, chaincodeMetrics, eosConfig, metrics)
+                : null;
         try {
             /* Starts network configurations */
             // initNetworkConfiguration();
@@ -66,6 +139,42 @@ public final class EOSContext {
         }
     }
 
+    private AbiSerializer helloAbi() {
+        AbiSerializer abi = helloAbi;
+        if (abi == null) {
+            synchronized (this) {
+                if (helloAbi == null)
+                    helloAbi = new AbiSerializer(eosApiRestClient.getAbi("hello").getAbi());
+                abi = helloAbi;
+            }
+        }
+        return abi;
+    }
+
+    static OkHttpClient createHttpClient(FabricContextConfigYaml.EosConfig eosConfig) {
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequestsPerHost(Math.max(1, eosConfig.maxRequestsPerHost));
+
+        HttpLoggingInterceptor logging = new HttpLoggingInterceptor();
+        try {
+            logging.setLevel(HttpLoggingInterceptor.Level.valueOf(eosConfig.httpLog.toUpperCase()));
+        } catch (IllegalArgumentException e) {
+            throw new FabricContextException(String.format("Invalid EOS HTTP log level '%s'", eosConfig.httpLog));
+        }
+
+        return new OkHttpClient.Builder()
+                .dispatcher(dispatcher)
+                .connectionPool(new ConnectionPool(eosConfig.maxIdleConnections, eosConfig.keepAlive, TimeUnit.MILLISECONDS))
+                .protocols(eosConfig.http2
+                        ? Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1)
+                        : Collections.singletonList(Protocol.HTTP_1_1))
+                .connectTimeout(eosConfig.connectTimeout, TimeUnit.MILLISECONDS)
+                .readTimeout(eosConfig.readTimeout, TimeUnit.MILLISECONDS)
+                .addInterceptor(new HostConcurrencyInterceptor(Math.max(1, eosConfig.maxRequestsPerHost)))
+                .addInterceptor(logging)
+                .build();
+    }
+
     /**
      * This method executes EOS v2.0 network configuration
      *
@@ -83,7 +192,13 @@ public final class EOSContext {
         return queryChaincode(fcn, convertChaincodeArgs(args));
     }
 
+    public CompletableFuture<byte[]> queryChaincodeAsync(String fcn, byte[]... args) {
+        return FabricContext.supplyAsync(() -> queryChaincode(fcn, args), executor);
+    }
+
     public byte[] queryChaincode(String fcn, byte[]... args) {
+        long start = System.nanoTime();
+        chaincodeMetrics.requestBytes(ChaincodeMetrics.QUERY, fcn).update(ChaincodeMetrics.size(args));
         try {
             byte[] result = null;
 
@@ -115,40 +230,28 @@ public final class EOSContext {
             String hash = sha256(s);
             System.out.println("#### sha256: " + hash);
 
-            String rpc_url = "http://127.0.0.1:8888/v1/chain/get_table_rows";
+            String rpc_url = chainBaseUrl + "/v1/chain/get_table_rows";
             String payload =
                     //"{\"json\": true,\"code\": \"hello\",\"table\": \"raw\",\"scope\": \"hello\"}";
                     "{\"json\": true,\"code\": \"hello\",\"table\": \"daml\",\"scope\": \"hello\",\"index_position\": \"secondary\",\"key_type\": \"sha256\",\"upper_bound\": \"" + hash + "\",\"lower_bound\": \"" + hash + "\"}";
             System.out.println("#### payload: " + payload);
 
-            try {
-                URL url = new URL(rpc_url);
-                HttpURLConnection con = (HttpURLConnection) url.openConnection();
-                con.setRequestMethod("POST");
-                con.setRequestProperty("Content-Type","application/json");
-                con.setDoOutput(true);
-                DataOutputStream wr = new DataOutputStream(con.getOutputStream());
-                wr.writeBytes(payload);
-                wr.flush();
-                wr.close();
-
-                int responseCode = con.getResponseCode();
-                System.out.println("#### response code : " + responseCode);
+            Request request = new Request.Builder()
+                    .url(rpc_url)
+                    .post(RequestBody.create(payload, JSON))
+                    .build();
 
-                BufferedReader iny = new BufferedReader(new InputStreamReader(con.getInputStream()));
-                String output;
-                StringBuffer response = new StringBuffer();
+            try (Response httpResponse = httpClient.newCall(request).execute()) {
+                int responseCode = httpResponse.code();
+                System.out.println("#### response code : " + responseCode);
 
-                while ((output = iny.readLine()) != null) {
-                    response.append(output);
-                }
-                iny.close();
+                String response = httpResponse.body().string();
 
                 //printing result from response
-                System.out.println("#### response data: " + response.toString());
+                System.out.println("#### response data: " + response);
 
                 JSONParser parser = new JSONParser();
-                Object obj = parser.parse( response.toString() );
+                Object obj = parser.parse( response );
                 JSONObject jsonObj = (JSONObject) obj;
 
                 JSONArray rows = (JSONArray) jsonObj.get("rows");
@@ -162,12 +265,16 @@ public final class EOSContext {
                 }
 
             } catch(Exception e) {
+                chaincodeMetrics.failures(ChaincodeMetrics.QUERY, fcn).mark();
                 e.printStackTrace();
             }
 
+            chaincodeMetrics.time(ChaincodeMetrics.QUERY, fcn, ChaincodeMetrics.TOTAL, start);
+            chaincodeMetrics.responseBytes(ChaincodeMetrics.QUERY, fcn).update(ChaincodeMetrics.size(result));
             return result;
 
         } catch (Throwable t) {
+            chaincodeMetrics.failures(ChaincodeMetrics.QUERY, fcn).mark();
             if (RuntimeException.class.isAssignableFrom(t.getClass())) {
                 throw (RuntimeException)t;
             } else {
@@ -186,67 +293,116 @@ public final class EOSContext {
         return invokeChaincode(fcn, convertChaincodeArgs(args));
     }
 
+    public CompletableFuture<byte[]> invokeChaincodeAsync(String fcn, byte[]... args) {
+        if (batcher != null && batcher.batches(fcn))
+            return batcher.add(fcn, args);
+        return FabricContext.supplyAsync(() -> invokeChaincode(fcn, args), executor);
+    }
+
     public byte[] invokeChaincode(String fcn, byte[]... args) {
+        if (batcher != null && batcher.batches(fcn))
+            return batcher.add(fcn, args).join();
+
         byte[] result = null;
+        long start = System.nanoTime();
+        chaincodeMetrics.requestBytes(ChaincodeMetrics.INVOKE, fcn).update(ChaincodeMetrics.size(args));
 
         try {
-            /* Create the rest client */
-            EosApiRestClient eosApiRestClient = EosApiClientFactory.newInstance(
-                    walletBaseUrl, chainBaseUrl, historyBaseUrl).newRestClient();
-
-            /* Get the head block */
-            ChainInfo chainInfo = eosApiRestClient.getChainInfo();
-            Block block = eosApiRestClient.getBlock(eosApiRestClient.getChainInfo().getHeadBlockId());
-
             System.out.println("#### EOSContext invokeChaincode");
-            System.out.println("#### blockNum: " + block.getBlockNum().toString());
             System.out.println("#### fcn: " + fcn);
             System.out.println("#### args: " + byteArrayToHex(args).trim());
 
-            /* Create Transaction Action Authorization */
-            TransactionAuthorization transactionAuthorization = new TransactionAuthorization();
-            transactionAuthorization.setActor("hello");
-            transactionAuthorization.setPermission("active");
+            TransactionAction transactionAction = createAction(fcn, args);
+            PushedTransaction pushedTransaction = pushTransactions(fcn,
+                    Collections.singletonList(Collections.singletonList(transactionAction))).get(0);
+            chaincodeMetrics.time(ChaincodeMetrics.INVOKE, fcn, ChaincodeMetrics.TOTAL, start);
+            System.out.println(pushedTransaction.toString());
 
-            /* Create the json array of arguments */
-            Map<String, byte[][]> map = new HashMap<>(4);
-            map.put("rawArgs", args);
-            AbiJsonToBin data = eosApiRestClient.abiJsonToBin("hello", fcn, map);
+        } catch (Exception e) {
+            chaincodeMetrics.failures(ChaincodeMetrics.INVOKE, fcn).mark();
+            e.printStackTrace();
+        }
+
+        return result;
+    }
 
-            /* Create Transaction Action */
-            TransactionAction transactionAction = new TransactionAction();
-            transactionAction.setAccount("hello");
-            transactionAction.setName(fcn);
-            transactionAction.setData(data.getBinargs());
-            transactionAction.setAuthorization(Collections.singletonList(transactionAuthorization));
+    ChaincodeMetrics chaincodeMetrics() {
+        return chaincodeMetrics;
+    }
 
-            String expiration = ZonedDateTime.now(ZoneId.of("GMT")).plusMinutes(3).truncatedTo(ChronoUnit.SECONDS).format(DateTimeFormatter.ISO_LOCAL_DATE_TIME);
+    /**
+     * Packs the arguments of a hello contract action, timed as the pack phase of fcn
+     */
+    TransactionAction createAction(String fcn, byte[]... args) {
+        /* Create Transaction Action Authorization */
+        TransactionAuthorization transactionAuthorization = new TransactionAuthorization();
+        transactionAuthorization.setActor("hello");
+        transactionAuthorization.setPermission("active");
+
+        /* Create the json array of arguments */
+        long phaseStart = System.nanoTime();
+        Map<String, byte[][]> map = new HashMap<>(4);
+        map.put("rawArgs", args);
+        String data = helloAbi().packActionHex(fcn, map);
+        chaincodeMetrics.time(ChaincodeMetrics.INVOKE, fcn, PACK, phaseStart);
+
+        /* Create Transaction Action */
+        TransactionAction transactionAction = new TransactionAction();
+        transactionAction.setAccount("hello");
+        transactionAction.setName(fcn);
+        transactionAction.setData(data);
+        transactionAction.setAuthorization(Collections.singletonList(transactionAuthorization));
+        return transactionAction;
+    }
 
+    /**
+     * Signs and pushes one transaction per list of actions; several transactions go in one push_transactions call.
+     * The phases are timed under fcn.
+     *
+     * @return the pushed transactions, in order
+     */
+    List<PushedTransaction> pushTransactions(String fcn, List<List<TransactionAction>> transactions) {
+        /* Get the head block */
+        long phaseStart = System.nanoTime();
+        ReferenceBlockCache.ReferenceBlock block = referenceBlocks.get();
+        chaincodeMetrics.time(ChaincodeMetrics.INVOKE, fcn, REFERENCE, phaseStart);
+        System.out.println("#### blockNum: " + block.blockNum);
+
+        String expiration = ZonedDateTime.now(ZoneId.of("GMT")).plusMinutes(3).truncatedTo(ChronoUnit.SECONDS).format(DateTimeFormatter.ISO_LOCAL_DATE_TIME);
+
+        /* Sign the Transactions */
+        phaseStart = System.nanoTime();
+        List<SignedPackedTransaction> signed = new ArrayList<>(transactions.size());
+        for (List<TransactionAction> actions : transactions) {
             /* Create a transaction */
             PackedTransaction packedTransaction = new PackedTransaction();
             packedTransaction.setExpiration(expiration);
-            packedTransaction.setRefBlockNum(block.getBlockNum().toString());
-            packedTransaction.setRefBlockPrefix(block.getRefBlockPrefix().toString());
+            packedTransaction.setRefBlockNum(Integer.toString(block.refBlockNum));
+            packedTransaction.setRefBlockPrefix(Long.toString(block.refBlockPrefix));
             packedTransaction.setMax_net_usage_words("0");
             packedTransaction.setRegion("0");
-            packedTransaction.setActions(Collections.singletonList(transactionAction));
-
-            /* Sign the Transaction */
-            SignedPackedTransaction signedPackedTransaction = eosApiRestClient.signTransaction(
-                    packedTransaction, Collections.singletonList("EOS6MRyAjQq8ud7hVNYcfnVPJqcVpscN5So8BhtHuGYqET5GDW5CV"), chainInfo.getChainId());
-
-            /* Push the transaction */
-            PushedTransaction pushedTransaction = eosApiRestClient.pushTransaction("none", signedPackedTransaction);
-            System.out.println(pushedTransaction.toString());
-
-
-
+            packedTransaction.setActions(actions);
 
-        } catch (Exception e) {
-            e.printStackTrace();
+            signed.add((signer != null)
+                    ? signer.signTransaction(packedTransaction, block.chainId)
+                    : eosApiRestClient.signTransaction(packedTransaction, walletKeys, block.chainId));
         }
-
-        return result;
+        chaincodeMetrics.time(ChaincodeMetrics.INVOKE, fcn, SIGN, phaseStart);
+
+        /* Push the transactions */
+        phaseStart = System.nanoTime();
+        List<PushedTransaction> pushed;
+        if (signed.size() == 1) {
+            pushed = Collections.singletonList(eosApiRestClient.pushTransaction("none", signed.get(0)));
+        } else {
+            List<PushTransactionRequest> requests = new ArrayList<>(signed.size());
+            for (SignedPackedTransaction t : signed) {
+                requests.add(new PushTransactionRequest("none", t, t.getSignatures()));
+            }
+            pushed = eosApiRestClient.pushTransactions(requests);
+        }
+        chaincodeMetrics.time(ChaincodeMetrics.INVOKE, fcn, PUSH, phaseStart);
+        return pushed;
     }
 
     public String byteArrayToHex(byte[] a) {
@@ -0,0 +1,156 @@
+package com.daml.EOS;
+
+import com.daml.EOS.client.EosApiRestClient;
+import com.daml.EOS.client.domain.response.chain.ChainInfo;
+import com.daml.Fabric.FabricContextConfigYaml;
+import com.daml.Fabric.FabricContextException;
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the block EOS transactions reference (TAPOS) and the chain id in memory.
+ *
+ * A background thread reads get_info every referenceRefresh ms; the reference block number and
+ * prefix are derived from the block id, so no get_block call is needed. Transactions are built
+ * from the cached block as long as it is younger than referenceMaxAge, otherwise the caller
+ * refreshes it first. A failed refresh keeps the previous block.
+ *
+ * daml.eos.reference_block.age is the age (ms) of the cached block, .refresh_failures counts the
+ * refreshes that failed.
+ */
+public final class ReferenceBlockCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReferenceBlockCache.class);
+
+    /**
+     * The block a transaction references, as read at fetchedAt
+     */
+    public static final class ReferenceBlock {
+        public final String chainId;
+        public final long blockNum;
+        public final String blockId;
+        // the low 16 bits of the block number
+        public final int refBlockNum;
+        // bytes 8 to 11 of the block id, little-endian
+        public final long refBlockPrefix;
+        public final long fetchedAt;
+
+        ReferenceBlock(String chainId, long blockNum, String blockId, long fetchedAt) {
+            this.chainId = chainId;
+            this.blockNum = blockNum;
+            this.blockId = blockId;
+            this.refBlockNum = (int) (blockNum & 0xFFFF);
+            this.refBlockPrefix = refBlockPrefix(blockId);
+            this.fetchedAt = fetchedAt;
+        }
+    }
+
+    private final EosApiRestClient client;
+    private final boolean irreversible;
+    private final long maxAge;
+    private final Counter refreshFailures;
+    private final ScheduledExecutorService scheduler;
+
+    private volatile ReferenceBlock current;
+
+    /**
+     * @param config reference block settings, null for the defaults
+     */
+    public ReferenceBlockCache(EosApiRestClient client, FabricContextConfigYaml.EosConfig config, MetricRegistry metrics) {
+        if (config == null)
+            config = new FabricContextConfigYaml.EosConfig();
+
+        this.client = client;
+        this.maxAge = Math.max(0, config.referenceMaxAge);
+        if ("irreversible".equalsIgnoreCase(config.referenceBlock)) {
+            this.irreversible = true;
+        } else if ("head".equalsIgnoreCase(config.referenceBlock)) {
+            this.irreversible = false;
+        } else {
+            throw new FabricContextException(String.format("Invalid EOS reference block '%s'", config.referenceBlock));
+        }
+
+        this.refreshFailures = metrics.counter("daml.eos.reference_block.refresh_failures");
+        metrics.register("daml.eos.reference_block.age", (Gauge<Long>) () -> {
+            ReferenceBlock b = current;
+            return (b == null) ? -1L : System.currentTimeMillis() - b.fetchedAt;
+        });
+
+        if (config.referenceRefresh > 0) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "eos-reference-block");
+                t.setDaemon(true);
+                return t;
+            });
+            scheduler.scheduleWithFixedDelay(this::backgroundRefresh, 0, config.referenceRefresh, TimeUnit.MILLISECONDS);
+        } else {
+            scheduler = null;
+        }
+    }
+
+    /**
+     * @return the cached reference block, read again first if it is missing or too old
+     */
+    public ReferenceBlock get() {
+        ReferenceBlock b = current;
+        if (b != null && System.currentTimeMillis() - b.fetchedAt <= maxAge)
+            return b;
+
+        synchronized (this) {
+            // another caller may have refreshed it while this one waited
+            b = current;
+            if (b != null && System.currentTimeMillis() - b.fetchedAt <= maxAge)
+                return b;
+            return refresh();
+        }
+    }
+
+    /**
+     * Reads the chain head now and caches it
+     */
+    public synchronized ReferenceBlock refresh() {
+        ChainInfo info = client.getChainInfo();
+        ReferenceBlock b = irreversible
+                ? new ReferenceBlock(info.getChainId(), Long.parseLong(info.getLastIrreversibleBlockNum()), info.getLastIrreversibleBlockId(), System.currentTimeMillis())
+                : new ReferenceBlock(info.getChainId(), Long.parseLong(info.getHeadBlockNum()), info.getHeadBlockId(), System.currentTimeMillis());
+        current = b;
+        return b;
+    }
+
+    public void close() {
+        if (scheduler != null)
+            scheduler.shutdownNow();
+    }
+
+    private void backgroundRefresh() {
+        try {
+            refresh();
+        } catch (Throwable t) {
+            // the previous block stays usable until it is too old
+            refreshFailures.inc();
+            logger.warn("Could not refresh the EOS reference block", t);
+        }
+    }
+
+    /**
+     * The reference block prefix of a block: bytes 8 to 11 of its id, read as a little-endian number
+     */
+    public static long refBlockPrefix(String blockId) {
+        if (blockId == null || blockId.length() < 24)
+            throw new FabricContextException(String.format("Invalid EOS block id '%s'", blockId));
+        long prefix = 0;
+        for (int i = 3; i >= 0; i--) {
+            int offset = 16 + 2 * i;
+            prefix = (prefix << 8) | Integer.parseInt(blockId.substring(offset, offset + 2), 16);
+        }
+        return prefix;
+    }
+
+}
@@ -0,0 +1,355 @@
+package com.daml.EOS;
+
+import com.daml.EOS.client.domain.common.transaction.PackedTransaction;
+import com.daml.EOS.client.domain.common.transaction.SignedPackedTransaction;
+import com.daml.EOS.client.domain.common.transaction.TransactionAction;
+import com.daml.EOS.client.domain.common.transaction.TransactionAuthorization;
+import com.daml.Fabric.FabricContextException;
+import org.bouncycastle.asn1.x9.X9ECParameters;
+import org.bouncycastle.crypto.Digest;
+import org.bouncycastle.crypto.digests.RIPEMD160Digest;
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.crypto.ec.CustomNamedCurves;
+import org.bouncycastle.crypto.params.ECDomainParameters;
+import org.bouncycastle.crypto.signers.HMacDSAKCalculator;
+import org.bouncycastle.math.ec.ECMultiplier;
+import org.bouncycastle.math.ec.ECPoint;
+import org.bouncycastle.math.ec.FixedPointCombMultiplier;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Signs EOS transactions in-process with secp256k1 keys, instead of sending them to the keosd wallet.
+ *
+ * The transaction is packed the way nodeos packs it, and the digest signed is
+ * sha256(chain id, packed transaction, digest of the context free data). Signatures are
+ * deterministic (RFC 6979) with a low S, and only canonical ones are returned, as nodeos requires.
+ *
+ * Private keys are read in the legacy WIF form (5...) or as PVT_K1_...; signatures are written as SIG_K1_...
+ */
+public final class TransactionSigner {
+
+    private static final X9ECParameters CURVE_PARAMS = CustomNamedCurves.getByName("secp256k1");
+    private static final ECDomainParameters CURVE = new ECDomainParameters(
+            CURVE_PARAMS.getCurve(), CURVE_PARAMS.getG(), CURVE_PARAMS.getN(), CURVE_PARAMS.getH());
+    private static final BigInteger HALF_N = CURVE.getN().shiftRight(1);
+    private static final ECMultiplier MULTIPLIER = new FixedPointCombMultiplier();
+    private static final byte[] K1 = "K1".getBytes(StandardCharsets.US_ASCII);
+    private static final String BASE58 = "123456789ABCDEFGHJKLMNPQRSTUVWXYZabcdefghijkmnopqrstuvwxyz";
+
+    /**
+     * A private key and its public key
+     */
+    public static final class KeyPair {
+        final BigInteger privateKey;
+        // compressed public key
+        final byte[] publicKey;
+
+        KeyPair(BigInteger privateKey) {
+            if (privateKey.signum() <= 0 || privateKey.compareTo(CURVE.getN()) >= 0)
+                throw new FabricContextException("Invalid EOS private key");
+            this.privateKey = privateKey;
+            this.publicKey = MULTIPLIER.multiply(CURVE.getG(), privateKey).normalize().getEncoded(true);
+        }
+
+        /**
+         * @return the public key as EOS...
+         */
+        public String publicKey() {
+            return "EOS" + base58(concat(publicKey, checksum(ripemd160(publicKey))));
+        }
+    }
+
+    private final List<KeyPair> keys;
+
+    /**
+     * @param privateKeys keys every transaction is signed with
+     */
+    public TransactionSigner(List<String> privateKeys) {
+        if (privateKeys == null || privateKeys.isEmpty())
+            throw new FabricContextException("No EOS signing keys");
+        List<KeyPair> keys = new ArrayList<>(privateKeys.size());
+        for (String k : privateKeys) {
+            keys.add(parsePrivateKey(k));
+        }
+        this.keys = Collections.unmodifiableList(keys);
+    }
+
+    public List<String> publicKeys() {
+        List<String> result = new ArrayList<>(keys.size());
+        for (KeyPair k : keys) {
+            result.add(k.publicKey());
+        }
+        return result;
+    }
+
+    /**
+     * @return the signatures of the transaction with all the keys
+     */
+    public List<String> sign(PackedTransaction transaction, String chainId) {
+        byte[] digest = digest(transaction, chainId);
+        List<String> signatures = new ArrayList<>(keys.size());
+        for (KeyPair k : keys) {
+            signatures.add(sign(digest, k));
+        }
+        return signatures;
+    }
+
+    /**
+     * @return a copy of the transaction with its signatures, as the wallet returns it
+     */
+    public SignedPackedTransaction signTransaction(PackedTransaction transaction, String chainId) {
+        SignedPackedTransaction signed = new SignedPackedTransaction();
+        signed.setRegion(transaction.getRegion());
+        signed.setMax_net_usage_words(transaction.getMaxNetUsageWords());
+        signed.setExpiration(transaction.getExpiration());
+        signed.setRefBlockNum(transaction.getRefBlockNum());
+        signed.setRefBlockPrefix(transaction.getRefBlockPrefix());
+        signed.setMaxCpuUsageMs(transaction.getMaxCpuUsageMs());
+        signed.setDelaySec(transaction.getDelaySec());
+        signed.setContextFreeData(transaction.getContextFreeData());
+        signed.setContextFreeActions(transaction.getContextFreeActions());
+        signed.setActions(transaction.getActions());
+        signed.setTransactionExtensions(transaction.getTransactionExtensions());
+        signed.setSignatures(sign(transaction, chainId));
+        return signed;
+    }
+
+    /**
+     * @return the digest a transaction is signed over, without context free data
+     */
+    public static byte[] digest(PackedTransaction transaction, String chainId) {
+        byte[] chain = fromHex(chainId);
+        if (chain.length != 32)
+            throw new FabricContextException(String.format("Invalid EOS chain id '%s'", chainId));
+        SHA256Digest sha256 = new SHA256Digest();
+        byte[] packed = pack(transaction);
+        sha256.update(chain, 0, chain.length);
+        sha256.update(packed, 0, packed.length);
+        // digest of the (empty) context free data
+        sha256.update(new byte[32], 0, 32);
+        byte[] digest = new byte[32];
+        sha256.doFinal(digest, 0);
+        return digest;
+    }
+
+    /**
+     * Packs a transaction to its binary form
+     */
+    public static byte[] pack(PackedTransaction transaction) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+        long expiration = LocalDateTime.parse(transaction.getExpiration()).toEpochSecond(ZoneOffset.UTC);
+        writeLittleEndian(out, expiration, 4);
+        writeLittleEndian(out, Long.parseLong(transaction.getRefBlockNum()), 2);
+        writeLittleEndian(out, Long.parseLong(transaction.getRefBlockPrefix()), 4);
+        writeVarUint32(out, parseLong(transaction.getMaxNetUsageWords()));
+        writeLittleEndian(out, transaction.getMaxCpuUsageMs() != null ? transaction.getMaxCpuUsageMs() : 0, 1);
+        writeVarUint32(out, transaction.getDelaySec() != null ? transaction.getDelaySec() : 0);
+        writeActions(out, transaction.getContextFreeActions());
+        writeActions(out, transaction.getActions());
+        if (transaction.getTransactionExtensions() != null && !transaction.getTransactionExtensions().isEmpty())
+            throw new FabricContextException("Transaction extensions are not supported");
+        writeVarUint32(out, 0);
+        return out.toByteArray();
+    }
+
+    private static void writeActions(ByteArrayOutputStream out, List<TransactionAction> actions) {
+        if (actions == null) {
+            writeVarUint32(out, 0);
+            return;
+        }
+        writeVarUint32(out, actions.size());
+        for (TransactionAction action : actions) {
+            writeLittleEndian(out, AbiSerializer.nameToLong(action.getAccount()), 8);
+            writeLittleEndian(out, AbiSerializer.nameToLong(action.getName()), 8);
+            List<TransactionAuthorization> authorization = action.getAuthorization() != null
+                    ? action.getAuthorization() : Collections.emptyList();
+            writeVarUint32(out, authorization.size());
+            for (TransactionAuthorization a : authorization) {
+                writeLittleEndian(out, AbiSerializer.nameToLong(a.getActor()), 8);
+                writeLittleEndian(out, AbiSerializer.nameToLong(a.getPermission()), 8);
+            }
+            byte[] data = fromHex(action.getData() != null ? action.getData() : "");
+            writeVarUint32(out, data.length);
+            out.write(data, 0, data.length);
+        }
+    }
+
+    private static String sign(byte[] digest, KeyPair key) {
+        BigInteger n = CURVE.getN();
+        BigInteger e = new BigInteger(1, digest);
+        // RFC 6979; when a signature is not canonical the next k of the same sequence is tried
+        HMacDSAKCalculator kCalculator = new HMacDSAKCalculator(new SHA256Digest());
+        kCalculator.init(n, key.privateKey, digest);
+        while (true) {
+            BigInteger k = kCalculator.nextK();
+            ECPoint p = MULTIPLIER.multiply(CURVE.getG(), k).normalize();
+            BigInteger x = p.getAffineXCoord().toBigInteger();
+            BigInteger r = x.mod(n);
+            if (r.signum() == 0)
+                continue;
+            BigInteger s = k.modInverse(n).multiply(e.add(key.privateKey.multiply(r))).mod(n);
+            if (s.signum() == 0)
+                continue;
+
+            // the recovery id tells which of the points with x coordinate r is R, so nodeos can recover the key
+            int recoveryId = (p.getAffineYCoord().toBigInteger().testBit(0) ? 1 : 0) | (x.compareTo(n) >= 0 ? 2 : 0);
+            if (s.compareTo(HALF_N) > 0) {
+                s = n.subtract(s);
+                recoveryId ^= 1;
+            }
+
+            byte[] rBytes = toBytes32(r);
+            byte[] sBytes = toBytes32(s);
+            if (!isCanonical(rBytes) || !isCanonical(sBytes))
+                continue;
+
+            byte[] signature = new byte[65];
+            signature[0] = (byte) (recoveryId + 27 + 4);
+            System.arraycopy(rBytes, 0, signature, 1, 32);
+            System.arraycopy(sBytes, 0, signature, 33, 32);
+            return "SIG_K1_" + base58(concat(signature, checksum(ripemd160(signature, K1))));
+        }
+    }
+
+    // nodeos only accepts signatures whose r and s are exactly 32 bytes long in DER
+    private static boolean isCanonical(byte[] b) {
+        return (b[0] & 0x80) == 0 && !(b[0] == 0 && (b[1] & 0x80) == 0);
+    }
+
+    public static KeyPair parsePrivateKey(String key) {
+        if (key == null)
+            throw new FabricContextException("Invalid EOS private key");
+        key = key.trim();
+        if (key.startsWith("PVT_K1_")) {
+            byte[] b = fromBase58(key.substring(7));
+            if (b.length != 36)
+                throw new FabricContextException("Invalid EOS private key");
+            byte[] k = Arrays.copyOf(b, 32);
+            if (!Arrays.equals(Arrays.copyOfRange(b, 32, 36), checksum(ripemd160(k, K1))))
+                throw new FabricContextException("Invalid checksum of EOS private key");
+            return new KeyPair(new BigInteger(1, k));
+        }
+
+        byte[] b = fromBase58(key);
+        if (b.length != 37 || b[0] != (byte) 0x80)
+            throw new FabricContextException("Invalid EOS private key");
+        byte[] payload = Arrays.copyOf(b, 33);
+        if (!Arrays.equals(Arrays.copyOfRange(b, 33, 37), checksum(sha256(sha256(payload)))))
+            throw new FabricContextException("Invalid checksum of EOS private key");
+        return new KeyPair(new BigInteger(1, Arrays.copyOfRange(payload, 1, 33)));
+    }
+
+    private static byte[] checksum(byte[] hash) {
+        return Arrays.copyOf(hash, 4);
+    }
+
+    private static byte[] sha256(byte[] data) {
+        return hash(new SHA256Digest(), data);
+    }
+
+    private static byte[] ripemd160(byte[]... data) {
+        return hash(new RIPEMD160Digest(), data);
+    }
+
+    private static byte[] hash(Digest digest, byte[]... data) {
+        for (byte[] d : data) {
+            digest.update(d, 0, d.length);
+        }
+        byte[] out = new byte[digest.getDigestSize()];
+        digest.doFinal(out, 0);
+        return out;
+    }
+
+    private static byte[] concat(byte[] a, byte[] b) {
+        byte[] out = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, out, a.length, b.length);
+        return out;
+    }
+
+    private static byte[] toBytes32(BigInteger v) {
+        byte[] b = v.toByteArray();
+        if (b.length == 32)
+            return b;
+        byte[] out = new byte[32];
+        if (b.length > 32) {
+            // leading sign byte
+            System.arraycopy(b, b.length - 32, out, 0, 32);
+        } else {
+            System.arraycopy(b, 0, out, 32 - b.length, b.length);
+        }
+        return out;
+    }
+
+    private static long parseLong(String v) {
+        return (v == null || v.isEmpty()) ? 0 : Long.parseLong(v);
+    }
+
+    private static void writeLittleEndian(ByteArrayOutputStream out, long v, int bytes) {
+        for (int i = 0; i < bytes; i++) {
+            out.write((int) (v >>> (8 * i)) & 0xFF);
+        }
+    }
+
+    private static void writeVarUint32(ByteArrayOutputStream out, long v) {
+        do {
+            int b = (int) (v & 0x7F);
+            v >>>= 7;
+            out.write(v != 0 ? b | 0x80 : b);
+        } while (v != 0);
+    }
+
+    private static byte[] fromHex(String hex) {
+        if (hex.length() % 2 != 0)
+            throw new FabricContextException(String.format("Invalid hex value '%s'", hex));
+        byte[] b = new byte[hex.length() / 2];
+        for (int i = 0; i < b.length; i++) {
+            b[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return b;
+    }
+
+    static String base58(byte[] data) {
+        int zeros = 0;
+        while (zeros < data.length && data[zeros] == 0) zeros++;
+        StringBuilder sb = new StringBuilder();
+        BigInteger v = new BigInteger(1, data);
+        BigInteger radix = BigInteger.valueOf(58);
+        while (v.signum() > 0) {
+            BigInteger[] qr = v.divideAndRemainder(radix);
+            sb.append(BASE58.charAt(qr[1].intValue()));
+            v = qr[0];
+        }
+        for (int i = 0; i < zeros; i++) sb.append('1');
+        return sb.reverse().toString();
+    }
+
+    static byte[] fromBase58(String s) {
+        BigInteger v = BigInteger.ZERO;
+        BigInteger radix = BigInteger.valueOf(58);
+        int zeros = 0;
+        while (zeros < s.length() && s.charAt(zeros) == '1') zeros++;
+        for (int i = 0; i < s.length(); i++) {
+            int digit = BASE58.indexOf(s.charAt(i));
+            if (digit < 0)
+                throw new FabricContextException("Invalid base58 character in EOS key");
+            v = v.multiply(radix).add(BigInteger.valueOf(digit));
+        }
+        byte[] b = v.signum() == 0 ? new byte[0] : v.toByteArray();
+        // drop the sign byte
+        if (b.length > 0 && b[0] == 0)
+            b = Arrays.copyOfRange(b, 1, b.length);
+        byte[] out = new byte[zeros + b.length];
+        System.arraycopy(b, 0, out, zeros, b.length);
+        return out;
+    }
+
+}
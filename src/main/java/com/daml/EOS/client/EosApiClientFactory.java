@@ -1,6 +1,7 @@
 package com.daml.EOS.client;
 
 import com.daml.EOS.client.impl.EosApiRestClientImpl;
+import okhttp3.OkHttpClient;
 
 public class EosApiClientFactory {
 
@@ -12,6 +13,8 @@ public class EosApiClientFactory {
 
     private String historyBaseUrl;
 
+    private OkHttpClient client;
+
     private EosApiClientFactory(String baseUrl) {
         this.baseUrl = baseUrl;
     }
@@ -30,9 +33,20 @@ public class EosApiClientFactory {
         return new EosApiClientFactory(walletBaseUrl, chainBaseUrl, historyBaseUrl);
     }
 
+    /**
+     * The rest clients will share the given HTTP client, with its connection pool and limits.
+     */
+    public static EosApiClientFactory newInstance(String walletBaseUrl, String chainBaseUrl, String historyBaseUrl, OkHttpClient client) {
+        EosApiClientFactory factory = new EosApiClientFactory(walletBaseUrl, chainBaseUrl, historyBaseUrl);
+        factory.client = client;
+        return factory;
+    }
+
     public EosApiRestClient newRestClient() {
-        return baseUrl != null
-            ? new EosApiRestClientImpl(baseUrl)
+        if (baseUrl != null)
+            return new EosApiRestClientImpl(baseUrl);
+        return client != null
+            ? new EosApiRestClientImpl(walletBaseUrl, chainBaseUrl, historyBaseUrl, client)
             : new EosApiRestClientImpl(walletBaseUrl, chainBaseUrl, historyBaseUrl);
     }
 
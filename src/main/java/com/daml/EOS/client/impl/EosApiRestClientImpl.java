@@ -21,6 +21,8 @@ import com.daml.EOS.client.domain.response.history.controlledaccounts.Controlled
 import com.daml.EOS.client.domain.response.history.keyaccounts.KeyAccounts;
 import com.daml.EOS.client.domain.response.history.transaction.Transaction;
 
+import okhttp3.OkHttpClient;
+
 import java.util.*;
 
 public class EosApiRestClientImpl implements EosApiRestClient {
@@ -43,6 +45,12 @@ public class EosApiRestClientImpl implements EosApiRestClient {
         eosHistoryApiService = EosApiServiceGenerator.createService(EosHistoryApiService.class, historyBaseUrl);
     }
 
+    public EosApiRestClientImpl(String walletBaseUrl, String chainBaseUrl, String historyBaseUrl, OkHttpClient client){
+        eosWalletApiService = EosApiServiceGenerator.createService(EosWalletApiService.class, walletBaseUrl, client);
+        eosChainApiService = EosApiServiceGenerator.createService(EosChainApiService.class, chainBaseUrl, client);
+        eosHistoryApiService = EosApiServiceGenerator.createService(EosHistoryApiService.class, historyBaseUrl, client);
+    }
+
     @Override
     public ChainInfo getChainInfo(){
         return EosApiServiceGenerator.executeSync(eosChainApiService.getChainInfo());
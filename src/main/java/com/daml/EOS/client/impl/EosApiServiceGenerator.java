@@ -5,6 +5,7 @@ import com.daml.EOS.client.exception.EosApiErrorCode;
 import com.daml.EOS.client.exception.EosApiException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import okhttp3.OkHttpClient;
+import okhttp3.ResponseBody;
 import okhttp3.logging.HttpLoggingInterceptor;
 import retrofit2.Call;
 import retrofit2.Response;
@@ -13,32 +14,43 @@ import retrofit2.converter.jackson.JacksonConverterFactory;
 import retrofit2.converter.scalars.ScalarsConverterFactory;
 
 import java.io.IOException;
-import java.lang.annotation.Annotation;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static com.fasterxml.jackson.databind.DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES;
 
 public class EosApiServiceGenerator {
-    private static final Retrofit.Builder builder;
-    private static Retrofit retrofit;
+    private static final ObjectMapper mapper = new ObjectMapper().disable(FAIL_ON_UNKNOWN_PROPERTIES);
+    // client of the services created without one
+    private static final OkHttpClient defaultClient;
+    // one Retrofit per client and base URL; they are immutable, so services can share them
+    private static final Map<OkHttpClient, Map<String, Retrofit>> retrofits = new ConcurrentHashMap<>();
 
     static {
         HttpLoggingInterceptor interceptor = new HttpLoggingInterceptor();
         interceptor.setLevel(HttpLoggingInterceptor.Level.BODY);
-        OkHttpClient client = new OkHttpClient.Builder().addInterceptor(interceptor).build();
-
-        ObjectMapper mapper = new ObjectMapper();
-        mapper.disable(FAIL_ON_UNKNOWN_PROPERTIES);
-        builder = new Retrofit.Builder()
-                .client(client)
-                .addConverterFactory(ScalarsConverterFactory.create())
-                .addConverterFactory(JacksonConverterFactory.create(mapper));
+        defaultClient = new OkHttpClient.Builder().addInterceptor(interceptor).build();
     }
 
     private EosApiServiceGenerator() {
     }
 
     public static <S> S createService(Class<S> serviceClass, String baseUrl) {
-        retrofit = builder.baseUrl(baseUrl).build();
+        return createService(serviceClass, baseUrl, defaultClient);
+    }
+
+    /**
+     * Creates a service sending its requests through the given client, and so through its connection pool
+     */
+    public static <S> S createService(Class<S> serviceClass, String baseUrl, OkHttpClient client) {
+        Retrofit retrofit = retrofits
+                .computeIfAbsent(client, c -> new ConcurrentHashMap<>())
+                .computeIfAbsent(baseUrl, url -> new Retrofit.Builder()
+                        .baseUrl(url)
+                        .client(client)
+                        .addConverterFactory(ScalarsConverterFactory.create())
+                        .addConverterFactory(JacksonConverterFactory.create(mapper))
+                        .build());
         return retrofit.create(serviceClass);
     }
 
@@ -63,7 +75,8 @@ public class EosApiServiceGenerator {
      * Extracts and converts the response error body into an object.
      */
     private static EosApiError getEosApiError(Response<?> response) throws IOException {
-        return (EosApiError) retrofit.responseBodyConverter(EosApiError.class, new Annotation[0])
-                .convert(response.errorBody());
+        try (ResponseBody body = response.errorBody()) {
+            return mapper.readValue(body.byteStream(), EosApiError.class);
+        }
     }
 }
@@ -0,0 +1,79 @@
+// Copyright (c) 2020 Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+
+
+package com.daml.Fabric;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency and size metrics of chaincode (or EOS contract) calls, per function.
+ *
+ * Names are (prefix).(invoke|query).(function).(metric), with the metrics:
+ *   - total: timer of the whole call, which also counts the calls and their rate
+ *   - endorse, order, commit: timers of the phases of a Fabric invoke, see FabricContext.invokeChaincodeWithAckAsync
+ *   - reference, pack, sign, push: timers of the phases of an EOS invoke, see EOSContext.invokeChaincode
+ *   - request_bytes, response_bytes: histograms of the arguments and the returned payload
+ *   - failures: meter of the calls that failed
+ *
+ * Metrics are created the first time they are recorded, so only the functions actually called show up.
+ */
+public final class ChaincodeMetrics {
+
+    public static final String INVOKE = "invoke";
+    public static final String QUERY = "query";
+
+    public static final String TOTAL = "total";
+    public static final String ENDORSE = "endorse";
+    public static final String ORDER = "order";
+    public static final String COMMIT = "commit";
+
+    private final MetricRegistry registry;
+    private final String prefix;
+
+    /**
+     * @param prefix name prefix of the metrics, e.g. daml.fabric
+     */
+    public ChaincodeMetrics(MetricRegistry registry, String prefix) {
+        this.registry = registry;
+        this.prefix = prefix;
+    }
+
+    public Timer timer(String kind, String fcn, String phase) {
+        return registry.timer(MetricRegistry.name(prefix, kind, fcn, phase));
+    }
+
+    public void time(String kind, String fcn, String phase, long startNanos) {
+        timer(kind, fcn, phase).update(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public Histogram requestBytes(String kind, String fcn) {
+        return registry.histogram(MetricRegistry.name(prefix, kind, fcn, "request_bytes"));
+    }
+
+    public Histogram responseBytes(String kind, String fcn) {
+        return registry.histogram(MetricRegistry.name(prefix, kind, fcn, "response_bytes"));
+    }
+
+    public Meter failures(String kind, String fcn) {
+        return registry.meter(MetricRegistry.name(prefix, kind, fcn, "failures"));
+    }
+
+    /**
+     * @return total size of the call arguments
+     */
+    public static long size(byte[]... args) {
+        long size = 0;
+        for (byte[] arg : args) {
+            if (arg != null) size += arg.length;
+        }
+        return size;
+    }
+
+}
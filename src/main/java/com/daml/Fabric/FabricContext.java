@@ -5,6 +5,7 @@
 
 package com.daml.Fabric;
 
+import com.codahale.metrics.MetricRegistry;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
 import com.google.common.base.Strings;
@@ -14,6 +15,7 @@ import org.hyperledger.fabric.sdk.*;
 import org.hyperledger.fabric.sdk.ChaincodeResponse.Status;
 import org.hyperledger.fabric.sdk.exception.InvalidArgumentException;
 import org.hyperledger.fabric.sdk.exception.ProposalException;
+import org.hyperledger.fabric.sdk.exception.TransactionEventException;
 import org.hyperledger.fabric.sdk.identity.X509Enrollment;
 import org.hyperledger.fabric.sdk.security.CryptoSuite;
 
@@ -27,8 +29,20 @@ import java.security.KeyFactory;
 import java.security.PrivateKey;
 import java.security.spec.PKCS8EncodedKeySpec;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
 
 /**
  * This class implements reading the configuration file (for Fabric connectivity)
@@ -36,7 +50,9 @@ import java.util.concurrent.ExecutionException;
  *   for now, settings are hardcoded.
  * It also provides queryChaincode and invokeChaincode methods.
  *
- * The known bad side to this code is that it always works on a single endorsing peer.
+ * Queries are spread over the channel peers by a FabricPeerSelector (see peerSelection in the config).
+ * Invokes are endorsed by every peer, or by the fewest peers the endorsement policy needs (see endorsement),
+ * and broadcast to the orderer a FabricOrdererSelector picks, failing over to the others (see ordererSelection).
  * Otherwise, it provides most necessary low-level boilerplate to start working with a Fabric network.
  *
  * This class also ensures that:
@@ -56,6 +72,36 @@ public final class FabricContext {
     private FabricContextConfigYaml config;
     private boolean fabricTimeLogging = true;
     private HashMap<String, ArrayList<Peer>> peersByOrg;
+    private final Map<Peer, String> mspIdByPeer = new HashMap<>();
+    // set in policy endorsement mode: invokes go to the smallest set of peers satisfying it
+    private FabricEndorsementPolicy endorsementPolicy;
+
+    // runs the blocking parts of proposals (gRPC round-trips to endorsers) for the async methods, sized by the executor config
+    private final ExecutorService executor;
+
+    // picks the peer of every query and times out hedged queries
+    private FabricPeerSelector peerSelector;
+    // picks the orderer of every transaction
+    private FabricOrdererSelector ordererSelector;
+    private final MetricRegistry metrics;
+    private final ChaincodeMetrics chaincodeMetrics;
+
+    private final ScheduledExecutorService hedgeScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "fabric-context-hedge");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * Thrown when a peer ran the chaincode and it answered with an error: the same call fails the same way
+     * on every attempt and every peer, unlike timeouts and connection failures
+     */
+    public static final class ChaincodeRejectedException extends FabricContextException {
+
+        ChaincodeRejectedException(String msg) {
+            super(msg);
+        }
+    }
 
     /**
      * This is the constructor of this Class
@@ -66,6 +112,17 @@ public final class FabricContext {
      * @throws RuntimeException
      */
     public FabricContext(boolean doCreateChannel) {
+        this(doCreateChannel, new MetricRegistry());
+    }
+
+    /**
+     * @param doCreateChannel Is to create a channel
+     * @param metrics registry the chaincode call and orderer metrics are added to
+     */
+    public FabricContext(boolean doCreateChannel, MetricRegistry metrics) {
+
+        this.metrics = metrics;
+        this.chaincodeMetrics = new ChaincodeMetrics(metrics, "daml.fabric");
 
         // load config from file system
         try {
@@ -77,6 +134,8 @@ public final class FabricContext {
             config = mapper.readValue(new File(configPath), FabricContextConfigYaml.class);
 
             peersByOrg = new HashMap<String, ArrayList<Peer>>();
+            executor = newBoundedExecutor("fabric-context",
+                    config.executor != null ? config.executor : new FabricContextConfigYaml.ExecutorConfig());
         } catch (IOException e) {
             throw new FabricContextException(e);
         }
@@ -114,6 +173,40 @@ public final class FabricContext {
 
     }
 
+    /**
+     * A pool of at most config.threads daemon threads with a queue of config.queueSize tasks.
+     * When the queue is full further tasks are rejected: the callers of the async methods must not
+     * end up running a blocking call themselves, so they get a failed future instead (see supplyAsync).
+     */
+    public static ExecutorService newBoundedExecutor(String name, FabricContextConfigYaml.ExecutorConfig config) {
+        int threads = Math.max(1, config.threads);
+        AtomicInteger count = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, config.queueSize)),
+                r -> {
+                    Thread t = new Thread(r, name + "-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /**
+     * Runs the supplier on the executor, like CompletableFuture.supplyAsync, but a task the executor
+     * rejects fails the future rather than throwing at the caller.
+     */
+    public static <T> CompletableFuture<T> supplyAsync(Supplier<T> supplier, ExecutorService executor) {
+        try {
+            return CompletableFuture.supplyAsync(supplier, executor);
+        } catch (RejectedExecutionException e) {
+            CompletableFuture<T> future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+            return future;
+        }
+    }
+
     /**
      * This method executes Hyperledger Fabric v2.0 network configuration
      *
@@ -141,6 +234,7 @@ public final class FabricContext {
                     Peer fabPeer = createPeer(configPeer.url, configPeer.name, org);
                     peers.add(fabPeer);
                     peersByOrg.get(org.name).add(fabPeer);
+                    mspIdByPeer.put(fabPeer, org.mspId);
                     fabClient.setUserContext(getOrgAdmin(org));
                     existingActiveChannels.addAll(fabClient.queryChannels(fabPeer));
                 }
@@ -155,6 +249,10 @@ public final class FabricContext {
         //Construct and run the channel
         //TODO add logic to choose one from the list of orderers
         constructChannel(config.channel.name, networkOrderers, peers, createFabricChannel);
+        Long queryWaitTime = config.channel.chaincode.queryWaitTime;
+        peerSelector = new FabricPeerSelector(fabChannel.getPeers(), config.peerSelection, queryWaitTime == null ? 0L : queryWaitTime);
+        endorsementPolicy = loadEndorsementPolicy();
+        ordererSelector = new FabricOrdererSelector(fabChannel.getOrderers(), config.ordererSelection, metrics);
 
         Path metaInfPath = null;
         if (Files.exists(Paths.get(config.channel.chaincode.metapath))) {
@@ -559,37 +657,140 @@ public final class FabricContext {
     }
 
     public byte[] queryChaincode(String fcn, byte[]... args) {
+        if (!peerSelector.isHedging())
+            return queryPeer(peerSelector.select(null), fcn, args);
+        return await(queryChaincodeAsync(fcn, args));
+    }
+
+    public CompletableFuture<byte[]> queryChaincodeAsync(String fcn) {
+        return queryChaincodeAsync(fcn, new String[]{});
+    }
+
+    public CompletableFuture<byte[]> queryChaincodeAsync(String fcn, String... args) {
+        return queryChaincodeAsync(fcn, convertChaincodeArgs(args));
+    }
+
+    public CompletableFuture<byte[]> queryChaincodeAsync(String fcn, byte[]... args) {
+        if (peerSelector.isHedging())
+            return new HedgedQuery(fcn, args).result;
+        Peer peer = peerSelector.select(null);
+        return supplyAsync(() -> queryPeer(peer, fcn, args), executor);
+    }
+
+    /**
+     * Sends the query to one peer, falls back on a second peer when the first one
+     * has not answered within the hedging deadline (or has failed), and completes with
+     * whichever answer arrives first
+     */
+    private final class HedgedQuery {
+        final CompletableFuture<byte[]> result = new CompletableFuture<>();
+        private final String fcn;
+        private final byte[][] args;
+        private final Peer primary;
+        private final HedgeState state = new HedgeState();
+
+        HedgedQuery(String fcn, byte[][] args) {
+            this.fcn = fcn;
+            this.args = args;
+            this.primary = peerSelector.select(null);
+            send(primary);
+            ScheduledFuture<?> timer = hedgeScheduler.schedule(this::hedge, peerSelector.hedgeDelayMillis(), TimeUnit.MILLISECONDS);
+            result.whenComplete((r, t) -> timer.cancel(false));
+        }
+
+        private void hedge() {
+            if (result.isDone() || !state.claimHedge())
+                return;
+            Peer backup = peerSelector.select(primary);
+            if (fabricTimeLogging)
+                debugOut("queryChaincode (%s) - hedging on peer %s", fcn, backup.getName());
+            send(backup);
+        }
+
+        private void send(Peer peer) {
+            supplyAsync(() -> queryPeer(peer, fcn, args), executor).whenComplete((value, t) -> {
+                if (t == null) {
+                    result.complete(value);
+                    return;
+                }
+                // a failed first peer is hedged right away, the query fails only when both did
+                hedge();
+                if (state.failed())
+                    result.completeExceptionally(t);
+            });
+        }
+    }
+
+    /**
+     * The queries a HedgedQuery has in flight. The backup query is claimed and counted in one step,
+     * so a primary failing meanwhile sees it as pending and leaves the outcome to it.
+     */
+    static final class HedgeState {
+        private boolean hedged = false;
+        private int pending = 1;
+
+        // whether the caller is the one to send the backup query, which is then pending
+        synchronized boolean claimHedge() {
+            if (hedged)
+                return false;
+            hedged = true;
+            pending++;
+            return true;
+        }
+
+        // a query failed: whether it was the last one pending, which fails the whole query
+        synchronized boolean failed() {
+            return --pending == 0;
+        }
+    }
+
+    private byte[] queryPeer(Peer peer, String fcn, byte[]... args) {
+
+        long queryStart = System.currentTimeMillis();
+        long start = System.nanoTime();
+        FabricPeerSelector.Outcome outcome = FabricPeerSelector.Outcome.UNREACHABLE;
+        peerSelector.started(peer);
+        chaincodeMetrics.requestBytes(ChaincodeMetrics.QUERY, fcn).update(ChaincodeMetrics.size(args));
 
         try {
 
-            long queryStart = System.currentTimeMillis();
             QueryByChaincodeRequest req = fabClient.newQueryProposalRequest();
             req.setChaincodeName(ccName);
             req.setFcn(fcn);
             req.setArgs(args);
             req.setProposalWaitTime(config.channel.chaincode.queryWaitTime);
 
-            List<Peer> singlePeerList = new LinkedList<>();
-            singlePeerList.add(fabChannel.getPeers().iterator().next());
-            Collection<ProposalResponse> responses = fabChannel.queryByChaincode(req, singlePeerList);
+            Collection<ProposalResponse> responses = fabChannel.queryByChaincode(req, Collections.singletonList(peer));
             ProposalResponse rsp = responses.iterator().next();
             // check if status is not success
             if (rsp.getStatus() != Status.SUCCESS) {
+                // the SDK only attaches a proposal response when the peer answered
+                if (rsp.getProposalResponse() != null)
+                    throw new ChaincodeRejectedException(makeErrorFromProposalResponse(rsp));
                 throw new FabricContextException(makeErrorFromProposalResponse(rsp));
             }
             byte[] result = rsp.getChaincodeActionResponsePayload();
+            outcome = FabricPeerSelector.Outcome.SUCCESS;
+            chaincodeMetrics.time(ChaincodeMetrics.QUERY, fcn, ChaincodeMetrics.TOTAL, start);
+            chaincodeMetrics.responseBytes(ChaincodeMetrics.QUERY, fcn).update(ChaincodeMetrics.size(result));
 
             if (fabricTimeLogging)
-                debugOut("queryChaincode (%s) - %dms %n", fcn, System.currentTimeMillis()-queryStart);
+                debugOut("queryChaincode (%s) on %s - %dms %n", fcn, peer.getName(), System.currentTimeMillis()-queryStart);
 
             return result;
 
         } catch (Throwable t) {
+            if (t instanceof ChaincodeRejectedException)
+                outcome = FabricPeerSelector.Outcome.REJECTED;
             if (RuntimeException.class.isAssignableFrom(t.getClass())) {
                 throw (RuntimeException)t;
             } else {
                 throw new FabricContextException(t);
             }
+        } finally {
+            peerSelector.finished(peer, System.nanoTime() - start, outcome);
+            if (outcome != FabricPeerSelector.Outcome.SUCCESS)
+                chaincodeMetrics.failures(ChaincodeMetrics.QUERY, fcn).mark();
         }
 
     }
@@ -632,8 +833,189 @@ public final class FabricContext {
     }
 
     public byte[] invokeChaincode(String fcn, byte[]... args) {
+        return await(invokeChaincodeAsync(fcn, args));
+    }
+
+    public CompletableFuture<byte[]> invokeChaincodeAsync(String fcn, String... args) {
+        return invokeChaincodeAsync(fcn, convertChaincodeArgs(args));
+    }
 
-        final ExecutionException[] executionExceptions = new ExecutionException[1];
+    /**
+     * Non-blocking variant of invokeChaincode.
+     * The endorsement round runs on the context executor, and ordering/commit is chained onto the
+     * future returned by the SDK, so no thread is held while the transaction is being ordered.
+     *
+     * @param fcn chaincode function
+     * @param args chaincode arguments
+     * @return future completed with the proposal payload once the transaction is committed
+     */
+    public CompletableFuture<byte[]> invokeChaincodeAsync(String fcn, byte[]... args) {
+        return invokeChaincodeWithAckAsync(fcn, args).thenApply(ack -> ack.payload);
+    }
+
+    /**
+     * What a committed invoke returned, and where it was committed
+     */
+    public static final class InvokeAck {
+        public final byte[] payload;
+        public final String txId;
+        public final long blockNumber;
+
+        InvokeAck(byte[] payload, String txId, long blockNumber) {
+            this.payload = payload;
+            this.txId = txId;
+            this.blockNumber = blockNumber;
+        }
+    }
+
+    /**
+     * Same as invokeChaincodeAsync, but also hands back the transaction id and the number of the block
+     * that validated the transaction, taken from the commit event the SDK waits for anyway.
+     *
+     * The phases are timed per function (see ChaincodeMetrics): endorse up to the endorsements being
+     * collected, order up to an orderer accepting the transaction, commit up to the commit event.
+     */
+    public CompletableFuture<InvokeAck> invokeChaincodeWithAckAsync(String fcn, byte[]... args) {
+
+        long invokeStart = System.currentTimeMillis();
+        long start = System.nanoTime();
+        chaincodeMetrics.requestBytes(ChaincodeMetrics.INVOKE, fcn).update(ChaincodeMetrics.size(args));
+
+        CompletableFuture<InvokeAck> ack = supplyAsync(() -> {
+                    Endorsement endorsement = sendInvokeProposal(fcn, args);
+                    chaincodeMetrics.time(ChaincodeMetrics.INVOKE, fcn, ChaincodeMetrics.ENDORSE, start);
+                    if (endorsement.responses.isEmpty() && endorsement.rejection != null)
+                        throw new ChaincodeRejectedException(endorsement.rejection);
+                    return endorsement;
+                }, executor)
+                .thenCompose(endorsement -> {
+                    long orderStart = System.nanoTime();
+                    CompletableFuture<BlockEvent.TransactionEvent> committed = broadcast(endorsement.responses);
+                    chaincodeMetrics.time(ChaincodeMetrics.INVOKE, fcn, ChaincodeMetrics.ORDER, orderStart);
+                    long commitStart = System.nanoTime();
+                    return committed.thenApply(event -> {
+                        chaincodeMetrics.time(ChaincodeMetrics.INVOKE, fcn, ChaincodeMetrics.COMMIT, commitStart);
+                        chaincodeMetrics.time(ChaincodeMetrics.INVOKE, fcn, ChaincodeMetrics.TOTAL, start);
+                        chaincodeMetrics.responseBytes(ChaincodeMetrics.INVOKE, fcn).update(ChaincodeMetrics.size(endorsement.result));
+                        if (fabricTimeLogging)
+                            debugOut("invokeChaincode (%s) - %dms %n", fcn, System.currentTimeMillis()-invokeStart);
+                        return new InvokeAck(endorsement.result, event.getTransactionID(), event.getBlockEvent().getBlockNumber());
+                    });
+                });
+
+        ack.whenComplete((r, t) -> {
+            if (t != null)
+                chaincodeMetrics.failures(ChaincodeMetrics.INVOKE, fcn).mark();
+        });
+        return ack;
+
+    }
+
+    /**
+     * Sends the endorsed transaction to the orderers in the order the orderer selector ranks them,
+     * until one accepts it.
+     *
+     * The SDK broadcasts before it returns the future of the commit event, and fails that future right away
+     * if the orderer did not accept the transaction, so it is safe to hand the transaction to the next
+     * orderer then: it was not ordered, and if it somehow was, the copy is rejected as a duplicate.
+     *
+     * @return future completed with the commit event of the transaction
+     */
+    private CompletableFuture<BlockEvent.TransactionEvent> broadcast(Collection<ProposalResponse> responses) {
+        CompletableFuture<BlockEvent.TransactionEvent> failed = new CompletableFuture<>();
+        // not the orderers' fault, so they are not charged with it
+        if (responses.isEmpty()) {
+            failed.completeExceptionally(new FabricContextException("No peer endorsed the transaction"));
+            return failed;
+        }
+
+        Throwable lastFailure = null;
+        for (Orderer orderer : ordererSelector.rank()) {
+            long start = System.nanoTime();
+            CompletableFuture<BlockEvent.TransactionEvent> event = fabChannel.sendTransaction(responses, Collections.singletonList(orderer));
+            Throwable failure = broadcastFailure(event);
+            ordererSelector.finished(orderer, System.nanoTime() - start, failure == null);
+            if (failure == null)
+                return event;
+
+            debugOut("Orderer %s did not accept the transaction, failing over: %s", orderer.getName(), failure.getMessage());
+            lastFailure = failure;
+        }
+
+        failed.completeExceptionally(lastFailure != null ? lastFailure : new FabricContextException("No orderers to send the transaction to"));
+        return failed;
+    }
+
+    // the failure of a broadcast the orderer did not accept; a failed commit (invalid transaction) is not one
+    private static Throwable broadcastFailure(CompletableFuture<BlockEvent.TransactionEvent> event) {
+        if (!event.isCompletedExceptionally())
+            return null;
+        try {
+            event.getNow(null);
+            return null;
+        } catch (CompletionException e) {
+            Throwable t = e.getCause() != null ? e.getCause() : e;
+            return (t instanceof TransactionEventException) ? null : t;
+        } catch (CancellationException e) {
+            return e;
+        }
+    }
+
+    private Endorsement sendInvokeProposal(String fcn, byte[]... args) {
+
+        Collection<Peer> endorsers = selectEndorsers();
+        if (endorsers == null)
+            return sendInvokeProposalTo(null, fcn, args);
+
+        Endorsement endorsement = sendInvokeProposalTo(endorsers, fcn, args);
+        List<String> endorserMspIds = new ArrayList<>();
+        for (ProposalResponse response : endorsement.responses) {
+            endorserMspIds.add(mspIdByPeer.get(response.getPeer()));
+        }
+        if (endorsementPolicy.isSatisfiedBy(endorserMspIds))
+            return endorsement;
+
+        // a proposal cannot be reused, so the peers that did not endorse are not simply replaced
+        debugOut("Endorsements of %s by %d of %d peers do not satisfy the endorsement policy, asking every peer",
+                fcn, endorsement.responses.size(), endorsers.size());
+        return sendInvokeProposalTo(null, fcn, args);
+
+    }
+
+    // in policy mode, the smallest set of peers satisfying the endorsement policy, preferring the peers
+    // the peer selection strategy ranks first; null means every peer of the channel
+    private Collection<Peer> selectEndorsers() {
+        if (endorsementPolicy == null)
+            return null;
+        return endorsementPolicy.smallestEndorsingSet(peerSelector.rank(), mspIdByPeer::get);
+    }
+
+    private FabricEndorsementPolicy loadEndorsementPolicy() {
+        String mode = (config.endorsement == null || config.endorsement.mode == null) ? "all" : config.endorsement.mode;
+        if ("all".equalsIgnoreCase(mode))
+            return null;
+        if (!"policy".equalsIgnoreCase(mode))
+            throw new FabricContextException(String.format("Invalid endorsement mode '%s'", mode));
+        if (Strings.isNullOrEmpty(config.channel.endorsementPolicy))
+            throw new FabricContextException("Endorsement mode 'policy' needs channel.endorsementPolicy");
+
+        try {
+            return FabricEndorsementPolicy.fromYamlFile(new File(config.channel.endorsementPolicy));
+        } catch (Throwable t) {
+            if (RuntimeException.class.isAssignableFrom(t.getClass())) {
+                throw (RuntimeException)t;
+            } else {
+                throw new FabricContextException(t);
+            }
+        }
+    }
+
+    /**
+     * Sends the invoke proposal to the given peers, in parallel
+     *
+     * @param peers endorsing peers, null for every peer of the channel
+     */
+    private Endorsement sendInvokeProposalTo(Collection<Peer> peers, String fcn, byte[]... args) {
 
         Collection<ProposalResponse> successful = new LinkedList<>();
         Collection<ProposalResponse> failed = new LinkedList<>();
@@ -650,13 +1032,14 @@ public final class FabricContext {
         transactionProposalRequest.setProposalWaitTime(config.channel.chaincode.invokeWaitTime);
         transactionProposalRequest.setArgs(args);
 
-        long invokeStart = System.currentTimeMillis();
         byte[] result = null;
 
         Collection<ProposalResponse> transactionPropResp = null;
 
         try {
-            transactionPropResp = fabChannel.sendTransactionProposal(transactionProposalRequest);
+            transactionPropResp = (peers == null)
+                    ? fabChannel.sendTransactionProposal(transactionProposalRequest)
+                    : fabChannel.sendTransactionProposal(transactionProposalRequest, peers);
 
             for (ProposalResponse response : transactionPropResp) {
                 if (response.getStatus() == ProposalResponse.Status.SUCCESS) {
@@ -691,13 +1074,72 @@ public final class FabricContext {
             e.printStackTrace();
         }
 
-        // all ok
-        fabChannel.sendTransaction(successful).join();
-        if (fabricTimeLogging)
-            debugOut("invokeChaincode (%s) - %dms %n", fcn, System.currentTimeMillis()-invokeStart);
+        // a peer that answered with an error (rather than not at all) ran the chaincode and it failed
+        String rejection = null;
+        for (ProposalResponse response : failed) {
+            if (response.getProposalResponse() != null) {
+                rejection = makeErrorFromProposalResponse(response);
+                break;
+            }
+        }
+
+        return new Endorsement(successful, result, rejection);
+
+    }
 
-        return result;
+    /**
+     * Successful proposal responses of one invoke, plus the payload they agreed on
+     */
+    private static final class Endorsement {
+        final Collection<ProposalResponse> responses;
+        final byte[] result;
+        // error of a peer whose chaincode rejected the proposal, null if none did
+        final String rejection;
+
+        Endorsement(Collection<ProposalResponse> responses, byte[] result, String rejection) {
+            this.responses = responses;
+            this.result = result;
+            this.rejection = rejection;
+        }
+    }
 
+    /**
+     * Waits for a future produced by this context, rethrowing its failure the same way the
+     * blocking methods always did (RuntimeExceptions as-is, everything else as FabricContextException)
+     */
+    public static <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable t = e.getCause() != null ? e.getCause() : e;
+            if (RuntimeException.class.isAssignableFrom(t.getClass())) {
+                throw (RuntimeException)t;
+            } else {
+                throw new FabricContextException(t);
+            }
+        }
+    }
+
+    /**
+     * Registers a listener for the events the DAML chaincode sets with the given name
+     *
+     * @param eventName exact chaincode event name
+     * @param listener called for every such event in a delivered block
+     * @return handle of the listener registration
+     */
+    public String registerChaincodeEventListener(String eventName, ChaincodeEventListener listener) {
+        try {
+            return fabChannel.registerChaincodeEventListener(
+                    Pattern.compile("^" + Pattern.quote(ccName) + "$"),
+                    Pattern.compile("^" + Pattern.quote(eventName) + "$"),
+                    listener);
+        } catch (Throwable t) {
+            if (RuntimeException.class.isAssignableFrom(t.getClass())) {
+                throw (RuntimeException)t;
+            } else {
+                throw new FabricContextException(t);
+            }
+        }
     }
 
     //Utilities gets
@@ -805,6 +1247,8 @@ public final class FabricContext {
     }
 
     public void shutdown() {
+        executor.shutdown();
+        hedgeScheduler.shutdown();
         fabChannel.shutdown(true);
         fabChannel = null;
         fabClient = null;
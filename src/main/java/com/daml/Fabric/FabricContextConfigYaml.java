@@ -5,6 +5,8 @@
 
 package com.daml.Fabric;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 public class FabricContextConfigYaml {
@@ -64,8 +66,120 @@ public class FabricContextConfigYaml {
         public ConnectorConfig() {}
     }
 
+    // how chaincode queries are spread over the channel peers
+    public static class PeerSelectionConfig {
+        public String strategy = "round-robin";
+        public boolean hedge = false;
+        public double hedgePercentile = 0.95;
+        public long hedgeMinDelay = 10;
+
+        public PeerSelectionConfig() {}
+    }
+
+    // which orderer transactions are broadcast to, and how long one that failed is avoided (ms)
+    public static class OrdererSelectionConfig {
+        public String strategy = "round-robin";
+        public long downTime = 5000;
+
+        public OrdererSelectionConfig() {}
+    }
+
+    // how values are compressed before they are written to the ledger,
+    //   gzip by default as connectors older than the codec support read nothing else
+    public static class CompressionConfig {
+        public String codec = "gzip";
+        public int threshold = 256;
+        public int zstdLevel = 3;
+        public String zstdDictionary;
+        public int maxValueSize = 256 << 20;
+
+        public CompressionConfig() {}
+    }
+
+    // values larger than chunkSize (after compression) are written as several state entries
+    public static class ChunkingConfig {
+        public int chunkSize = 1024 * 1024;
+        public int chunksPerRead = 4;
+
+        public ChunkingConfig() {}
+    }
+
+    // which peers endorse invokes: all (every channel peer) or policy (the fewest peers the endorsement policy needs)
+    public static class EndorsementConfig {
+        public String mode = "all";
+
+        public EndorsementConfig() {}
+    }
+
+    // how invokes that lost a read conflict at validation are retried
+    public static class RetryConfig {
+        public int maxAttempts = 5;
+        public long initialBackoff = 100;
+        public long maxBackoff = 3000;
+        public double multiplier = 2.0;
+        public double jitter = 0.5;
+        public double budgetRatio = 0.2;
+        public double budgetMinPerSecond = 10;
+        public int breakerFailures = 20;
+        public long breakerOpenTime = 2000;
+        public List<String> retryableCodes = Arrays.asList("MVCC_READ_CONFLICT", "PHANTOM_READ_CONFLICT");
+
+        public RetryConfig() {}
+    }
+
+    // threads the blocking parts of async calls run on, and how many calls wait for one before further calls are rejected
+    public static class ExecutorConfig {
+        public int threads = 64;
+        public int queueSize = 1024;
+
+        public ExecutorConfig() {}
+
+        public ExecutorConfig(int threads, int queueSize) {
+            this.threads = threads;
+            this.queueSize = queueSize;
+        }
+    }
+
+    // EOS node endpoints, and the HTTP client all EOS calls share
+    public static class EosConfig {
+        public String walletUrl = "http://127.0.0.1:8899";
+        public String chainUrl = "http://127.0.0.1:8888";
+        public String historyUrl = "http://127.0.0.1:8888";
+        public int maxRequestsPerHost = 16;
+        public int maxIdleConnections = 16;
+        public long keepAlive = 300000;
+        public long connectTimeout = 10000;
+        public long readTimeout = 30000;
+        public boolean http2 = true;
+        public String httpLog = "basic";
+        public String referenceBlock = "head";
+        public long referenceRefresh = 500;
+        public long referenceMaxAge = 10000;
+        public String abiFile = "";
+        public List<String> signingKeys = new ArrayList<>();
+        public List<String> walletKeys = Arrays.asList("EOS6MRyAjQq8ud7hVNYcfnVPJqcVpscN5So8BhtHuGYqET5GDW5CV");
+        public List<String> batchFunctions = Arrays.asList("rawbatchwrite", "packagewrite", "recordtwrite");
+        public int batchMaxActions = 1;
+        public int batchMaxTransactions = 1;
+        public long batchWindow = 0;
+        public long batchMaxNetBytes = 131072;
+        public long batchMaxCpuUs = 30000;
+        public long actionCpuUs = 1000;
+        public ExecutorConfig executor = new ExecutorConfig(16, 1024);
+
+        public EosConfig() {}
+    }
+
     public List<OrganizationConfig> organizations;
     public ConnectorConfig explorer;
     public ChannelConfig channel;
+    public PeerSelectionConfig peerSelection;
+    public OrdererSelectionConfig ordererSelection;
+    public CompressionConfig compression;
+    public ChunkingConfig chunking;
+    public RetryConfig retry;
+    public EndorsementConfig endorsement;
+    public ExecutorConfig executor;
+    public EosConfig eos;
     public String ledgerId;
 }
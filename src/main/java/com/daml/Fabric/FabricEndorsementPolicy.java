@@ -9,10 +9,13 @@ import io.netty.util.internal.StringUtil;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Function;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import org.hyperledger.fabric.protos.common.MspPrincipal.MSPPrincipal;
@@ -23,6 +26,18 @@ import org.hyperledger.fabric.sdk.exception.ChaincodeEndorsementPolicyParseExcep
 import org.yaml.snakeyaml.Yaml;
 
 public class FabricEndorsementPolicy {
+
+    // above this many peers the smallest endorsing set is not searched for
+    private static final int MAX_SEARCH_PEERS = 16;
+
+    // roles of the policy identities, by their index in the policy
+    private final List<MSPRole> identities;
+    private final SignaturePolicy rule;
+
+    private FabricEndorsementPolicy(List<MSPRole> identities, SignaturePolicy rule) {
+        this.identities = identities;
+        this.rule = rule;
+    }
     
     @SuppressWarnings ("serial")
     private static class IndexedHashMap<K, V> extends LinkedHashMap<K, V> {
@@ -221,5 +236,104 @@ public class FabricEndorsementPolicy {
         return policyBytes;
     }
     
+    /**
+     * Parses a policy file for evaluating endorsements on the client side
+     *
+     * @param yamlPolicyFile policy in the same format as for bytesFromYamlFile
+     */
+    public static FabricEndorsementPolicy fromYamlFile(File yamlPolicyFile) throws IOException, ChaincodeEndorsementPolicyParseException {
+        Policies.SignaturePolicyEnvelope envelope = Policies.SignaturePolicyEnvelope.parseFrom(bytesFromYamlFile(yamlPolicyFile));
+        List<MSPRole> identities = new ArrayList<>();
+        for (MSPPrincipal principal : envelope.getIdentitiesList()) {
+            identities.add(MSPRole.parseFrom(principal.getPrincipal()));
+        }
+        return new FabricEndorsementPolicy(identities, envelope.getRule());
+    }
+
+    /**
+     * Whether endorsements by peers of the given organizations satisfy the policy
+     *
+     * @param endorserMspIds MSP id of every endorsing peer, once per peer
+     */
+    public boolean isSatisfiedBy(List<String> endorserMspIds) {
+        return evaluate(rule, endorserMspIds, new boolean[endorserMspIds.size()]);
+    }
+
+    /**
+     * Finds the smallest set of peers whose endorsements satisfy the policy.
+     * Of the sets of that size, the one made of the earliest peers of the list is taken.
+     *
+     * @param peers candidates, most preferred first
+     * @param mspIdOf organization of a peer
+     * @return the peers, or null if no set satisfies the policy or there are too many peers to search
+     */
+    public <P> List<P> smallestEndorsingSet(List<P> peers, Function<P, String> mspIdOf) {
+        int n = peers.size();
+        if (n == 0 || n > MAX_SEARCH_PEERS)
+            return null;
+
+        List<String> mspIds = new ArrayList<>(n);
+        for (P peer : peers) {
+            mspIds.add(mspIdOf.apply(peer));
+        }
+
+        for (int k = 1; k <= n; k++) {
+            // combinations of k peer indexes in lexicographic order
+            int[] combination = new int[k];
+            for (int i = 0; i < k; i++) combination[i] = i;
+            while (true) {
+                List<String> endorsers = new ArrayList<>(k);
+                for (int i : combination) endorsers.add(mspIds.get(i));
+                if (isSatisfiedBy(endorsers)) {
+                    List<P> result = new ArrayList<>(k);
+                    for (int i : combination) result.add(peers.get(i));
+                    return Collections.unmodifiableList(result);
+                }
+
+                int i = k - 1;
+                while (i >= 0 && combination[i] == n - k + i) i--;
+                if (i < 0) break;
+                combination[i]++;
+                for (int j = i + 1; j < k; j++) combination[j] = combination[j - 1] + 1;
+            }
+        }
+        return null;
+    }
+
+    // same as the validating peer: an endorsement counts towards one signed-by only,
+    // and the sub-rules of an n-of are tried in order
+    private boolean evaluate(SignaturePolicy policy, List<String> mspIds, boolean[] used) {
+        switch (policy.getTypeCase()) {
+            case SIGNED_BY:
+                MSPRole role = identities.get(policy.getSignedBy());
+                if (!signsAsPeer(role.getRole()))
+                    return false;
+                for (int i = 0; i < mspIds.size(); i++) {
+                    if (!used[i] && role.getMspIdentifier().equals(mspIds.get(i))) {
+                        used[i] = true;
+                        return true;
+                    }
+                }
+                return false;
+            case N_OUT_OF:
+                int satisfied = 0;
+                for (SignaturePolicy sub : policy.getNOutOf().getRulesList()) {
+                    boolean[] attempt = used.clone();
+                    if (evaluate(sub, mspIds, attempt)) {
+                        System.arraycopy(attempt, 0, used, 0, used.length);
+                        satisfied++;
+                    }
+                }
+                return satisfied >= policy.getNOutOf().getN();
+            default:
+                return false;
+        }
+    }
+
+    // endorsements are signed with the peer identity, which is a member (and a peer) of its organization
+    private static boolean signsAsPeer(MSPRole.MSPRoleType role) {
+        return role == MSPRole.MSPRoleType.MEMBER || role == MSPRole.MSPRoleType.PEER;
+    }
+
 }
 
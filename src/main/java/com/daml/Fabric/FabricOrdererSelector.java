@@ -0,0 +1,179 @@
+// Copyright (c) 2020 Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+
+
+package com.daml.Fabric;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import org.hyperledger.fabric.sdk.Orderer;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Chooses the orderer a transaction is broadcast to, and the ones to fail over to.
+ *
+ * Strategies:
+ *   - round-robin: every orderer in turn
+ *   - fastest: the orderer with the lowest smoothed broadcast latency
+ *   - sticky: the same orderer until it fails
+ *
+ * An orderer whose broadcast failed is marked down for a while (doubling with every failure in a row)
+ * and is only tried after all the healthy ones.
+ *
+ * Per orderer, daml.fabric.orderer.(name).broadcast times the broadcasts, .failures meters the
+ * failed ones and .healthy tells whether it is currently up.
+ */
+public final class FabricOrdererSelector {
+
+    public enum Strategy {
+        ROUND_ROBIN("round-robin"),
+        FASTEST("fastest"),
+        STICKY("sticky");
+
+        private final String configName;
+
+        Strategy(String configName) {
+            this.configName = configName;
+        }
+
+        public static Strategy fromConfig(String name) {
+            if (name == null || name.isEmpty())
+                return ROUND_ROBIN;
+            for (Strategy s : values()) {
+                if (s.configName.equalsIgnoreCase(name))
+                    return s;
+            }
+            throw new FabricContextException(String.format("Invalid orderer selection strategy '%s'", name));
+        }
+    }
+
+    // weight of the newest sample in the latency average
+    private static final double EWMA_ALPHA = 0.2;
+    // longest time an orderer stays marked down
+    private static final long MAX_DOWN_MILLIS = 60000;
+
+    private static final class OrdererStats {
+        final Timer broadcasts;
+        final Meter failures;
+        // smoothed latency in milliseconds, negative until the first sample
+        double ewmaMillis = -1;
+        int consecutiveFailures = 0;
+        long downUntil = 0;
+
+        OrdererStats(Timer broadcasts, Meter failures) {
+            this.broadcasts = broadcasts;
+            this.failures = failures;
+        }
+
+        boolean isUp(long now) {
+            return now >= downUntil;
+        }
+    }
+
+    private final List<Orderer> orderers;
+    private final Map<Orderer, OrdererStats> stats = new IdentityHashMap<>();
+    private final Strategy strategy;
+    private final long downTime;
+    private final AtomicInteger next = new AtomicInteger();
+    // orderer of the sticky strategy
+    private Orderer current;
+
+    /**
+     * @param orderers the channel orderers
+     * @param config orderer selection settings, null for the defaults
+     */
+    public FabricOrdererSelector(Collection<Orderer> orderers, FabricContextConfigYaml.OrdererSelectionConfig config, MetricRegistry metrics) {
+        if (orderers.isEmpty())
+            throw new FabricContextException("No orderers to send transactions to");
+        if (config == null)
+            config = new FabricContextConfigYaml.OrdererSelectionConfig();
+
+        this.orderers = Collections.unmodifiableList(new ArrayList<>(orderers));
+        for (Orderer orderer : this.orderers) {
+            String prefix = MetricRegistry.name("daml.fabric.orderer", orderer.getName());
+            OrdererStats s = new OrdererStats(
+                    metrics.timer(MetricRegistry.name(prefix, "broadcast")),
+                    metrics.meter(MetricRegistry.name(prefix, "failures")));
+            stats.put(orderer, s);
+            metrics.register(MetricRegistry.name(prefix, "healthy"), (Gauge<Boolean>) () -> isUp(orderer));
+        }
+        this.strategy = Strategy.fromConfig(config.strategy);
+        this.downTime = config.downTime;
+        this.current = this.orderers.get(0);
+    }
+
+    public Strategy getStrategy() {
+        return strategy;
+    }
+
+    /**
+     * Orders the orderers to try a broadcast with: the healthy ones by strategy, then the ones marked down,
+     * those that come up again soonest first.
+     */
+    public synchronized List<Orderer> rank() {
+        long now = System.currentTimeMillis();
+        int offset = Math.floorMod(next.getAndIncrement(), orderers.size());
+
+        List<Orderer> up = new ArrayList<>(orderers.size());
+        List<Orderer> down = new ArrayList<>();
+        for (int i = 0; i < orderers.size(); i++) {
+            Orderer orderer = orderers.get((offset + i) % orderers.size());
+            (stats.get(orderer).isUp(now) ? up : down).add(orderer);
+        }
+
+        switch (strategy) {
+            case FASTEST:
+                // orderers without samples score 0, so each one gets probed early
+                up.sort(Comparator.comparingDouble(o -> Math.max(stats.get(o).ewmaMillis, 0)));
+                break;
+            case STICKY:
+                if (up.remove(current))
+                    up.add(0, current);
+                break;
+            case ROUND_ROBIN:
+            default:
+                break;
+        }
+        down.sort(Comparator.comparingLong(o -> stats.get(o).downUntil));
+
+        up.addAll(down);
+        return up;
+    }
+
+    /**
+     * Must be called when a broadcast to the orderer has returned.
+     *
+     * @param elapsedNanos time the broadcast took
+     * @param success whether the orderer accepted the transaction
+     */
+    public synchronized void finished(Orderer orderer, long elapsedNanos, boolean success) {
+        OrdererStats s = stats.get(orderer);
+        if (s == null) return;
+
+        if (success) {
+            s.broadcasts.update(elapsedNanos, TimeUnit.NANOSECONDS);
+            double millis = elapsedNanos / 1e6;
+            s.ewmaMillis = (s.ewmaMillis < 0) ? millis : EWMA_ALPHA * millis + (1 - EWMA_ALPHA) * s.ewmaMillis;
+            s.consecutiveFailures = 0;
+            s.downUntil = 0;
+            current = orderer;
+        } else {
+            s.failures.mark();
+            s.consecutiveFailures++;
+            long down = Math.min(MAX_DOWN_MILLIS, downTime << Math.min(s.consecutiveFailures - 1, 16));
+            s.downUntil = System.currentTimeMillis() + down;
+        }
+    }
+
+    public synchronized boolean isUp(Orderer orderer) {
+        OrdererStats s = stats.get(orderer);
+        return s != null && s.isUp(System.currentTimeMillis());
+    }
+
+}
@@ -0,0 +1,259 @@
+// Copyright (c) 2020 Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+
+
+package com.daml.Fabric;
+
+import org.hyperledger.fabric.sdk.Peer;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Chooses the peer a chaincode query is sent to.
+ *
+ * Strategies:
+ *   - round-robin: every peer in turn
+ *   - least-outstanding: the peer with the fewest queries in flight
+ *   - latency-ewma: the peer with the lowest smoothed latency, weighted by its queries in flight
+ *
+ * It also keeps a window of recent query latencies, which FabricContext uses to decide
+ * when a slow query gets a hedged duplicate on a second peer.
+ */
+public final class FabricPeerSelector {
+
+    public enum Strategy {
+        ROUND_ROBIN("round-robin"),
+        LEAST_OUTSTANDING("least-outstanding"),
+        LATENCY_EWMA("latency-ewma");
+
+        private final String configName;
+
+        Strategy(String configName) {
+            this.configName = configName;
+        }
+
+        public static Strategy fromConfig(String name) {
+            if (name == null || name.isEmpty())
+                return ROUND_ROBIN;
+            for (Strategy s : values()) {
+                if (s.configName.equalsIgnoreCase(name))
+                    return s;
+            }
+            throw new FabricContextException(String.format("Invalid peer selection strategy '%s'", name));
+        }
+    }
+
+    /**
+     * How a query sent to a peer ended
+     */
+    public enum Outcome {
+        // the peer answered
+        SUCCESS,
+        // the peer answered with a chaincode error: it is up, the query is what failed
+        REJECTED,
+        // no answer: timeout, lost connection or any other transport failure
+        UNREACHABLE
+    }
+
+    // weight of the newest sample in the latency average
+    private static final double EWMA_ALPHA = 0.2;
+    // number of latencies the hedging deadline is computed from
+    private static final int LATENCY_WINDOW = 1024;
+    // below this many samples the deadline is just the configured minimum
+    private static final int MIN_SAMPLES = 20;
+
+    private static final class PeerStats {
+        final AtomicInteger outstanding = new AtomicInteger();
+        // smoothed latency in milliseconds, negative until the first sample
+        double ewmaMillis = -1;
+
+        synchronized void record(double millis) {
+            ewmaMillis = (ewmaMillis < 0) ? millis : EWMA_ALPHA * millis + (1 - EWMA_ALPHA) * ewmaMillis;
+        }
+
+        synchronized double ewma() {
+            return ewmaMillis;
+        }
+    }
+
+    private final List<Peer> peers;
+    private final Map<Peer, PeerStats> stats = new IdentityHashMap<>();
+    private final Strategy strategy;
+    private final boolean hedge;
+    private final double hedgePercentile;
+    private final long hedgeMinDelay;
+    private final long failurePenalty;
+    private final AtomicInteger next = new AtomicInteger();
+
+    private final long[] latencies = new long[LATENCY_WINDOW];
+    private int latencyCount = 0;
+    private int latencyPos = 0;
+
+    /**
+     * @param peers the channel peers to spread queries over
+     * @param config peer selection settings, null for the defaults
+     * @param failurePenalty latency (ms) charged to a peer for a query it did not answer
+     */
+    public FabricPeerSelector(Collection<Peer> peers, FabricContextConfigYaml.PeerSelectionConfig config, long failurePenalty) {
+        if (peers.isEmpty())
+            throw new FabricContextException("No peers to send queries to");
+        if (config == null)
+            config = new FabricContextConfigYaml.PeerSelectionConfig();
+
+        this.peers = Collections.unmodifiableList(new ArrayList<>(peers));
+        for (Peer peer : this.peers) {
+            stats.put(peer, new PeerStats());
+        }
+        this.strategy = Strategy.fromConfig(config.strategy);
+        this.hedge = config.hedge;
+        this.hedgePercentile = config.hedgePercentile;
+        this.hedgeMinDelay = config.hedgeMinDelay;
+        this.failurePenalty = failurePenalty;
+    }
+
+    public Strategy getStrategy() {
+        return strategy;
+    }
+
+    /**
+     * @return whether slow queries should be duplicated to a second peer
+     */
+    public boolean isHedging() {
+        return hedge && peers.size() > 1;
+    }
+
+    /**
+     * Picks a peer according to the strategy.
+     *
+     * @param exclude peer that must not be picked (the first peer of a hedged query), or null
+     * @return the chosen peer; exclude itself only if it is the only peer
+     */
+    public Peer select(Peer exclude) {
+        List<Peer> candidates = peers;
+        if (exclude != null && peers.size() > 1) {
+            candidates = new ArrayList<>(peers);
+            candidates.remove(exclude);
+        }
+
+        switch (strategy) {
+            case LEAST_OUTSTANDING:
+                return selectBy(candidates, p -> stats.get(p).outstanding.get());
+            case LATENCY_EWMA:
+                // peers without samples score 0, so each one gets probed early
+                return selectBy(candidates, p -> {
+                    PeerStats s = stats.get(p);
+                    return Math.max(s.ewma(), 0) * (s.outstanding.get() + 1);
+                });
+            case ROUND_ROBIN:
+            default:
+                return candidates.get(Math.floorMod(next.getAndIncrement(), candidates.size()));
+        }
+    }
+
+    /**
+     * Orders all the peers by preference according to the strategy, the peer select would pick first.
+     * Used to choose endorsers when not every peer is asked.
+     */
+    public List<Peer> rank() {
+        int offset = Math.floorMod(next.getAndIncrement(), peers.size());
+        List<Peer> ranked = new ArrayList<>(peers.size());
+        for (int i = 0; i < peers.size(); i++) {
+            ranked.add(peers.get((offset + i) % peers.size()));
+        }
+
+        switch (strategy) {
+            case LEAST_OUTSTANDING:
+                ranked.sort(Comparator.comparingInt(p -> stats.get(p).outstanding.get()));
+                break;
+            case LATENCY_EWMA:
+                ranked.sort(Comparator.comparingDouble(p -> {
+                    PeerStats s = stats.get(p);
+                    return Math.max(s.ewma(), 0) * (s.outstanding.get() + 1);
+                }));
+                break;
+            case ROUND_ROBIN:
+            default:
+                break;
+        }
+        return ranked;
+    }
+
+    @FunctionalInterface
+    private interface Score {
+        double of(Peer peer);
+    }
+
+    // lowest score wins; ties rotate so equal peers share the load
+    private Peer selectBy(List<Peer> candidates, Score score) {
+        int offset = Math.floorMod(next.getAndIncrement(), candidates.size());
+        Peer best = null;
+        double bestScore = Double.MAX_VALUE;
+        for (int i = 0; i < candidates.size(); i++) {
+            Peer peer = candidates.get((offset + i) % candidates.size());
+            double s = score.of(peer);
+            if (best == null || s < bestScore) {
+                best = peer;
+                bestScore = s;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Must be called when a query is sent to the peer.
+     */
+    public void started(Peer peer) {
+        stats.get(peer).outstanding.incrementAndGet();
+    }
+
+    /**
+     * Must be called when the query sent to the peer has returned.
+     * Only a peer that did not answer is charged the failure penalty; a chaincode error
+     * is charged the time it took, like an answer.
+     *
+     * @param elapsedNanos time the query took
+     * @param outcome how the query ended
+     */
+    public void finished(Peer peer, long elapsedNanos, Outcome outcome) {
+        PeerStats s = stats.get(peer);
+        s.outstanding.decrementAndGet();
+
+        double millis = elapsedNanos / 1e6;
+        switch (outcome) {
+            case SUCCESS:
+                s.record(millis);
+                synchronized (latencies) {
+                    latencies[latencyPos] = elapsedNanos;
+                    latencyPos = (latencyPos + 1) % LATENCY_WINDOW;
+                    latencyCount = Math.min(latencyCount + 1, LATENCY_WINDOW);
+                }
+                break;
+            case REJECTED:
+                s.record(millis);
+                break;
+            case UNREACHABLE:
+            default:
+                s.record(Math.max(millis, failurePenalty));
+                break;
+        }
+    }
+
+    /**
+     * @return how long (ms) to wait for the first peer before sending a hedged query
+     */
+    public long hedgeDelayMillis() {
+        long[] window;
+        synchronized (latencies) {
+            if (latencyCount < MIN_SAMPLES)
+                return hedgeMinDelay;
+            window = Arrays.copyOf(latencies, latencyCount);
+        }
+        Arrays.sort(window);
+        int idx = (int) Math.min(window.length - 1, Math.ceil(hedgePercentile * window.length) - 1);
+        long percentileMillis = window[Math.max(idx, 0)] / 1000000L;
+        return Math.max(percentileMillis, hedgeMinDelay);
+    }
+
+}
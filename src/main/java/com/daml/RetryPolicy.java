@@ -0,0 +1,344 @@
+// Copyright (c) 2020 Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+
+
+package com.daml;
+
+import com.daml.Fabric.FabricContext;
+import com.daml.Fabric.FabricContextConfigYaml;
+import com.daml.Fabric.FabricContextException;
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import org.hyperledger.fabric.protos.peer.TransactionPackage.TxValidationCode;
+import org.hyperledger.fabric.sdk.exception.TransactionEventException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Decides whether, and when, a failed chaincode invoke is sent again.
+ *
+ * Only invokes the committing peer marked invalid with one of the retryable validation codes
+ * (by default the read conflicts MVCC_READ_CONFLICT and PHANTOM_READ_CONFLICT) are retried: the
+ * code is read from the transaction event the SDK fails the invoke with.
+ *
+ * - back-off: exponential, capped, and partly randomized so conflicting writers do not retry in lockstep
+ * - budget: retries draw from a token bucket filled by the invokes themselves, so under a conflict
+ *   storm retries stay a fraction of the load instead of multiplying it
+ * - circuit breaker: after a run of failed invokes of a chaincode function, invokes of that function
+ *   fail fast for a while, then a single one is let through to find out whether the network recovered
+ *
+ * Only failures that say something about the network count towards the breaker: retryable conflicts
+ * and calls that got no answer. Chaincode errors and deterministically invalid transactions do not.
+ *
+ * Retries are metered per chaincode function as daml.fabric.retries.(function).
+ */
+public final class RetryPolicy {
+
+    private static final Logger logger = LoggerFactory.getLogger(RetryPolicy.class);
+
+    /**
+     * Thrown instead of invoking while the circuit breaker is open
+     */
+    public static final class CircuitOpenException extends FabricContextException {
+
+        CircuitOpenException(String fcn) {
+            super(String.format("Not invoking %s: too many of its invokes failed in a row", fcn));
+        }
+    }
+
+    // the SDK's message for an invalid transaction, ending with its validation code
+    private static final Pattern STATUS_PATTERN = Pattern.compile("Received invalid transaction event\\. Transaction ID \\S+ status (\\d+)");
+    // tokens the retry budget can save up
+    private static final double BUDGET_CAPACITY = 100;
+
+    private final int maxAttempts;
+    private final long initialBackoff;
+    private final long maxBackoff;
+    private final double multiplier;
+    private final double jitter;
+    private final double budgetRatio;
+    private final double budgetMinPerSecond;
+    private final int breakerFailures;
+    private final long breakerOpenTime;
+    private final Set<Integer> retryableCodes = new HashSet<>();
+
+    private final ScheduledExecutorService scheduler;
+    private final MetricRegistry metrics;
+    private final Counter budgetExhausted;
+    private final Counter breakerRejected;
+
+    // retry budget
+    private double budget = BUDGET_CAPACITY;
+    private long budgetRefilledAt = System.nanoTime();
+
+    // circuit breaker of each chaincode function
+    private final ConcurrentHashMap<String, Breaker> breakers = new ConcurrentHashMap<>();
+
+    private static final class Breaker {
+        int consecutiveFailures = 0;
+        long openUntil = 0;
+        boolean probing = false;
+    }
+
+    /**
+     * @param config retry settings, null for the defaults
+     * @param scheduler runs the back-off of async invokes
+     */
+    public RetryPolicy(FabricContextConfigYaml.RetryConfig config, ScheduledExecutorService scheduler, MetricRegistry metrics) {
+        if (config == null)
+            config = new FabricContextConfigYaml.RetryConfig();
+
+        this.maxAttempts = Math.max(1, config.maxAttempts);
+        this.initialBackoff = Math.max(0, config.initialBackoff);
+        this.maxBackoff = Math.max(this.initialBackoff, config.maxBackoff);
+        this.multiplier = Math.max(1.0, config.multiplier);
+        this.jitter = Math.min(1.0, Math.max(0.0, config.jitter));
+        this.budgetRatio = Math.max(0.0, config.budgetRatio);
+        this.budgetMinPerSecond = Math.max(0.0, config.budgetMinPerSecond);
+        this.breakerFailures = config.breakerFailures;
+        this.breakerOpenTime = config.breakerOpenTime;
+        if (config.retryableCodes != null) {
+            for (String name : config.retryableCodes) {
+                try {
+                    retryableCodes.add(TxValidationCode.valueOf(name.trim().toUpperCase()).getNumber());
+                } catch (IllegalArgumentException e) {
+                    throw new FabricContextException(String.format("Invalid transaction validation code '%s'", name));
+                }
+            }
+        }
+
+        this.scheduler = scheduler;
+        this.metrics = metrics;
+        this.budgetExhausted = metrics.counter("daml.fabric.retry.budget_exhausted");
+        this.breakerRejected = metrics.counter("daml.fabric.retry.breaker_rejected");
+        metrics.register("daml.fabric.retry.breakers_open", (Gauge<Long>) this::openBreakers);
+    }
+
+    /**
+     * Runs a blocking invoke, sleeping between attempts
+     */
+    public <T> T call(String fcn, Supplier<T> invoke) {
+        admit(fcn);
+        for (int attempt = 0; ; attempt++) {
+            try {
+                T result = invoke.get();
+                recordSuccess(fcn);
+                return result;
+            } catch (RuntimeException e) {
+                long delay = nextDelay(fcn, attempt, e);
+                if (delay < 0) {
+                    recordFailure(fcn, e);
+                    logger.warn("Fabric transaction {} failed", fcn, e);
+                    throw e;
+                }
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException ie) {
+                    recordFailure(fcn, e);
+                    throw new RuntimeException(ie);
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs a non-blocking invoke, scheduling the back-off instead of sleeping
+     */
+    public <T> CompletableFuture<T> callAsync(String fcn, Supplier<CompletableFuture<T>> invoke) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        try {
+            admit(fcn);
+        } catch (CircuitOpenException e) {
+            result.completeExceptionally(e);
+            return result;
+        }
+        callAsync(fcn, invoke, 0, result);
+        return result;
+    }
+
+    private <T> void callAsync(String fcn, Supplier<CompletableFuture<T>> invoke, int attempt, CompletableFuture<T> result) {
+        CompletableFuture<T> call;
+        try {
+            call = invoke.get();
+        } catch (RuntimeException e) {
+            call = new CompletableFuture<>();
+            call.completeExceptionally(e);
+        }
+
+        call.whenComplete((value, t) -> {
+            if (t == null) {
+                recordSuccess(fcn);
+                result.complete(value);
+                return;
+            }
+
+            Throwable cause = t;
+            while (cause instanceof CompletionException && cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+
+            long delay = nextDelay(fcn, attempt, cause);
+            if (delay >= 0) {
+                scheduler.schedule(() -> callAsync(fcn, invoke, attempt + 1, result), delay, TimeUnit.MILLISECONDS);
+                return;
+            }
+
+            recordFailure(fcn, cause);
+            logger.warn("Fabric transaction {} failed", fcn, cause);
+            result.completeExceptionally(cause);
+        });
+    }
+
+    /**
+     * Validation code of the invalid transaction that failed the invoke, or -1 if it did not fail at validation
+     */
+    public static int validationCode(Throwable t) {
+        for (Throwable c = t; c != null; c = c.getCause()) {
+            if (c instanceof TransactionEventException && ((TransactionEventException) c).getTransactionEvent() != null)
+                return ((TransactionEventException) c).getTransactionEvent().getValidationCode();
+        }
+        // the event is lost when the exception was rethrown as text somewhere along the way;
+        //   other messages with a status in them (e.g. of chaincode errors) are not validation codes
+        for (Throwable c = t; c != null; c = c.getCause()) {
+            if (c.getMessage() == null) continue;
+            Matcher m = STATUS_PATTERN.matcher(c.getMessage());
+            if (m.find())
+                return Integer.parseInt(m.group(1));
+        }
+        return -1;
+    }
+
+    public boolean isRetryable(Throwable t) {
+        if (t instanceof ExecutionException && t.getCause() != null)
+            t = t.getCause();
+        return retryableCodes.contains(validationCode(t));
+    }
+
+    /**
+     * Whether the failure says anything about the health of the network: a retryable conflict, or a
+     * failure to get an answer at all (timeout, connection). A chaincode error or a transaction the
+     * peers deterministically marked invalid is not one, and does not count towards the breaker.
+     */
+    public boolean countsTowardsBreaker(Throwable t) {
+        if (t instanceof ExecutionException && t.getCause() != null)
+            t = t.getCause();
+        if (isRetryable(t))
+            return true;
+        for (Throwable c = t; c != null; c = c.getCause()) {
+            if (c instanceof FabricContext.ChaincodeRejectedException || c instanceof CircuitOpenException)
+                return false;
+        }
+        return validationCode(t) < 0;
+    }
+
+    // milliseconds to wait before the next attempt, or -1 if the failure is final
+    private long nextDelay(String fcn, int attempt, Throwable t) {
+        if (attempt + 1 >= maxAttempts || !isRetryable(t))
+            return -1;
+        if (!withdrawBudget()) {
+            budgetExhausted.inc();
+            logger.warn("Not retrying Fabric transaction {}, retry budget exhausted", fcn);
+            return -1;
+        }
+
+        double backoff = Math.min(maxBackoff, initialBackoff * Math.pow(multiplier, attempt));
+        long delay = (long) (backoff * (1.0 - jitter * ThreadLocalRandom.current().nextDouble()));
+        retries(fcn).mark();
+        if (logger.isDebugEnabled())
+            logger.debug("Retrying Fabric transaction {} ({}) in {}ms", fcn, describe(validationCode(t)), delay);
+        return delay;
+    }
+
+    private Meter retries(String fcn) {
+        return metrics.meter(MetricRegistry.name("daml.fabric.retries", fcn));
+    }
+
+    private static String describe(int code) {
+        TxValidationCode c = TxValidationCode.forNumber(code);
+        return (c != null) ? c.name() : ("status " + code);
+    }
+
+    // every invoke pays budgetRatio into the budget, every retry takes one out
+    private synchronized boolean withdrawBudget() {
+        refillBudget();
+        if (budget < 1.0)
+            return false;
+        budget -= 1.0;
+        return true;
+    }
+
+    private synchronized void refillBudget() {
+        long now = System.nanoTime();
+        budget = Math.min(BUDGET_CAPACITY, budget + budgetMinPerSecond * (now - budgetRefilledAt) / 1e9);
+        budgetRefilledAt = now;
+    }
+
+    private synchronized void admit(String fcn) {
+        refillBudget();
+        budget = Math.min(BUDGET_CAPACITY, budget + budgetRatio);
+
+        if (breakerFailures <= 0)
+            return;
+        Breaker b = breakers.computeIfAbsent(fcn, k -> new Breaker());
+        if (b.consecutiveFailures < breakerFailures)
+            return;
+        // open: fail fast until openUntil, then half-open: one probe at a time
+        if (System.currentTimeMillis() < b.openUntil || b.probing) {
+            breakerRejected.inc();
+            throw new CircuitOpenException(fcn);
+        }
+        b.probing = true;
+    }
+
+    private synchronized void recordSuccess(String fcn) {
+        Breaker b = breakers.get(fcn);
+        if (b != null) {
+            b.consecutiveFailures = 0;
+            b.probing = false;
+        }
+    }
+
+    // a failure that does not count still ends the probe of a half-open breaker, whose state it leaves as it is
+    private synchronized void recordFailure(String fcn, Throwable t) {
+        if (breakerFailures <= 0)
+            return;
+        if (!countsTowardsBreaker(t)) {
+            Breaker b = breakers.get(fcn);
+            if (b != null)
+                b.probing = false;
+            return;
+        }
+        Breaker b = breakers.computeIfAbsent(fcn, k -> new Breaker());
+        b.consecutiveFailures++;
+        b.probing = false;
+        if (b.consecutiveFailures >= breakerFailures) {
+            if (b.consecutiveFailures == breakerFailures)
+                logger.error("{} {} invokes failed in a row, failing them for {}ms", b.consecutiveFailures, fcn, breakerOpenTime);
+            b.openUntil = System.currentTimeMillis() + breakerOpenTime;
+        }
+    }
+
+    private synchronized long openBreakers() {
+        long now = System.currentTimeMillis();
+        return breakers.values().stream()
+                .filter(b -> b.consecutiveFailures >= breakerFailures && now < b.openUntil)
+                .count();
+    }
+
+}
@@ -0,0 +1,94 @@
+// Copyright (c) 2020 Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package com.daml;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * DAML state values by their chaincode key, bounded by total key + value size.
+ *
+ * The keys have generations, hashed into stripes: a block writing a key moves its stripe on, whether the key
+ *   is cached or not. A value read or written before the block may be older than the block's, so it is only
+ *   cached if the generation taken before the read or the write is still current.
+ */
+final class StateCache {
+
+    // cached marker for a state key that has no value on the ledger
+    static final byte[] ABSENT = new byte[0];
+
+    private static final int GENERATION_STRIPES = 1024;
+
+    private final Cache<String, byte[]> cache;
+    private final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
+
+    StateCache(long maxBytes) {
+        cache = Caffeine.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((String k, byte[] v) -> k.length() + v.length)
+                .recordStats()
+                .build();
+    }
+
+    byte[] getIfPresent(String key) {
+        return cache.getIfPresent(key);
+    }
+
+    // the cached value, or the value load reads from the ledger (ABSENT for none)
+    byte[] get(String key, Function<String, byte[]> load) {
+        return cache.get(key, load);
+    }
+
+    long generation(String key) {
+        return generations.get(stripe(key));
+    }
+
+    // caches a value read from the ledger, taken while the key was at the given generation.
+    //   A value cached meanwhile (by a block or one of our writes) is kept.
+    void cacheRead(String key, long generation, byte[] value) {
+        cache.asMap().compute(key, (k, old) -> {
+            if (old != null || generation(k) != generation)
+                return old;
+            return value == null ? ABSENT : value;
+        });
+    }
+
+    // caches a value we wrote, the key was at the given generation before the write was sent.
+    //   If a block wrote the key since, it may be a later block than ours: what it left in the cache is kept.
+    void cacheWrite(String key, long generation, byte[] value) {
+        cache.asMap().compute(key, (k, old) -> generation(k) != generation ? old : value);
+    }
+
+    // a block wrote the key: its stripe moves on before the cache is touched, and a cached value is replaced
+    //   with the one value gives, or dropped if that is null
+    void blockWrite(String key, Supplier<byte[]> value) {
+        generations.incrementAndGet(stripe(key));
+        cache.asMap().computeIfPresent(key, (k, old) -> value.get());
+    }
+
+    // drops every value, reads and writes in progress are not cached either
+    void invalidateAll() {
+        for (int i = 0; i < GENERATION_STRIPES; i++) {
+            generations.incrementAndGet(i);
+        }
+        cache.invalidateAll();
+    }
+
+    CacheStats stats() {
+        return cache.stats();
+    }
+
+    long estimatedSize() {
+        return cache.estimatedSize();
+    }
+
+    private static int stripe(String key) {
+        return (key.hashCode() & 0x7FFFFFFF) % GENERATION_STRIPES;
+    }
+}
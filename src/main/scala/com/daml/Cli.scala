@@ -4,6 +4,7 @@
 package com.daml
 
 import java.io.File
+import java.util.concurrent.TimeUnit
 
 import com.auth0.jwt.algorithms.Algorithm
 import com.daml.jwt.{ECDSAVerifier, HMAC256Verifier, JwksVerifier, RSA256Verifier}
@@ -16,6 +17,8 @@ import com.daml.platform.configuration.IndexConfiguration
 import com.daml.ports.Port
 import scopt.{OptionParser, Read}
 
+import scala.concurrent.duration.{Duration, FiniteDuration}
+
 object Cli {
 
   implicit private val ledgerStringRead: Read[Ref.LedgerString] =
@@ -234,6 +237,88 @@ object Cli {
             )
         )
 
+      opt[Int]("commit-pipeline-depth")
+        .optional()
+        .validate(v => Either.cond(v > 0, (), "Commit pipeline depth must be positive"))
+        .text(
+          s"Maximum number of validated batches that wait to be written to Fabric. They are written one after another, in the order they were validated. Default is ${Config.DefaultCommitPipelineDepth}."
+        )
+        .action((depth, config) => config.copy(commitPipelineDepth = depth))
+
+      opt[Int]("commit-batch-size")
+        .optional()
+        .validate(v => Either.cond(v > 0, (), "Commit batch size must be positive"))
+        .text(
+          s"Maximum number of submissions written to Fabric in a single transaction. Default is ${Config.DefaultCommitBatchSize}."
+        )
+        .action((size, config) => config.copy(commitBatchSize = size))
+
+      opt[Duration]("commit-batch-window")
+        .optional()
+        .validate(v => Either.cond(v.isFinite && v >= Duration.Zero, (), "Invalid batch window"))
+        .text(
+          "Time to wait for more submissions before writing a batch that is not full, e.g. 20ms. By default, batches are written as soon as the commit pipeline has room for them."
+        )
+        .action(
+          (window, config) =>
+            config.copy(commitBatchWindow = FiniteDuration(window.toNanos, TimeUnit.NANOSECONDS))
+        )
+
+      opt[Long]("commit-batch-bytes")
+        .optional()
+        .validate(v => Either.cond(v > 0, (), "Commit batch byte budget must be positive"))
+        .text(
+          s"Byte budget of the submissions written to Fabric in a single transaction. Default is ${Config.DefaultCommitBatchBytes}."
+        )
+        .action((bytes, config) => config.copy(commitBatchBytes = bytes))
+
+      opt[Int]("commit-read-page-size")
+        .optional()
+        .validate(v => Either.cond(v > 0, (), "Commit read page size must be positive"))
+        .text(
+          s"Number of commits read back from Fabric in a single query when streaming updates. Default is ${Config.DefaultCommitReadPageSize}."
+        )
+        .action((size, config) => config.copy(commitReadPageSize = size))
+
+      opt[Int]("commit-read-prefetch")
+        .optional()
+        .validate(v => Either.cond(v > 0, (), "Commit read prefetch must be positive"))
+        .text(
+          s"Number of pages of commits read ahead of the update stream. Default is ${Config.DefaultCommitReadPrefetch}."
+        )
+        .action((pages, config) => config.copy(commitReadPrefetch = pages))
+
+      opt[Int]("commit-event-buffer")
+        .optional()
+        .validate(v => Either.cond(v >= 0, (), "Commit event buffer must not be negative"))
+        .text(
+          s"Number of recent commits kept from the commit log events to serve updates without querying Fabric. Default is ${Config.DefaultCommitEventBuffer}."
+        )
+        .action((commits, config) => config.copy(commitEventBuffer = commits))
+
+      opt[Unit]("audit-commits")
+        .optional()
+        .text(
+          "Read every committed log entry back from Fabric and EOS and check the commit height against the acknowledgement. Costs three queries per submission."
+        )
+        .action((_, config) => config.copy(auditCommits = true))
+
+      opt[Long]("fabric-state-cache-bytes")
+        .optional()
+        .validate(v => Either.cond(v >= 0, (), "Fabric state cache size must not be negative"))
+        .text(
+          s"Maximum size of the DAML state values the Fabric connector keeps in memory. Default is ${Config.DefaultFabricStateCacheBytes}."
+        )
+        .action((bytes, config) => config.copy(fabricStateCacheBytes = bytes))
+
+      opt[Long]("package-cache-bytes")
+        .optional()
+        .validate(v => Either.cond(v >= 0, (), "Package cache size must not be negative"))
+        .text(
+          s"Maximum size of the decoded DAML-LF archives kept in memory for validating submissions. Default is ${Config.DefaultPackageCacheBytes}."
+        )
+        .action((bytes, config) => config.copy(packageCacheBytes = bytes))
+
       private val seedingTypeMap = Map[String, Seeding](
         "testing-static" -> Seeding.Static,
         "testing-weak" -> Seeding.Weak,
@@ -0,0 +1,111 @@
+// Copyright (c) 2020 Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package com.daml
+
+import java.io.ObjectInputStream
+import java.nio.ByteOrder
+
+import com.daml.ledger.participant.state.kvutils.DamlKvutils.DamlLogEntryId
+import com.daml.lf.data.Time.Timestamp
+import com.google.protobuf.{ByteString, UnsafeByteOperations}
+
+/** A commit of the Fabric commit log.
+  *
+  * @param entryId    id of the log entry the submission produced
+  * @param envelope   the submission envelope, empty if the commit only references the log entry
+  * @param recordTime record time the submission was validated at, unknown for old commits
+  */
+final case class CommitRecord(
+    entryId: DamlLogEntryId,
+    envelope: ByteString,
+    recordTime: Option[Timestamp]
+) {
+
+  def toByteArray: Array[Byte] = CommitRecord.encode(this)
+}
+
+/** Binary format of the commits (little endian):
+  *
+  *   version 1: [0x01][record time, int64 micros, Long.MinValue if unknown][entry id length, uint32][entry id][envelope]
+  *   version 2: [0x02][record time][entry id length][entry id]
+  *
+  * Version 2 is written whenever there is no envelope: readers resolve the log entry by its
+  * id, so the envelope does not need to be stored a second time next to the log entry.
+  *
+  * Commits written before the format was versioned are `CommitSubmission`s in Java
+  * serialization, recognizable by the 0xACED stream magic. They are still read.
+  */
+object CommitRecord {
+
+  val Version1: Byte = 0x01
+  val Version2: Byte = 0x02
+
+  private val HeaderSize = 1 + 8 + 4
+  private val NoRecordTime = Long.MinValue
+
+  // first two bytes of a Java serialization stream
+  private val JavaSerializationMagic = (0xAC.toByte, 0xED.toByte)
+
+  def encode(record: CommitRecord): Array[Byte] = {
+    val entryId = record.entryId.toByteString
+    val out = java.nio.ByteBuffer
+      .allocate(HeaderSize + entryId.size + record.envelope.size)
+      .order(ByteOrder.LITTLE_ENDIAN)
+    out.put(if (record.envelope.isEmpty) Version2 else Version1)
+    out.putLong(record.recordTime.fold(NoRecordTime)(_.micros))
+    out.putInt(entryId.size)
+    entryId.copyTo(out)
+    record.envelope.copyTo(out)
+    out.array
+  }
+
+  /** A commit that only references the log entry. */
+  def reference(entryId: DamlLogEntryId, recordTime: Timestamp): CommitRecord =
+    CommitRecord(entryId, ByteString.EMPTY, Some(recordTime))
+
+  def decode(bytes: Array[Byte]): CommitRecord =
+    decode(UnsafeByteOperations.unsafeWrap(bytes))
+
+  /** Reads a commit without copying: the entry id is parsed from, and the envelope is,
+    * a view of `bytes`.
+    */
+  def decode(bytes: ByteString): CommitRecord =
+    if (bytes.isEmpty)
+      sys.error("Empty commit record")
+    else if (bytes.byteAt(0) == Version1 || bytes.byteAt(0) == Version2)
+      decodeVersion1or2(bytes)
+    else if (bytes.size > 1 && (bytes.byteAt(0), bytes.byteAt(1)) == JavaSerializationMagic)
+      decodeJavaSerialized(bytes)
+    else
+      sys.error(f"Unknown commit record version 0x${bytes.byteAt(0)}%02x")
+
+  // version 2 is version 1 with nothing after the entry id
+  private def decodeVersion1or2(bytes: ByteString): CommitRecord = {
+    if (bytes.size < HeaderSize)
+      sys.error(s"Commit record of ${bytes.size} bytes is too short")
+    val view = bytes.asReadOnlyByteBuffer().order(ByteOrder.LITTLE_ENDIAN)
+    view.get()
+    val micros = view.getLong()
+    val entryIdSize = view.getInt()
+    if (entryIdSize < 0 || HeaderSize + entryIdSize > bytes.size)
+      sys.error(s"Commit record entry id of $entryIdSize bytes does not fit in ${bytes.size} bytes")
+    CommitRecord(
+      DamlLogEntryId.parseFrom(bytes.substring(HeaderSize, HeaderSize + entryIdSize)),
+      bytes.substring(HeaderSize + entryIdSize),
+      if (micros == NoRecordTime) None else Some(Timestamp.assertFromLong(micros))
+    )
+  }
+
+  private def decodeJavaSerialized(bytes: ByteString): CommitRecord = {
+    val ois = new ObjectInputStream(bytes.newInput())
+    try {
+      ois.readObject match {
+        case FabricParticipantState.CommitSubmission(entryId, envelope) =>
+          CommitRecord(entryId, envelope, None)
+        case other =>
+          sys.error(s"Unexpected ${other.getClass.getName} in the commit log")
+      }
+    } finally ois.close()
+  }
+}
@@ -16,6 +16,8 @@ import com.daml.ports.Port
 import com.daml.ledger.api.auth.{AuthService, AuthServiceWildcard}
 import com.daml.platform.configuration.IndexConfiguration
 
+import scala.concurrent.duration.{Duration, FiniteDuration}
+
 final case class Config(
     port: Port,
     portFile: Option[File],
@@ -36,7 +38,17 @@ final case class Config(
     roleProvision: Boolean,
     roleExplorer: Boolean,
     authService: AuthService,
-    seeding: Seeding
+    seeding: Seeding,
+    commitPipelineDepth: Int,
+    commitBatchSize: Int,
+    commitBatchWindow: FiniteDuration,
+    commitBatchBytes: Long,
+    commitReadPageSize: Int,
+    commitReadPrefetch: Int,
+    commitEventBuffer: Int,
+    auditCommits: Boolean,
+    fabricStateCacheBytes: Long,
+    packageCacheBytes: Long
 ) {
   def withTlsConfig(modify: TlsConfiguration => TlsConfiguration): Config =
     copy(tlsConfig = Some(modify(tlsConfig.getOrElse(TlsConfiguration.Empty))))
@@ -44,6 +56,15 @@ final case class Config(
 
 object Config {
   val DefaultMaxInboundMessageSize = 4194304
+  val DefaultCommitPipelineDepth = 1
+  val DefaultCommitBatchSize = 1
+  val DefaultCommitBatchWindow: FiniteDuration = Duration.Zero
+  val DefaultCommitBatchBytes: Long = 1024L * 1024L
+  val DefaultCommitReadPageSize = 100
+  val DefaultCommitReadPrefetch = 2
+  val DefaultCommitEventBuffer = 1000
+  val DefaultFabricStateCacheBytes: Long = DAMLKVConnector.DEFAULT_STATE_CACHE_BYTES
+  val DefaultPackageCacheBytes: Long = 256L * 1024L * 1024L
 
   def default: Config =
     new Config(
@@ -66,6 +87,16 @@ object Config {
       roleProvision = false,
       roleExplorer = false,
       authService = AuthServiceWildcard,
-      seeding = Seeding.Weak
+      seeding = Seeding.Weak,
+      commitPipelineDepth = DefaultCommitPipelineDepth,
+      commitBatchSize = DefaultCommitBatchSize,
+      commitBatchWindow = DefaultCommitBatchWindow,
+      commitBatchBytes = DefaultCommitBatchBytes,
+      commitReadPageSize = DefaultCommitReadPageSize,
+      commitReadPrefetch = DefaultCommitReadPrefetch,
+      commitEventBuffer = DefaultCommitEventBuffer,
+      auditCommits = false,
+      fabricStateCacheBytes = DefaultFabricStateCacheBytes,
+      packageCacheBytes = DefaultPackageCacheBytes
     )
 }
@@ -10,6 +10,7 @@ import java.util.UUID
 import akka.actor.ActorSystem
 import akka.stream.Materializer
 import com.codahale.metrics.SharedMetricRegistries
+import com.codahale.metrics.jmx.JmxReporter
 import com.daml.daml_lf_dev.DamlLf.Archive
 import com.daml.ledger.participant.state.v1.{
   Configuration,
@@ -58,7 +59,12 @@ object DamlOnFabricServer extends App {
 
   // Initialize Fabric connection
   // this will create the singleton instance and establish the connection
-  val fabricConn = DAMLKVConnector.get(config.roleProvision, config.roleExplorer)
+  val fabricConn = DAMLKVConnector.get(
+    config.roleProvision,
+    config.roleExplorer,
+    metricsRegistry,
+    config.fabricStateCacheBytes
+  )
 
   // If we only want to provision, exit right after
   if (!config.roleLedger && !config.roleTime && !config.roleExplorer) {
@@ -84,6 +90,9 @@ object DamlOnFabricServer extends App {
           // This is necessary because we can't declare them as implicits in a `for` comprehension.
           _ <- AkkaResourceOwner.forActorSystem(() => actorSystem).acquire()
           _ <- AkkaResourceOwner.forMaterializer(() => materializer).acquire()
+          // exposes the registry, with the connector's chaincode call metrics (daml.fabric.*, daml.eos.*),
+          // over JMX until the server shuts down
+          _ <- ResourceOwner.forCloseable(() => startJmxReporter()).acquire()
 
           // initialize all configured participants
           _ <- {
@@ -102,7 +111,16 @@ object DamlOnFabricServer extends App {
                       config.roleLedger,
                       config.participantId,
                       metrics,
-                      sharedEngine
+                      sharedEngine,
+                      config.commitPipelineDepth,
+                      config.commitBatchSize,
+                      config.commitBatchWindow,
+                      config.commitBatchBytes,
+                      config.commitReadPageSize,
+                      config.commitReadPrefetch,
+                      config.commitEventBuffer,
+                      config.auditCommits,
+                      config.packageCacheBytes
                     )
                 )
                 .acquire() if config.roleLedger
@@ -163,6 +181,15 @@ object DamlOnFabricServer extends App {
     }
   }
 
+  private def startJmxReporter(): JmxReporter = {
+    val reporter = JmxReporter.forRegistry(metricsRegistry).inDomain("com.daml.fabric").build()
+    reporter.start()
+    reporter
+  }
+
+  /** Uploads the archives of the DAR that are not on the ledger yet, so a restart does not
+    * validate and write every package again.
+    */
   private def uploadDar(from: Path, to: WritePackagesService)(
       implicit executionContext: ExecutionContext
   ): Future[Unit] = {
@@ -171,8 +198,13 @@ object DamlOnFabricServer extends App {
       dar <- Future(
         DarReader { case (_, x) => Try(Archive.parseFrom(x)) }.readArchiveFromFile(from.toFile).get
       )
-      _ <- to.uploadPackages(submissionId, dar.all, None).toScala
-    } yield ()
+      archives = dar.all.filterNot(archive => fabricConn.hasPackage(archive.getHash))
+      _ <-
+        if (archives.isEmpty) Future.unit
+        else to.uploadPackages(submissionId, archives, None).toScala
+    } yield {
+      logger.info(s"Submitted ${archives.size} of ${dar.all.size} packages of $from for upload")
+    }
   }
   new ProgramResource(owner()).run()
 }
@@ -0,0 +1,90 @@
+// Copyright (c) 2020 Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package com.daml
+
+import com.daml.daml_lf_dev.DamlLf.Archive
+import com.daml.lf.archive.Decode
+import com.github.blemale.scaffeine.{AsyncLoadingCache, Cache, Scaffeine}
+import org.slf4j.LoggerFactory
+
+import scala.concurrent.{ExecutionContext, Future}
+import scala.util.control.NonFatal
+
+/** DAML-LF archives of the ledger, read from the package store of the chaincode
+  * (`DPackages:`) with `readPackage` the first time they are needed. `readPackage`
+  * completes with the serialized archive, or null if there is no such package.
+  *
+  * Archives are kept decoded in an LRU bounded by their serialized size. Loading an
+  * archive also starts loading its dependencies, so the dependency closure of a
+  * package is fetched in parallel rather than one archive per submission. The
+  * dependencies of a package are only known once its archive is decoded; they are
+  * kept apart from the archives, so an archive loaded again after it was evicted is
+  * not decoded again.
+  */
+final class FabricPackageStore(readPackage: String => Future[Array[Byte]], maxBytes: Long)(
+    implicit ec: ExecutionContext
+) {
+
+  import FabricPackageStore._
+
+  private val logger = LoggerFactory.getLogger(this.getClass)
+
+  // a load completing with null (no such package) is not cached
+  private val archives: AsyncLoadingCache[String, Archive] = Scaffeine()
+    .maximumWeight(maxBytes)
+    .weigher[String, Archive]((_, archive) => archive.getSerializedSize)
+    .buildAsyncFuture[String, Archive](load)
+
+  // direct dependencies by package, a few package ids each
+  private val dependencies: Cache[String, Set[String]] = Scaffeine()
+    .maximumSize(MaxDependencyEntries)
+    .build[String, Set[String]]()
+
+  /** Archives of the given packages, leaving out the ones that could not be found or read. */
+  def getArchives(packageIds: Iterable[String]): Future[Map[String, Archive]] =
+    Future
+      .traverse(packageIds.toSeq.distinct) { packageId =>
+        archives
+          .get(packageId)
+          .map(archive => Option(archive).map(packageId -> _))
+          .recover {
+            case NonFatal(e) =>
+              logger.warn(s"Cannot load package $packageId", e)
+              None
+          }
+      }
+      .map(_.flatten.toMap)
+
+  private def load(packageId: String): Future[Archive] =
+    readPackage(packageId).map { bytes =>
+      if (bytes == null) null
+      else {
+        val archive = Archive.parseFrom(bytes)
+        prefetchDependencies(packageId, archive)
+        archive
+      }
+    }
+
+  private def prefetchDependencies(packageId: String, archive: Archive): Unit =
+    dependencies.getIfPresent(packageId) match {
+      case Some(deps) =>
+        deps.foreach(dependency => archives.get(dependency))
+      case None =>
+        Future(Decode.decodeArchive(archive)._2.directDeps.map(dependency => dependency: String))
+          .map { deps =>
+            dependencies.put(packageId, deps)
+            deps.foreach(dependency => archives.get(dependency))
+          }
+          .failed
+          .foreach(e => logger.warn(s"Cannot read the dependencies of package $packageId", e))
+    }
+
+}
+
+object FabricPackageStore {
+
+  /** Packages whose dependencies are remembered, far more than a ledger has. */
+  private val MaxDependencyEntries = 100000L
+
+}
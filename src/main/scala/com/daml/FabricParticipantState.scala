@@ -3,15 +3,14 @@
 
 package com.daml
 
-import java.io.{BufferedOutputStream, ByteArrayInputStream, ByteArrayOutputStream, FileOutputStream, ObjectInputStream, ObjectOutputStream}
 import java.time.{Clock, Duration}
 import java.util.UUID
 import java.util.Base64
-import java.util.concurrent.{CompletableFuture, CompletionStage}
+import java.util.concurrent.{CompletableFuture, CompletionStage, ConcurrentSkipListMap}
 
 import akka.NotUsed
-import akka.actor.{Actor, ActorSystem, PoisonPill, Props}
-import akka.pattern.gracefulStop
+import akka.actor.{Actor, ActorSystem, PoisonPill, Props, Scheduler, Stash, Timers}
+import akka.pattern.{after, gracefulStop, pipe}
 import akka.stream.Materializer
 import akka.stream.scaladsl.Source
 import com.daml.daml_lf_dev.DamlLf.Archive
@@ -24,15 +23,18 @@ import com.daml.lf.data.Time.Timestamp
 import com.daml.lf.engine.Engine
 import com.daml.metrics.Metrics
 import com.daml.platform.akkastreams.dispatcher.Dispatcher
-import com.daml.platform.akkastreams.dispatcher.SubSource.OneAfterAnother
+import com.daml.platform.akkastreams.dispatcher.SubSource.RangeSource
 import com.github.blemale.scaffeine.{Cache, Scaffeine}
-import com.google.protobuf.ByteString
+import com.google.protobuf.{ByteString, UnsafeByteOperations}
 import org.slf4j.LoggerFactory
 
 import scala.collection.JavaConverters._
-import scala.collection.breakOut
+import scala.collection.mutable
 import scala.concurrent.duration._
-import scala.concurrent.{Await, ExecutionContext, Future}
+import scala.compat.java8.FutureConverters.CompletionStageOps
+import scala.concurrent.{Await, ExecutionContext, Future, blocking}
+import scala.util.control.NonFatal
+import scala.util.{Failure, Success, Try}
 
 object FabricParticipantState {
 
@@ -44,6 +46,427 @@ object FabricParticipantState {
       entryId: Proto.DamlLogEntryId,
       envelope: ByteString
   ) extends Commit
+
+  /** A submission that passed validation and waits to be written to Fabric as part of a batch. */
+  final private[daml] case class ValidatedCommit(
+      commit: CommitSubmission,
+      submission: Proto.DamlSubmission,
+      logEntry: Proto.DamlLogEntry,
+      stateUpdates: Map[Proto.DamlStateKey, Proto.DamlStateValue],
+      recordTime: Timestamp
+  ) {
+
+    /** The bytes the submission adds to its batch. */
+    val size: Long = stateUpdates.foldLeft(commit.envelope.size + logEntry.getSerializedSize.toLong) {
+      case (acc, (k, v)) => acc + k.getSerializedSize + v.getSerializedSize
+    }
+  }
+
+  /** The ledger the [[FabricParticipantState.CommitActor]] validates submissions against
+    * and writes its batches to.
+    */
+  private[daml] trait CommitLedger {
+
+    /** Whether a log entry has been committed under the identifier. */
+    def hasEntry(entryId: Proto.DamlLogEntryId): Boolean
+
+    /** Loads the archives of packages from the package store. */
+    def loadArchives(packageIds: Set[String]): Future[Map[String, Archive]]
+
+    /** Reads committed DAML state, `None` for the keys that have no value. */
+    def readState(keys: Vector[Proto.DamlStateKey]): Map[Proto.DamlStateKey, Option[Proto.DamlStateValue]]
+
+    /** Validates a submission against its input state. */
+    def validate(
+        commit: CommitSubmission,
+        submission: Proto.DamlSubmission,
+        inputState: Map[Proto.DamlStateKey, Option[Proto.DamlStateValue]]
+    ): ValidatedCommit
+
+    /** Writes a batch of validated submissions and returns the new commit height. */
+    def write(commits: Vector[ValidatedCommit]): Future[Int]
+
+    /** Called with the new commit height once a batch has been committed. */
+    def committed(height: Int): Unit
+  }
+
+  /** The batch validated submissions are added to until it is written to Fabric. */
+  final private case class OpenBatch(
+      seq: Long,
+      commits: Vector[ValidatedCommit],
+      bytes: Long,
+      dependencies: Set[Long],
+      windowElapsed: Boolean
+  )
+
+  final private case class InFlightBatch(commits: Vector[CommitSubmission], write: Future[Int])
+
+  /** Sent to the [[FabricParticipantState.CommitActor]] once a batch has been
+    * written to Fabric, carrying the new commit height.
+    */
+  final private case class CommitCompleted(seq: Long, result: Try[Int])
+
+  /** Sent to the [[FabricParticipantState.CommitActor]] when the batch window has elapsed. */
+  final private case class FlushBatch(seq: Long)
+
+  private case object FlushTimerKey
+
+  /** Sent to the [[FabricParticipantState.CommitActor]] once the packages a submission
+    * needs have been loaded from the package store.
+    */
+  final private case class PackagesLoaded(
+      commit: CommitSubmission,
+      submission: Proto.DamlSubmission,
+      archives: Map[String, Archive]
+  )
+
+  /** How many times a submission is written before it is given up on, when its batch fails. */
+  private val MaxCommitAttempts = 3
+
+  /** Time before a submission of a failed batch is validated again, times the attempts so far. */
+  private val ResubmitBackoff = 200.millis
+
+  /** Range reads in a row that return no commit before reading updates fails. */
+  private val MaxShortReads = 10
+
+  /** First back-off after a short range read, doubled for every read in a row without a commit. */
+  private val ShortReadBackoff = 50.millis
+
+  private val MaxShortReadBackoff = 2.seconds
+
+  /** A batch could not be committed because one of the batches it depends on failed. */
+  final private class DependencyFailedException(cause: Throwable)
+      extends RuntimeException(cause)
+
+  /** Akka actor that receives submissions sequentially and validates them one after another,
+    * e.g. producing a new ledger commit entry and the key-value updates to apply to the state.
+    *
+    * Validated submissions are collected into a batch that is written to the ledger as a single
+    * transaction once it holds `batchSize` submissions or `batchBytes` bytes, or once
+    * `batchWindow` has elapsed. At most `pipelineDepth` batches are in flight at once.
+    *
+    * Batches are written strictly in the order they were validated, one after another: a batch
+    * may archive what an earlier batch read, and every batch moves the commit log index, so
+    * writing them concurrently would commit them out of order or make them conflict. What the
+    * pipeline overlaps is the validation of the next batches with the write of the current one.
+    *
+    * Submissions are validated against an overlay of the state written by the batches that
+    * have not been committed yet. If a batch fails, the in-flight batches that read keys it
+    * wrote fail with it and their submissions are validated again against the committed state.
+    */
+  @SuppressWarnings(Array("org.wartremover.warts.Any"))
+  private[daml] class CommitActor(
+      ledger: CommitLedger,
+      pipelineDepth: Int,
+      batchSize: Int,
+      batchWindow: FiniteDuration,
+      batchBytes: Long
+  ) extends Actor
+      with Stash
+      with Timers {
+
+    import context.dispatcher
+
+    private val logger = LoggerFactory.getLogger(this.getClass)
+
+    private var nextSeq = 0L
+
+    private var openBatch: Option[OpenBatch] = None
+
+    // batches that are being written to the ledger, in the order they were validated
+    private val inFlight = mutable.LinkedHashMap.empty[Long, InFlightBatch]
+
+    // state written by the batches that are not committed yet, together with the writing batch
+    private val overlay = mutable.Map.empty[DamlStateKey, (Long, DamlStateValue)]
+
+    // failed writes of the submissions whose batch failed, until they are committed or given up on
+    private val failedAttempts = mutable.Map.empty[Proto.DamlLogEntryId, Int]
+
+    override def receive: Receive = {
+      case _: CommitSubmission if openBatch.exists(isFull) =>
+        stash()
+
+      case commit @ CommitSubmission(entryId, envelope) =>
+        val submission: Proto.DamlSubmission = Envelope.open(envelope) match {
+          case Left(err)                                     => sys.error(s"Cannot open submission envelope: $err")
+          case Right(Envelope.SubmissionMessage(submission)) => submission
+          case Right(_)                                      => sys.error("Unexpected message in envelope")
+        }
+        logger.debug(
+          s"Starting with key ${Pretty.prettyEntryId(entryId)} ${System.nanoTime}"
+        )
+
+        // check if entry already exists
+        if (isPending(entryId) || ledger.hasEntry(entryId)) {
+          // The entry identifier already in use, drop the message and let the
+          // client retry submission.
+          logger.debug(s"CommitActor: duplicate entry identifier in commit message, ignoring.")
+          failedAttempts.remove(entryId)
+        } else {
+          val packageIds = packagesToLoad(submission.getInputDamlStateList.asScala.toSet)
+          if (packageIds.isEmpty)
+            validate(commit, submission, Map.empty)
+          else {
+            // the packages are loaded off the actor, everything else waits until they are here
+            ledger
+              .loadArchives(packageIds)
+              .recover {
+                case NonFatal(e) =>
+                  logger.warn(s"CommitActor: cannot load the packages of ${Pretty.prettyEntryId(entryId)}", e)
+                  Map.empty[String, Archive]
+              }
+              .map(PackagesLoaded(commit, submission, _))
+              .pipeTo(self)
+            context.become(loadingPackages, discardOld = false)
+          }
+        }
+        flushIfReady()
+
+      case FlushBatch(seq) =>
+        openBatch = openBatch.map(
+          batch => if (batch.seq == seq) batch.copy(windowElapsed = true) else batch
+        )
+        flushIfReady()
+
+      case CommitCompleted(seq, result) =>
+        inFlight.remove(seq).foreach { done =>
+          overlay.retain { case (_, (writtenBy, _)) => writtenBy != seq }
+          result match {
+            case Success(height) =>
+              done.commits.foreach(commit => failedAttempts.remove(commit.entryId))
+              ledger.committed(height)
+            case Failure(_: DependencyFailedException) =>
+              logger.debug(
+                s"CommitActor: inputs of ${done.commits.size} submissions were not committed, resubmitting."
+              )
+              done.commits.foreach(self ! _)
+            case Failure(e) =>
+              logger.warn(s"CommitActor: failed to commit ${done.commits.size} submissions", e)
+              done.commits.foreach(resubmit)
+          }
+          // the open batch may have been validated against the state of the failed batch
+          openBatch.filter(batch => result.isFailure && batch.dependencies(seq)).foreach { batch =>
+            discardOpenBatch()
+            batch.commits.foreach(validated => self ! validated.commit)
+          }
+        }
+        flushIfReady()
+        unstashAll()
+    }
+
+    /** Validates a submission of a failed batch again after a back-off, up to [[MaxCommitAttempts]] writes.
+      * A write that made it to the ledger after all is then dropped as a duplicate entry.
+      */
+    private def resubmit(commit: CommitSubmission): Unit = {
+      val attempts = failedAttempts.getOrElse(commit.entryId, 0) + 1
+      if (attempts < MaxCommitAttempts) {
+        failedAttempts.put(commit.entryId, attempts)
+        logger.debug(
+          s"CommitActor: resubmitting ${Pretty.prettyEntryId(commit.entryId)} after $attempts failed writes"
+        )
+        val _ = context.system.scheduler.scheduleOnce(ResubmitBackoff * attempts.toLong, self, commit)
+      } else {
+        failedAttempts.remove(commit.entryId)
+        logger.error(
+          s"CommitActor: giving up on ${Pretty.prettyEntryId(commit.entryId)} after $attempts failed writes, the submission is not committed"
+        )
+      }
+    }
+
+    /** Waits for the packages of a submission; any other message is stashed until they are loaded. */
+    private def loadingPackages: Receive = {
+      case PackagesLoaded(commit, submission, archives) =>
+        context.unbecome()
+        validate(commit, submission, archives)
+        flushIfReady()
+        unstashAll()
+
+      case _ =>
+        stash()
+    }
+
+    /** Validates a submission, with the packages it needs from the package store, and adds it to the open batch. */
+    private def validate(
+        commit: CommitSubmission,
+        submission: Proto.DamlSubmission,
+        archives: Map[String, Archive]
+    ): Unit = {
+      logger.debug(
+        s"CommitActor: processing submission ${Pretty.prettyEntryId(commit.entryId)}..."
+      )
+
+      val inputKeys = submission.getInputDamlStateList.asScala.toSet
+      addToBatch(ledger.validate(commit, submission, readInputState(inputKeys, archives)), inputKeys)
+    }
+
+    /** The packages among the inputs of a submission that are not written by an uncommitted batch. */
+    private def packagesToLoad(inputKeys: Set[DamlStateKey]): Set[String] =
+      inputKeys.filter(key => key.hasPackageId && !overlay.contains(key)).map(_.getPackageId)
+
+    /** Resolves the inputs of a submission: values of uncommitted batches come from the
+      * overlay, packages from the archives loaded for it, everything else is fetched with a
+      * single batched read.
+      */
+    private def readInputState(
+        inputKeys: Set[DamlStateKey],
+        archives: Map[String, Archive]
+    ): Map[DamlStateKey, Option[DamlStateValue]] = {
+      val (pendingKeys, committedKeys) = inputKeys.partition(overlay.contains)
+      val (packageKeys, valueKeys) = committedKeys.partition(_.hasPackageId)
+      // packages missing from the package store are read from the DAML state
+      val (loadedKeys, missingKeys) = packageKeys.partition(key => archives.contains(key.getPackageId))
+      val committed = ledger.readState((valueKeys ++ missingKeys).toVector)
+      val packages = loadedKeys.map { key =>
+        key -> Some(DamlStateValue.newBuilder.setArchive(archives(key.getPackageId)).build)
+      }
+      pendingKeys.map(key => key -> Option(overlay(key)._2)).toMap ++ committed ++ packages
+    }
+
+    private def isPending(entryId: Proto.DamlLogEntryId): Boolean =
+      inFlight.valuesIterator.exists(_.commits.exists(_.entryId == entryId)) ||
+        openBatch.exists(_.commits.exists(_.commit.entryId == entryId))
+
+    private def isFull(batch: OpenBatch): Boolean =
+      batch.commits.size >= batchSize || batch.bytes >= batchBytes
+
+    private def addToBatch(validated: ValidatedCommit, inputKeys: Set[DamlStateKey]): Unit = {
+      val batch = openBatch.getOrElse(newBatch())
+      val dependencies = inputKeys.flatMap(key => overlay.get(key).map(_._1)) - batch.seq
+      validated.stateUpdates.foreach { case (k, v) => overlay.put(k, batch.seq -> v) }
+      openBatch = Some(
+        batch.copy(
+          commits = batch.commits :+ validated,
+          bytes = batch.bytes + validated.size,
+          dependencies = batch.dependencies ++ dependencies
+        )
+      )
+    }
+
+    private def newBatch(): OpenBatch = {
+      val seq = nextSeq
+      nextSeq += 1
+      val windowElapsed = batchWindow.toNanos <= 0
+      if (!windowElapsed) {
+        timers.startSingleTimer(FlushTimerKey, FlushBatch(seq), batchWindow)
+      }
+      OpenBatch(seq, Vector.empty, 0L, Set.empty, windowElapsed)
+    }
+
+    private def discardOpenBatch(): Unit =
+      openBatch.foreach { batch =>
+        overlay.retain { case (_, (writtenBy, _)) => writtenBy != batch.seq }
+        timers.cancel(FlushTimerKey)
+        openBatch = None
+      }
+
+    /** Queues the open batch for writing if it is due and the pipeline has room for it.
+      * It is written once the batch before it is done, whatever its outcome.
+      */
+    private def flushIfReady(): Unit =
+      openBatch
+        .filter(batch => batch.windowElapsed || isFull(batch))
+        .filter(_ => inFlight.size < pipelineDepth)
+        .foreach { batch =>
+          timers.cancel(FlushTimerKey)
+          openBatch = None
+
+          val previous = inFlight.lastOption.fold(Future.unit)(_._2.write.transform(_ => Success(())))
+          // the batches that wrote any of our inputs must have been committed
+          val dependencies = batch.dependencies.toList.flatMap(inFlight.get)
+          val write = previous
+            .flatMap(_ => Future.sequence(dependencies.map(_.write)))
+            .recoverWith {
+              case NonFatal(e) => Future.failed(new DependencyFailedException(e))
+            }
+            .flatMap(_ => ledger.write(batch.commits))
+          inFlight.put(batch.seq, InFlightBatch(batch.commits.map(_.commit), write))
+          write.onComplete(result => self ! CommitCompleted(batch.seq, result))
+        }
+  }
+
+  /** The log entry the commit at index `idx` refers to. Commits only hold the id of their log
+    * entry: the log entry comes with the record, or, for commits written before log entry keys
+    * were recorded, is read by its id with `getValue`.
+    */
+  private[daml] def resolveLogEntry(
+      idx: Int,
+      record: DAMLKVConnector.CommitLogRecord,
+      getValue: Array[Byte] => Array[Byte]
+  ): (Proto.DamlLogEntryId, Proto.DamlLogEntry) = {
+
+    if (record.commit == null) {
+      sys.error(s"getUpdates: commit index $idx was not found on the ledger")
+    }
+
+    val entryId = CommitRecord.decode(record.commit).entryId
+    val updateBytes =
+      if (record.logEntry != null) record.logEntry
+      else getValue(entryId.getEntryId.toByteArray)
+    val logEntry: Proto.DamlLogEntry = Envelope.open(UnsafeByteOperations.unsafeWrap(updateBytes)) match {
+      case Left(err)                                 => sys.error(s"getUpdates: cannot open envelope: $err")
+      case Right(Envelope.LogEntryMessage(logEntry)) => logEntry
+      case Right(_)                                  => sys.error(s"getUpdates: Envelope did not contain log entry")
+    }
+    entryId -> logEntry
+  }
+
+  /** Reads the commit log records `from until from + count`, keyed by commit index. The records
+    * `recent` has are taken from it, the rest is read with `readRange`, which may return fewer
+    * records than asked for. A peer that has not committed the whole range yet is asked again for
+    * the rest, after a back-off that grows while reads bring nothing new; the query may go to
+    * another peer (see peerSelection). After `maxShortReads` reads in a row without a record the
+    * read fails.
+    */
+  private[daml] class CommitRangeReader[A](
+      recent: Int => Option[A],
+      readRange: (Int, Int) => Future[Seq[A]],
+      scheduler: Scheduler,
+      maxShortReads: Int = MaxShortReads,
+      shortReadBackoff: FiniteDuration = ShortReadBackoff,
+      maxShortReadBackoff: FiniteDuration = MaxShortReadBackoff
+  )(implicit ec: ExecutionContext) {
+
+    private val logger = LoggerFactory.getLogger(this.getClass)
+
+    def read(from: Int, count: Int, shortReads: Int = 0): Future[Vector[(Int, A)]] = {
+      val buffered = Iterator
+        .range(from, from + count)
+        .map(idx => recent(idx).map(idx -> _))
+        .takeWhile(_.isDefined)
+        .collect { case Some(record) => record }
+        .toVector
+      if (buffered.size == count)
+        Future.successful(buffered)
+      else
+        readFabric(from + buffered.size, count - buffered.size, if (buffered.isEmpty) shortReads else 0)
+          .map(buffered ++ _)
+    }
+
+    private def readFabric(from: Int, count: Int, shortReads: Int): Future[Vector[(Int, A)]] =
+      readRange(from, count).flatMap { records =>
+        val fetched = records.toVector.zipWithIndex.map {
+          case (record, i) => (from + i) -> record
+        }
+        val emptyReads = if (records.isEmpty) shortReads + 1 else 0
+        if (records.length >= count)
+          Future.successful(fetched)
+        else if (emptyReads >= maxShortReads)
+          Future.failed(
+            new IllegalStateException(
+              s"getUpdates: commits from ${from + records.length} are not on the peers after $emptyReads reads, the commit height is ahead of them"
+            )
+          )
+        else {
+          val delay = (shortReadBackoff * (1L << math.min(emptyReads, 10))).min(maxShortReadBackoff)
+          logger.debug(
+            s"getUpdates: got ${records.length} of $count commits from $from, retrying in $delay"
+          )
+          after(delay, scheduler)(
+            read(from + records.length, count - records.length, emptyReads)
+          ).map(fetched ++ _)
+        }
+      }
+  }
 }
 
 /** Implementation of the participant-state [[ReadService]] and [[WriteService]] using
@@ -54,7 +477,16 @@ class FabricParticipantState(
     roleLedger: Boolean,
     participantId: ParticipantId,
     metrics: Metrics,
-    engine: Engine
+    engine: Engine,
+    commitPipelineDepth: Int,
+    commitBatchSize: Int,
+    commitBatchWindow: FiniteDuration,
+    commitBatchBytes: Long,
+    commitReadPageSize: Int,
+    commitReadPrefetch: Int,
+    commitEventBuffer: Int,
+    auditCommits: Boolean,
+    packageCacheBytes: Long
 )(
     implicit system: ActorSystem,
     mat: Materializer
@@ -105,200 +537,169 @@ class FabricParticipantState(
   // Fabric connection
   private val fabricConn = com.daml.DAMLKVConnector.get
 
-  val ledgerId: LedgerId = fabricConn.getLedgerId
-
-  private def serializeCommit(commit: Commit): Array[Byte] = {
-    val baos = new ByteArrayOutputStream
-    val oos = new ObjectOutputStream(baos)
-    oos.writeObject(commit)
-    oos.close()
-    baos.toByteArray
-  }
+  private val packageStore =
+    new FabricPackageStore(packageId => fabricConn.getPackageAsync(packageId).toScala, packageCacheBytes)
 
-  private def unserializeCommit(bytes: Array[Byte]): Commit = {
-    val bais = new ByteArrayInputStream(bytes)
-    val ois = new ObjectInputStream(bais)
-    val commit = ois.readObject.asInstanceOf[Commit]
-    ois.close()
-    commit
-  }
-
-  /** Akka actor that receives submissions sequentially and
-    * commits them one after another to the state, e.g. appending
-    * a new ledger commit entry, and applying it to the key-value store.
-    */
-  @SuppressWarnings(Array("org.wartremover.warts.Any"))
-  class CommitActor extends Actor {
-
-    override def receive: Receive = {
-      case commit @ CommitSubmission(entryId, envelope) =>
-        val submission: Proto.DamlSubmission = Envelope.open(envelope) match {
-          case Left(err)                                     => sys.error(s"Cannot open submission envelope: $err")
-          case Right(Envelope.SubmissionMessage(submission)) => submission
-          case Right(_)                                      => sys.error("Unexpected message in envelope")
-        }
-        //TODO BH: need to revist how best to handle time
-//        val newRecordTime = Timestamp.assertFromString(fabricConn.getRecordTime)
-        val newRecordTime = getNewRecordTime
-        val t1 = System.nanoTime
-
-        logger.debug(
-          s"Starting with key ${Pretty.prettyEntryId(entryId)} ${System.nanoTime}"
-        )
-
-        // check if entry already exists
-        val existingEntry = fabricConn.getValue(entryId.getEntryId.toByteArray)
-        if (existingEntry != null && existingEntry.nonEmpty) {
-          // The entry identifier already in use, drop the message and let the
-          // client retry submission.
-          logger.debug(s"CommitActor: duplicate entry identifier in commit message, ignoring.")
-        } else {
-          logger.debug(
-            s"CommitActor: processing submission ${Pretty.prettyEntryId(entryId)}..."
-          )
-
-          // Process the submission to produce the log entry and the state updates.
-          val (logEntry, damlStateUpdates) = keyValueCommitting.processSubmission(
-            entryId,
-            newRecordTime,
-            ledgerConfig,
-            submission,
-            participantId,
-            submission.getInputDamlStateList.asScala
-              .map(key => {
-                val maybeValue: Option[DamlStateValue] = getDamlState(key)
-                maybeValue.foreach(
-                  value => if (value.hasArchive || value.hasParty) stateCache.put(key, value)
-                )
-                key -> maybeValue
-              })(breakOut)
-          )
+  val ledgerId: LedgerId = fabricConn.getLedgerId
 
-          // Combine the abstract log entry and the state updates into concrete updates to the store.
-          val allUpdates =
-            damlStateUpdates.map {
-              case (k, v) =>
-                NS_DAML_STATE.concat(keyValueCommitting.packDamlStateKey(k)) ->
-                  Envelope.enclose(v)
-            } + (entryId.getEntryId -> Envelope.enclose(logEntry))
+  /** The [[CommitActor]]'s view of the ledger: the committed state on Fabric and the DAML engine. */
+  private object commitLedger extends CommitLedger {
 
-          logger.debug(
-            s"CommitActor: committing entryId - ${Pretty.prettyEntryId(entryId)} and ${allUpdates.size} updates to store."
-          )
-          logger.debug(
-            s"CommitActor: committing damlStateUpdates - ${damlStateUpdates}"
-          )
-          logger.debug(
-            s"CommitActor: committing logEntry - ${logEntry}"
-          )
+    override def hasEntry(entryId: Proto.DamlLogEntryId): Boolean = {
+      val existingEntry = fabricConn.getValue(entryId.getEntryId.toByteArray)
+      existingEntry != null && existingEntry.nonEmpty
+    }
 
-          val batchUpdates = Array.ofDim[Byte](allUpdates.size * 2 + 1, 1)
-          var i = 0
+    override def loadArchives(packageIds: Set[String]): Future[Map[String, Archive]] =
+      packageStore.getArchives(packageIds)
 
-          for ((k, v) <- allUpdates) {
-            //println("allUpdates : key [" + k.toByteArray.mkString(" ") + "] and value [" + v.toByteArray.mkString(" ") + "]")
-            batchUpdates.update(i, k.toByteArray)
-            batchUpdates.update(i + 1, fabricConn.gzipBytes(v.toByteArray))
-            i += 2
-          }
-          batchUpdates.update(
-            batchUpdates.length - 1,
-            fabricConn.gzipBytes(serializeCommit(commit))
-          )
-          logger.debug(
-            s"CommitActor: batchUpdates is ${batchUpdates}, size(${batchUpdates.size})  updates to store."
-          )
+    override def readState(
+        keys: Vector[DamlStateKey]
+    ): Map[DamlStateKey, Option[DamlStateValue]] = {
+      val committed = getDamlStates(keys)
+      committed.foreach {
+        case (key, value) =>
+          value.foreach(v => if (v.hasParty) stateCache.put(key, v))
+      }
+      committed
+    }
 
-          /*
-          for (batchUpdate <- batchUpdates) {
-            println(
-              s"batchUpdates Array[Byte] ${Base64.getEncoder().encodeToString(batchUpdate)}"
-            )
-          }
-          */
+    override def validate(
+        commit: CommitSubmission,
+        submission: Proto.DamlSubmission,
+        inputState: Map[DamlStateKey, Option[DamlStateValue]]
+    ): ValidatedCommit = {
+      //TODO BH: need to revist how best to handle time
+//        val newRecordTime = Timestamp.assertFromString(fabricConn.getRecordTime)
+      val newRecordTime = getNewRecordTime
+
+      // Process the submission to produce the log entry and the state updates.
+      val (logEntry, damlStateUpdates) = keyValueCommitting.processSubmission(
+        commit.entryId,
+        newRecordTime,
+        ledgerConfig,
+        submission,
+        participantId,
+        inputState
+      )
+      ValidatedCommit(commit, submission, logEntry, damlStateUpdates, newRecordTime)
+    }
 
-          // Write some state to Fabric
-          fabricConn.putBatchAndCommit(batchUpdates)
-          // Write some state to EOS
-          fabricConn.putEOSBatchAndCommit(batchUpdates)
+    override def write(commits: Vector[ValidatedCommit]): Future[Int] = writeBatch(commits)
 
-          val duration = System.nanoTime - t1
-          logger.debug(
-            s"With key ${Pretty.prettyEntryId(entryId)}  time after batch - $duration "
-          )
+    override def committed(height: Int): Unit = dispatcher.signalNewHead(height)
+  }
 
-          // check if key already exists to Fabric
-          val existingEntry = fabricConn.getValue(entryId.getEntryId.toByteArray)
-          if (existingEntry != null) {
-            logger.debug(
-              //s"CommitActor: value of entry ${ByteString.copyFrom(entryBytes)}..."
-              s"CommitActor: value of existingEntry ${existingEntry.mkString("")}"
-            )
-          }
-          // check if key already exists to EOS
-          val existingEOSEntry = fabricConn.getEOSValue(entryId.getEntryId.toByteArray)
-          if (existingEOSEntry != null) {
-            logger.debug(
-              //s"CommitActor: value of entry ${ByteString.copyFrom(entryBytes)}..."
-              s"CommitActor: value of existingEOSEntry ${existingEOSEntry.mkString("")}"
-            )
-          }
+  /** Writes a batch of validated submissions to Fabric and EOS and
+    * returns the new commit height. The connector calls only hand back futures,
+    * so no thread is parked while the transactions are ordered and committed.
+    * The height comes from the commit acknowledgement, nothing is read back
+    * unless commits are audited.
+    */
+  private def writeBatch(commits: Vector[ValidatedCommit]): Future[Int] = {
+    val t1 = System.nanoTime
+    val stateBatch = mutable.ArrayBuffer.empty[Array[Byte]]
+    val commitBatch = mutable.ArrayBuffer.empty[Array[Byte]]
+
+    for (validated <- commits) {
+      val entryId = validated.commit.entryId
+
+      // Combine the abstract log entry and the state updates into concrete updates to the store.
+      val allUpdates =
+        validated.stateUpdates.map {
+          case (k, v) =>
+            NS_DAML_STATE.concat(keyValueCommitting.packDamlStateKey(k)) ->
+              Envelope.enclose(v)
+        } + (entryId.getEntryId -> Envelope.enclose(validated.logEntry))
+
+      logger.debug(
+        s"CommitActor: committing entryId - ${Pretty.prettyEntryId(entryId)} and ${allUpdates.size} updates to store."
+      )
+      logger.debug(
+        s"CommitActor: committing damlStateUpdates - ${validated.stateUpdates}"
+      )
+      logger.debug(
+        s"CommitActor: committing logEntry - ${validated.logEntry}"
+      )
 
-          // Check and write archive
-          if (submission.hasPackageUploadEntry) {
-            val archives = submission.getPackageUploadEntry.getArchivesList
-            archives.forEach { ar =>
-              val currentArchives = fabricConn.getPackageList
-              if (!currentArchives.contains(ar.getHash)) {
-                // Write package to Fabric
-                fabricConn.putPackage(ar.getHash, ar.toByteArray)
-                // Write package to EOS
-                fabricConn.putEOSPackage(ar.getHash, ar.toByteArray)
-              }
-            }
-          }
-          dispatcher.signalNewHead(fabricConn.getCommitHeight)
-        }
+      for ((k, v) <- allUpdates) {
+        //println("allUpdates : key [" + k.toByteArray.mkString(" ") + "] and value [" + v.toByteArray.mkString(" ") + "]")
+        stateBatch += k.toByteArray
+        stateBatch += fabricConn.compressBytes(v.toByteArray)
+      }
+      // the submission itself is not stored, readers resolve the log entry by its id
+      commitBatch += fabricConn.compressBytes(
+        CommitRecord.reference(entryId, validated.recordTime).toByteArray
+      )
     }
+    logger.debug(
+      s"CommitActor: batch of ${commits.size} submissions, size(${stateBatch.size}) updates to store."
+    )
+
+    // Write some state to Fabric, recording the log entry of each commit for range reads
+    val fabricWrite = fabricConn.putMultiBatchAndCommitAsync(
+      stateBatch.toArray,
+      commitBatch.toArray,
+      commits.map(_.commit.entryId.getEntryId.toByteArray).toArray
+    )
+
+    for {
+      ack <- fabricWrite.toScala
+      // Write some state to EOS, its batch write ignores the trailing commit
+      _ <- fabricConn.putEOSBatchAndCommitAsync((stateBatch :+ commitBatch.last).toArray).toScala
+      _ = logger.debug(
+        s"With batch of ${commits.size} submissions time after batch - ${System.nanoTime - t1}, committed in block ${ack.blockNumber} at height ${ack.height}"
+      )
+      _ <- if (auditCommits) Future.traverse(commits)(auditCommit(_, ack)) else Future.unit
+      // package writes are rare and still go through the blocking calls
+      _ <- Future(blocking(commits.foreach(writeArchives)))
+    } yield ack.height
   }
 
-  /** Instance of the [[CommitActor]] to which we send messages. */
-  private val commitActorRef = system.actorOf(Props(new CommitActor), s"commit-actor-$ledgerId")
-
-  //TODO BH: consider renaming class so it is clear this is CommitHeightReader from Fabric
-  /** Thread that reads new commits back from Fabric */
-  class CommitReader extends Thread {
-    override def run(): Unit = {
-      var running = true
-      var lastHeight = fabricConn.getCommitHeight
-      while (running) {
-
-        // we may not use block events directly to generate updates...
-        // however, we can check if there are new blocks to not query the chain too often
-        if (fabricConn.checkNewBlocks()) {
-          val height = fabricConn.getCommitHeight
-          if (height > lastHeight) {
-            lastHeight = height
-            dispatcher.signalNewHead(height)
-          }
-        }
+  /** Reads the committed log entry back from Fabric and EOS and checks it against the acknowledgement. */
+  private def auditCommit(
+      validated: ValidatedCommit,
+      ack: DAMLKVConnector.CommitAck
+  ): Future[Unit] = {
+    val entryBytes = validated.commit.entryId.getEntryId.toByteArray
+    for {
+      existingEntry <- fabricConn.getValueAsync(entryBytes).toScala
+      existingEOSEntry <- fabricConn.getEOSValueAsync(entryBytes).toScala
+      height <- fabricConn.getCommitHeightAsync.toScala
+    } yield {
+      val entryId = Pretty.prettyEntryId(validated.commit.entryId)
+      if (existingEntry == null)
+        logger.warn(s"CommitActor: audit: log entry $entryId is missing on Fabric")
+      if (existingEOSEntry == null)
+        logger.warn(s"CommitActor: audit: log entry $entryId is missing on EOS")
+      if (height < ack.height)
+        logger.warn(
+          s"CommitActor: audit: commit height is $height, but block ${ack.blockNumber} acknowledged ${ack.height}"
+        )
+    }
+  }
 
-        try {
-          Thread.sleep(50)
-        } catch {
-          case e: InterruptedException => running = false
+  /** Check and write archive */
+  private def writeArchives(validated: ValidatedCommit): Unit =
+    if (validated.submission.hasPackageUploadEntry) {
+      val archives = validated.submission.getPackageUploadEntry.getArchivesList
+      archives.forEach { ar =>
+        if (!fabricConn.hasPackage(ar.getHash)) {
+          // Write package to Fabric
+          fabricConn.putPackage(ar.getHash, ar.toByteArray)
+          // Write package to EOS
+          fabricConn.putEOSPackage(ar.getHash, ar.toByteArray)
         }
       }
     }
-  }
-
-  private val commitReaderRef = {
-    val threadRef = new CommitReader
-
-    threadRef.start()
 
-    threadRef
-  }
+  /** Instance of the [[CommitActor]] to which we send messages. */
+  private val commitActorRef = system.actorOf(
+    Props(
+      new CommitActor(commitLedger, commitPipelineDepth, commitBatchSize, commitBatchWindow, commitBatchBytes)
+    ),
+    s"commit-actor-$ledgerId"
+  )
 
   /** The start index */
   type Index = Int
@@ -326,7 +727,7 @@ class FabricParticipantState(
 
   /** Dispatcher to subscribe to 'Update' events derived from the state.
     * The index we use here is the "height" of the State.commitLog.
-    * This index is transformed into [[Offset]] in [[getUpdate]].
+    * This index is transformed into [[Offset]] in [[stateUpdates]].
     * *
     * [[Dispatcher]] is an utility written by Digital Asset implementing a fanout
     * for a stream of events. It is initialized with an initial offset and a method for
@@ -338,43 +739,52 @@ class FabricParticipantState(
   private val dispatcher: Dispatcher[Int] =
     Dispatcher("fabric-participant-state", zeroIndex = StartIndex, headAtInitialization = beginning)
 
-  /** Helper for [[dispatcher]] to fetch [[DamlLogEntry]] from the
-    * state and convert it into [[Update]].
+  // New commits are announced by the block listener of the connector, which reads the commit log
+  // height out of every block. The height is read once more after subscribing, so that commits
+  // made since `beginning` was read are not missed.
+  fabricConn.addCommitHeightListener(height => dispatcher.signalNewHead(height))
+
+  /** The most recent commits, pushed with their log entries by the chaincode's commit log
+    * events. Subscribers that keep up are served from here without querying Fabric, anything
+    * that is missing (older commits, lost events) is read with range queries instead.
     */
-  private def getUpdate(idx: Int): List[Update] = {
-
-    // read commit from log (stored on Fabric)
-    var commitBytes: Array[Byte] = null
-    try {
-      commitBytes = fabricConn.getCommit(idx)
-    } catch {
-      case t: Throwable =>
-        t.printStackTrace(System.err)
-        commitBytes = null
-    }
+  private val recentCommits =
+    new ConcurrentSkipListMap[Int, DAMLKVConnector.CommitLogRecord]()
 
-    if (commitBytes == null) {
-      sys.error(s"getUpdate: commit index $idx was not found on the ledger")
+  fabricConn.addCommitLogListener { (firstIndex, records) =>
+    records.zipWithIndex.foreach {
+      case (record, i) => recentCommits.put(firstIndex + i, record)
     }
+    val height = firstIndex + records.length
+    recentCommits.headMap(height - commitEventBuffer).clear()
+    dispatcher.signalNewHead(height)
+  }
+  dispatcher.signalNewHead(fabricConn.getCommitHeight)
 
-    val commit = unserializeCommit(commitBytes)
+  private val commitReader = new CommitRangeReader[DAMLKVConnector.CommitLogRecord](
+    idx => Option(recentCommits.get(idx)),
+    (from, count) => fabricConn.getCommitRangeAsync(from, count).toScala.map(_.toSeq),
+    system.scheduler
+  )
 
-    commit match {
-      case CommitSubmission(entryId, _) =>
-        logger.debug(
-          s"Ending with key ${Pretty.prettyEntryId(entryId)} ${System.nanoTime}"
-        )
-        // read update from commit: submission
-        val updateBytes = fabricConn.getValue(entryId.getEntryId.toByteArray)
-        val updateEOSBytes = fabricConn.getEOSValue(entryId.getEntryId.toByteArray)
-        val logEntry: DamlLogEntry = Envelope.open(ByteString.copyFrom(updateBytes)) match {
-          case Left(err)                                 => sys.error(s"getUpdate: cannot open envelope: $err")
-          case Right(Envelope.LogEntryMessage(logEntry)) => logEntry
-          case Right(_)                                  => sys.error(s"getUpdate: Envelope did not contain log entry")
-        }
-        logger.trace(s" PRINTING LOG_ENTRY ${logEntry.toString}")
-        KeyValueConsumption.logEntryToUpdate(entryId, logEntry)
-    }
+  /** Helper for [[dispatcher]] to get the commits `from until from + count` together
+    * with their [[DamlLogEntry]] and convert them into [[Update]]s.
+    * Commits pushed by the commit log events are taken from [[recentCommits]], the rest is
+    * read from Fabric (see [[CommitRangeReader]]). The result is keyed by dispatcher index,
+    * which is the commit index + 1.
+    */
+  private def getUpdates(from: Int, count: Int): Future[Vector[(Int, List[Update])]] =
+    commitReader
+      .read(from, count)
+      .map(_.map { case (idx, record) => (idx + 1) -> toUpdates(idx, record) })
+
+  private def toUpdates(idx: Int, record: DAMLKVConnector.CommitLogRecord): List[Update] = {
+    val (entryId, logEntry) = resolveLogEntry(idx, record, key => fabricConn.getValue(key))
+    logger.debug(
+      s"Ending with key ${Pretty.prettyEntryId(entryId)} ${System.nanoTime}"
+    )
+    logger.trace(s" PRINTING LOG_ENTRY ${logEntry.toString}")
+    KeyValueConsumption.logEntryToUpdate(entryId, logEntry)
   }
 
   override def currentHealth(): HealthStatus = Healthy
@@ -395,9 +805,14 @@ class FabricParticipantState(
           .getOrElse(StartIndex), // this get index from commitHeight of fabric network
         //            .getOrElse(StartIndex),
         //          check if we need this for recovery cases, also deal with it being larger than 0
-        OneAfterAnother[Int, List[Update]](
-          (idx: Int) => idx + 1,
-          (idx: Int) => Future.successful(getUpdate(idx - 1))
+        // commits are read a page at a time, with the next pages fetched ahead of the consumer
+        RangeSource[Int, List[Update]](
+          (startExclusive: Int, endInclusive: Int) =>
+            Source(startExclusive until endInclusive by commitReadPageSize)
+              .mapAsync(commitReadPrefetch)(
+                from => getUpdates(from, math.min(commitReadPageSize, endInclusive - from))
+              )
+              .mapConcat(identity)
         )
       )
       .collect {
@@ -525,30 +940,38 @@ class FabricParticipantState(
     val _ = Await.ready(gracefulStop(commitActorRef, 5.seconds, PoisonPill), 6.seconds)
   }
 
-  private def getDamlState(key: Proto.DamlStateKey): Option[Proto.DamlStateValue] = {
-
-    lazy val valueFromFabric = {
-      lazy val entryBytes: Array[Byte] = fabricConn.getValue(
-        NS_DAML_STATE.concat(keyValueCommitting.packDamlStateKey(key)).toByteArray
-      )
-      lazy val entryEOSBytes: Array[Byte] = fabricConn.getEOSValue(
-        NS_DAML_STATE.concat(keyValueCommitting.packDamlStateKey(key)).toByteArray
-      )
-      if (entryBytes == null || entryBytes.isEmpty)
-        None
+  /** Reads DAML state from the state cache, with one Fabric query for all keys that are not cached. */
+  private def getDamlStates(
+      keys: Seq[Proto.DamlStateKey]
+  ): Map[Proto.DamlStateKey, Option[Proto.DamlStateValue]] = {
+    val (cached, uncached) =
+      keys.map(key => key -> stateCache.getIfPresent(key)).partition(_._2.isDefined)
+    val fetched =
+      if (uncached.isEmpty) Map.empty[Proto.DamlStateKey, Option[Proto.DamlStateValue]]
       else {
-        Envelope.open(ByteString.copyFrom(entryBytes)) match {
-          case Right(Envelope.StateValueMessage(v)) =>
-            logger.trace(s" PRINTING getDamlState ${v.toString}")
-            Option(v)
-          case _ => sys.error(s"getDamlState: Envelope did not contain a state value")
-        }
+        val uncachedKeys = uncached.map(_._1)
+        val entries = fabricConn.getValues(
+          uncachedKeys
+            .map(key => NS_DAML_STATE.concat(keyValueCommitting.packDamlStateKey(key)).toByteArray)
+            .toArray
+        )
+        uncachedKeys.zip(entries.map(openStateValue)).toMap
       }
-    }
-
-    stateCache.getIfPresent(key).orElse(valueFromFabric)
+    cached.toMap ++ fetched
   }
 
+  private def openStateValue(entryBytes: Array[Byte]): Option[Proto.DamlStateValue] =
+    if (entryBytes == null || entryBytes.isEmpty)
+      None
+    else {
+      Envelope.open(ByteString.copyFrom(entryBytes)) match {
+        case Right(Envelope.StateValueMessage(v)) =>
+          logger.trace(s" PRINTING getDamlStates ${v.toString}")
+          Option(v)
+        case _ => sys.error(s"getDamlStates: Envelope did not contain a state value")
+      }
+    }
+
   //TODO by default the SUbmissionValidator will be doing this
   private def allocateEntryId: Proto.DamlLogEntryId = {
     val nonce: Array[Byte] = Array.ofDim(8)
@@ -3,8 +3,6 @@
 
 package com.daml.ledger.fabric
 
-import java.io.{ByteArrayInputStream, ByteArrayOutputStream, ObjectInputStream, ObjectOutputStream}
-
 import com.daml.DAMLKVConnector
 import com.daml.ledger.participant.state.kvutils.DamlKvutils
 import com.daml.ledger.validator.LedgerStateOperations.{Key, Value}
@@ -57,19 +55,4 @@ object FabricParticipantState {
 
   final case class CommitSubmission(entryId: DamlKvutils.DamlLogEntryId, bytes: ByteString)
       extends Commit
-  private def serializeCommit(commit: Commit): Array[Byte] = {
-    val baos = new ByteArrayOutputStream
-    val oos = new ObjectOutputStream(baos)
-    oos.writeObject(commit)
-    oos.close()
-    baos.toByteArray
-  }
-
-  private def unserializeCommit(bytes: Array[Byte]): Commit = {
-    val bais = new ByteArrayInputStream(bytes)
-    val ois = new ObjectInputStream(bais)
-    val commit = ois.readObject.asInstanceOf[Commit]
-    ois.close()
-    commit
-  }
 }
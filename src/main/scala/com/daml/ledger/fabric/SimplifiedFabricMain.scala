@@ -45,9 +45,17 @@ object SimplifiedFabricMain {
       newLoggingContext { implicit logCtx =>
         implicit val executionContext: ExecutionContextExecutor = materializer.executionContext
 
+        val metrics = createMetrics(participantConfig, config)
+
         // Initialize Fabric connection
         // this will create the singleton instance and establish the connection
-        val fabricConn = DAMLKVConnector.get(config.extra.roleProvision, config.extra.roleExplorer)
+        // its metrics go to the participant registry, so the configured reporters pick them up
+        val fabricConn = DAMLKVConnector.get(
+          config.extra.roleProvision,
+          config.extra.roleExplorer,
+          metrics.registry,
+          DAMLKVConnector.DEFAULT_STATE_CACHE_BYTES
+        )
 
         // If we only want to provision, exit right after
         if (!config.extra.roleLedger && !config.extra.roleTime && !config.extra.roleExplorer) {
@@ -55,8 +63,6 @@ object SimplifiedFabricMain {
           System.exit(0)
         }
 
-        val metrics = createMetrics(participantConfig, config)
-
         for {
           ledger <- new FabricKeyValueLedger.Owner(
             config.ledgerId,
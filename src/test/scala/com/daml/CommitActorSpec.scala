@@ -0,0 +1,200 @@
+// Copyright (c) 2020 Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package com.daml
+
+import java.util.concurrent.{ConcurrentHashMap, LinkedBlockingQueue, TimeUnit}
+
+import akka.actor.{ActorRef, ActorSystem, Props}
+import com.daml.FabricParticipantState.{CommitActor, CommitLedger, CommitSubmission, ValidatedCommit}
+import com.daml.daml_lf_dev.DamlLf.Archive
+import com.daml.ledger.participant.state.kvutils.DamlKvutils._
+import com.daml.ledger.participant.state.kvutils.Envelope
+import com.daml.lf.data.Time.Timestamp
+import com.google.protobuf.ByteString
+import org.scalatest.BeforeAndAfterAll
+import org.scalatest.matchers.should.Matchers
+import org.scalatest.wordspec.AnyWordSpec
+
+import scala.annotation.tailrec
+import scala.collection.JavaConverters._
+import scala.concurrent.duration._
+import scala.concurrent.{Future, Promise}
+
+class CommitActorSpec extends AnyWordSpec with Matchers with BeforeAndAfterAll {
+
+  private val system = ActorSystem("commit-actor-spec")
+
+  override def afterAll(): Unit = {
+    val _ = system.terminate()
+  }
+
+  private def key(name: String): DamlStateKey = DamlStateKey.newBuilder.setContractId(name).build
+
+  private def value(name: String): DamlStateValue =
+    DamlStateValue.newBuilder.setParty(DamlPartyAllocation.newBuilder.setParticipantId(name)).build
+
+  private def entryId(name: String): DamlLogEntryId =
+    DamlLogEntryId.newBuilder.setEntryId(ByteString.copyFromUtf8(name)).build
+
+  /** A ledger whose writes complete when the test completes them. Submissions write what
+    * is registered for them in `updates`.
+    */
+  private class TestLedger extends CommitLedger {
+    val state = new ConcurrentHashMap[DamlStateKey, DamlStateValue]
+    val entries = ConcurrentHashMap.newKeySet[String]
+    val updates = new ConcurrentHashMap[String, Map[DamlStateKey, DamlStateValue]]
+    val validations = new LinkedBlockingQueue[(String, Map[DamlStateKey, Option[DamlStateValue]])]
+    val writes = new LinkedBlockingQueue[(Seq[String], Promise[Int])]
+    val heights = new LinkedBlockingQueue[Int]
+
+    override def hasEntry(entryId: DamlLogEntryId): Boolean =
+      entries.contains(entryId.getEntryId.toStringUtf8)
+
+    override def loadArchives(packageIds: Set[String]): Future[Map[String, Archive]] =
+      Future.successful(Map.empty)
+
+    override def readState(keys: Vector[DamlStateKey]): Map[DamlStateKey, Option[DamlStateValue]] =
+      keys.map(key => key -> Option(state.get(key))).toMap
+
+    override def validate(
+        commit: CommitSubmission,
+        submission: DamlSubmission,
+        inputState: Map[DamlStateKey, Option[DamlStateValue]]
+    ): ValidatedCommit = {
+      val name = commit.entryId.getEntryId.toStringUtf8
+      validations.put(name -> inputState)
+      ValidatedCommit(
+        commit,
+        submission,
+        DamlLogEntry.getDefaultInstance,
+        Option(updates.get(name)).getOrElse(Map.empty),
+        Timestamp.assertFromLong(0L)
+      )
+    }
+
+    override def write(commits: Vector[ValidatedCommit]): Future[Int] = {
+      val promise = Promise[Int]()
+      writes.put(commits.map(_.commit.entryId.getEntryId.toStringUtf8) -> promise)
+      promise.future
+    }
+
+    override def committed(height: Int): Unit = heights.put(height)
+
+    def nextWrite(): (Seq[String], Promise[Int]) = {
+      val write = writes.poll(5, TimeUnit.SECONDS)
+      write should not be null
+      write
+    }
+
+    def noWrite(within: FiniteDuration = 300.millis): Unit =
+      Option(writes.poll(within.toMillis, TimeUnit.MILLISECONDS)).map(_._1) shouldBe None
+
+    /** The inputs of the next validation of `name` that satisfies `p`. */
+    @tailrec
+    final def validated(
+        name: String,
+        p: Map[DamlStateKey, Option[DamlStateValue]] => Boolean = _ => true
+    ): Map[DamlStateKey, Option[DamlStateValue]] = {
+      val validation = validations.poll(5, TimeUnit.SECONDS)
+      validation should not be null
+      if (validation._1 == name && p(validation._2)) validation._2 else validated(name, p)
+    }
+  }
+
+  private def start(ledger: TestLedger, pipelineDepth: Int = 2): ActorRef =
+    system.actorOf(Props(new CommitActor(ledger, pipelineDepth, 1, Duration.Zero, 1024L * 1024L)))
+
+  private def submit(
+      actor: ActorRef,
+      ledger: TestLedger,
+      name: String,
+      reads: Seq[String] = Seq.empty,
+      writes: Map[String, String] = Map.empty
+  ): Unit = {
+    ledger.updates.put(name, writes.map { case (k, v) => key(k) -> value(v) })
+    val submission = DamlSubmission.newBuilder.addAllInputDamlState(reads.map(key).asJava).build
+    actor ! CommitSubmission(entryId(name), Envelope.enclose(submission))
+  }
+
+  "CommitActor" should {
+
+    "write batches one after another in the order they were validated" in {
+      val ledger = new TestLedger
+      val actor = start(ledger)
+      // b archives what a read, so a must be committed first
+      submit(actor, ledger, "a", reads = Seq("c1"))
+      submit(actor, ledger, "b", writes = Map("c1" -> "archived"))
+
+      val (first, a) = ledger.nextWrite()
+      first shouldBe Seq("a")
+      ledger.noWrite()
+      a.success(1)
+      ledger.heights.poll(5, TimeUnit.SECONDS) shouldBe 1
+
+      val (second, b) = ledger.nextWrite()
+      second shouldBe Seq("b")
+      b.success(2)
+      ledger.heights.poll(5, TimeUnit.SECONDS) shouldBe 2
+    }
+
+    "validate against the state written by uncommitted batches" in {
+      val ledger = new TestLedger
+      ledger.state.put(key("c1"), value("committed"))
+      val actor = start(ledger)
+      submit(actor, ledger, "a", writes = Map("c1" -> "pending"))
+      submit(actor, ledger, "b", reads = Seq("c1", "c2"))
+
+      ledger.validated("b") shouldBe Map(key("c1") -> Some(value("pending")), key("c2") -> None)
+      ledger.nextWrite()._2.success(1)
+      ledger.nextWrite()._1 shouldBe Seq("b")
+    }
+
+    "validate the submissions that read from a failed batch again" in {
+      val ledger = new TestLedger
+      val actor = start(ledger)
+      submit(actor, ledger, "a", writes = Map("c1" -> "pending"))
+      submit(actor, ledger, "b", reads = Seq("c1"))
+      ledger.validated("b") shouldBe Map(key("c1") -> Some(value("pending")))
+
+      val (first, a) = ledger.nextWrite()
+      first shouldBe Seq("a")
+      a.failure(new RuntimeException("MVCC_READ_CONFLICT"))
+
+      // b is written once it has been validated against the committed state
+      ledger.validated("b", _ == Map(key("c1") -> None))
+      val (second, b) = ledger.nextWrite()
+      second shouldBe Seq("b")
+
+      // a is resubmitted after a back-off and written after b
+      ledger.validated("a")
+      ledger.noWrite()
+      b.success(1)
+      ledger.nextWrite()._1 shouldBe Seq("a")
+    }
+
+    "give up on a submission after its writes failed too often" in {
+      val ledger = new TestLedger
+      val actor = start(ledger)
+      submit(actor, ledger, "a")
+
+      for (_ <- 1 to 3) {
+        val (batch, a) = ledger.nextWrite()
+        batch shouldBe Seq("a")
+        a.failure(new RuntimeException("ENDORSEMENT_MISMATCH"))
+      }
+      ledger.noWrite(within = 1.second)
+    }
+
+    "drop submissions whose log entry is already on the ledger" in {
+      val ledger = new TestLedger
+      ledger.entries.add("a")
+      val actor = start(ledger)
+      submit(actor, ledger, "a")
+      submit(actor, ledger, "b")
+
+      ledger.validations.poll(5, TimeUnit.SECONDS)._1 shouldBe "b"
+      ledger.nextWrite()._1 shouldBe Seq("b")
+    }
+  }
+}
@@ -0,0 +1,108 @@
+// Copyright (c) 2020 Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package com.daml
+
+import java.util.concurrent.ConcurrentHashMap
+
+import akka.actor.ActorSystem
+import com.daml.FabricParticipantState.CommitRangeReader
+import org.scalatest.BeforeAndAfterAll
+import org.scalatest.matchers.should.Matchers
+import org.scalatest.wordspec.AnyWordSpec
+
+import scala.collection.mutable
+import scala.concurrent.duration._
+import scala.concurrent.{Await, ExecutionContext, Future}
+
+class CommitRangeReaderSpec extends AnyWordSpec with Matchers with BeforeAndAfterAll {
+
+  private val system = ActorSystem("commit-range-reader-spec")
+  implicit private val ec: ExecutionContext = system.dispatcher
+
+  override def afterAll(): Unit = {
+    val _ = system.terminate()
+  }
+
+  private def record(idx: Int): String = s"r$idx"
+
+  /** Commit log records pushed by events, and peers that have committed the commit log up to
+    * the height each range read is given, in turn; the last height holds for further reads.
+    */
+  private class TestCommitLog(heights: Int*) {
+    val recent = new ConcurrentHashMap[Int, String]
+    val reads = mutable.Buffer.empty[(Int, Int)]
+    private val remaining = mutable.Queue(heights: _*)
+
+    def readRange(from: Int, count: Int): Future[Seq[String]] = synchronized {
+      reads += (from -> count)
+      val height = if (remaining.size > 1) remaining.dequeue() else remaining.head
+      Future.successful(Iterator.range(from, math.min(from + count, height)).map(record).toSeq)
+    }
+
+    def reader(maxShortReads: Int = 3): CommitRangeReader[String] =
+      new CommitRangeReader[String](
+        idx => Option(recent.get(idx)),
+        readRange,
+        system.scheduler,
+        maxShortReads,
+        shortReadBackoff = 1.milli,
+        maxShortReadBackoff = 5.millis
+      )
+  }
+
+  private def await[T](f: Future[T]): T = Await.result(f, 5.seconds)
+
+  "CommitRangeReader" should {
+
+    "take the records pushed by events and read the rest with one range read" in {
+      val log = new TestCommitLog(5)
+      log.recent.put(0, record(0))
+      log.recent.put(1, record(1))
+
+      await(log.reader().read(0, 5)) shouldBe (0 until 5).map(idx => idx -> record(idx))
+      log.reads shouldBe Seq(2 -> 3)
+    }
+
+    "ask again for the rest of a range a peer has only partly committed" in {
+      val log = new TestCommitLog(2, 4)
+
+      await(log.reader().read(0, 4)) shouldBe (0 until 4).map(idx => idx -> record(idx))
+      log.reads shouldBe Seq(0 -> 4, 2 -> 2)
+    }
+
+    "take the rest of a short read from the events pushed meanwhile" in {
+      val log = new TestCommitLog(1)
+      val reader = new CommitRangeReader[String](
+        idx => Option(log.recent.get(idx)),
+        (from, count) => {
+          val read = log.readRange(from, count)
+          log.recent.put(1, record(1))
+          log.recent.put(2, record(2))
+          read
+        },
+        system.scheduler,
+        shortReadBackoff = 1.milli
+      )
+
+      await(reader.read(0, 3)) shouldBe (0 until 3).map(idx => idx -> record(idx))
+      log.reads shouldBe Seq(0 -> 3)
+    }
+
+    "fail after reads in a row without a record" in {
+      val log = new TestCommitLog(1)
+
+      val e = the[IllegalStateException] thrownBy await(log.reader(maxShortReads = 3).read(0, 2))
+      e.getMessage should include("commits from 1 are not on the peers after 3 reads")
+      log.reads shouldBe Seq(0 -> 2, 1 -> 1, 1 -> 1, 1 -> 1)
+    }
+
+    "count only the reads in a row without a record" in {
+      // every third read brings one more record, so no more than two reads in a row are empty
+      val log = new TestCommitLog(0, 0, 1, 1, 1, 2, 2, 2, 3)
+
+      await(log.reader(maxShortReads = 3).read(0, 3)) shouldBe (0 until 3).map(idx => idx -> record(idx))
+      log.reads should have size 9
+    }
+  }
+}
@@ -0,0 +1,129 @@
+// Copyright (c) 2020 Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package com.daml
+
+import java.io.{ByteArrayOutputStream, ObjectOutputStream}
+
+import com.daml.Compression.ValueCompression
+import com.daml.ledger.participant.state.kvutils.DamlKvutils.{DamlLogEntry, DamlLogEntryId, DamlPartyAllocationEntry}
+import com.daml.ledger.participant.state.kvutils.Envelope
+import com.daml.lf.data.Time.Timestamp
+import com.google.protobuf.ByteString
+import org.scalatest.matchers.should.Matchers
+import org.scalatest.wordspec.AnyWordSpec
+
+import scala.collection.mutable
+
+class CommitRecordSpec extends AnyWordSpec with Matchers {
+
+  private val entryId =
+    DamlLogEntryId.newBuilder.setEntryId(ByteString.copyFromUtf8("entry-1")).build
+  private val envelope = ByteString.copyFromUtf8("submission envelope")
+  private val recordTime = Timestamp.assertFromLong(1598918580000000L)
+
+  "CommitRecord" should {
+
+    "write a commit with an envelope as version 1 and read it back" in {
+      val record = CommitRecord(entryId, envelope, Some(recordTime))
+      val bytes = record.toByteArray
+      bytes(0) shouldBe CommitRecord.Version1
+      CommitRecord.decode(bytes) shouldBe record
+    }
+
+    "write a reference as version 2 and read it back" in {
+      val record = CommitRecord.reference(entryId, recordTime)
+      val bytes = record.toByteArray
+      bytes(0) shouldBe CommitRecord.Version2
+      CommitRecord.decode(bytes) shouldBe record
+    }
+
+    "read a commit of unknown record time" in {
+      CommitRecord.decode(CommitRecord(entryId, envelope, None).toByteArray).recordTime shouldBe None
+    }
+
+    "read commits written in Java serialization" in {
+      val out = new ByteArrayOutputStream
+      val oos = new ObjectOutputStream(out)
+      oos.writeObject(FabricParticipantState.CommitSubmission(entryId, envelope))
+      oos.close()
+
+      CommitRecord.decode(out.toByteArray) shouldBe CommitRecord(entryId, envelope, None)
+    }
+
+    "reject empty, truncated and unknown records" in {
+      val bytes = CommitRecord(entryId, envelope, Some(recordTime)).toByteArray
+      a[RuntimeException] should be thrownBy CommitRecord.decode(Array.emptyByteArray)
+      a[RuntimeException] should be thrownBy CommitRecord.decode(bytes.take(10))
+      a[RuntimeException] should be thrownBy CommitRecord.decode(bytes.take(15))
+      a[RuntimeException] should be thrownBy CommitRecord.decode(Array[Byte](0x7f) ++ bytes.drop(1))
+    }
+  }
+
+  "FabricParticipantState.resolveLogEntry" should {
+
+    val logEntry = DamlLogEntry.newBuilder
+      .setPartyAllocationEntry(DamlPartyAllocationEntry.newBuilder.setParty("alice").setParticipantId("participant"))
+      .build
+    val logEntryBytes = Envelope.enclose(logEntry).toByteArray
+
+    /** Log entries read by their id, with the ids that were read. */
+    class TestValues {
+      val reads = mutable.Buffer.empty[String]
+
+      def getValue(key: Array[Byte]): Array[Byte] = {
+        reads += new String(key, "UTF-8")
+        logEntryBytes
+      }
+    }
+
+    "take the log entry of a reference commit from its record" in {
+      val values = new TestValues
+      val record = new DAMLKVConnector.CommitLogRecord(CommitRecord.reference(entryId, recordTime).toByteArray, logEntryBytes)
+
+      FabricParticipantState.resolveLogEntry(0, record, values.getValue) shouldBe (entryId -> logEntry)
+      values.reads shouldBe empty
+    }
+
+    "read the log entry by its id when the record does not have it" in {
+      val values = new TestValues
+      val record = new DAMLKVConnector.CommitLogRecord(CommitRecord.reference(entryId, recordTime).toByteArray, null)
+
+      FabricParticipantState.resolveLogEntry(0, record, values.getValue) shouldBe (entryId -> logEntry)
+      values.reads shouldBe Seq("entry-1")
+    }
+
+    "ignore the envelope of version 1 commits" in {
+      val values = new TestValues
+      val record = new DAMLKVConnector.CommitLogRecord(CommitRecord(entryId, envelope, Some(recordTime)).toByteArray, logEntryBytes)
+
+      FabricParticipantState.resolveLogEntry(0, record, values.getValue) shouldBe (entryId -> logEntry)
+    }
+
+    "resolve a reference commit as it is written to Fabric and pushed back by the commit log event" in {
+      val compression = new ValueCompression(ValueCompression.GZIP, 64, 3, null)
+      val commit = compression.compress(CommitRecord.reference(entryId, recordTime).toByteArray)
+      val entry = compression.compress(logEntryBytes)
+      val payload = java.nio.ByteBuffer
+        .allocate(8 + 8 + commit.length + entry.length)
+        .order(java.nio.ByteOrder.LITTLE_ENDIAN)
+        .putInt(0)
+        .putInt(1)
+        .putInt(commit.length)
+        .put(commit)
+        .putInt(entry.length)
+        .put(entry)
+        .array()
+
+      val Array(record) = DAMLKVConnector.decodeCommitRecords(payload, 8, 1, compression)
+      FabricParticipantState.resolveLogEntry(0, record, new TestValues().getValue) shouldBe (entryId -> logEntry)
+    }
+
+    "fail on a commit that is not on the ledger" in {
+      val record = new DAMLKVConnector.CommitLogRecord(null, null)
+
+      the[RuntimeException] thrownBy FabricParticipantState.resolveLogEntry(3, record, new TestValues().getValue) should
+        have message "getUpdates: commit index 3 was not found on the ledger"
+    }
+  }
+}
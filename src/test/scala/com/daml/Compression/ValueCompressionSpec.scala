@@ -0,0 +1,80 @@
+// Copyright (c) 2020 Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package com.daml.Compression
+
+import java.nio.charset.StandardCharsets
+
+import org.scalatest.matchers.should.Matchers
+import org.scalatest.wordspec.AnyWordSpec
+
+class ValueCompressionSpec extends AnyWordSpec with Matchers {
+
+  private val value = ("DAML state value " * 200).getBytes(StandardCharsets.UTF_8)
+
+  private def compression(codec: String, maxSize: Int = ValueCompression.DEFAULT_MAX_SIZE) =
+    new ValueCompression(codec, 64, 3, null, maxSize)
+
+  "ValueCompression" should {
+
+    "read back what it wrote with every codec" in {
+      for (codec <- Seq("gzip", "none", "lz4", "zstd")) {
+        val c = compression(codec)
+        c.decompress(c.compress(value)) shouldBe value
+      }
+    }
+
+    "write plain gzip streams by default, which older connectors read" in {
+      val defaults = ValueCompression.fromConfig(null)
+      for (v <- Seq(value, "abc".getBytes(StandardCharsets.UTF_8))) {
+        val stored = defaults.compress(v)
+        stored.take(2) shouldBe Array[Byte](0x1f, 0x8b.toByte)
+        defaults.decompress(stored) shouldBe v
+      }
+    }
+
+    "store values below the threshold uncompressed" in {
+      val small = "abc".getBytes(StandardCharsets.UTF_8)
+      val stored = compression("lz4").compress(small)
+      stored(0) shouldBe ValueCompression.RAW
+      compression("lz4").decompress(stored) shouldBe small
+    }
+
+    "read legacy gzip values whatever codec is configured" in {
+      val legacy = ValueCompression.gzip(value)
+      for (codec <- Seq("gzip", "none", "lz4", "zstd")) {
+        compression(codec).decompress(legacy) shouldBe value
+      }
+    }
+
+    "read values written with another codec" in {
+      compression("zstd").decompress(compression("lz4").compress(value)) shouldBe value
+      compression("lz4").decompress(compression("zstd").compress(value)) shouldBe value
+    }
+
+    "read a value from the middle of a buffer" in {
+      val stored = compression("lz4").compress(value)
+      val buffer = Array[Byte](7, 7, 7) ++ stored ++ Array[Byte](7)
+      compression("lz4").decompress(buffer, 3, stored.length) shouldBe value
+    }
+
+    "reject values that decompress to more than the maximum size" in {
+      val reader = compression("lz4", maxSize = 1024)
+      a[RuntimeException] should be thrownBy reader.decompress(compression("lz4").compress(value))
+      a[RuntimeException] should be thrownBy reader.decompress(compression("zstd").compress(value))
+      a[RuntimeException] should be thrownBy reader.decompress(ValueCompression.gzip(value))
+    }
+
+    "reject an LZ4 value whose size does not match its payload" in {
+      val stored = compression("lz4").compress(value)
+      // one byte more than the payload holds
+      stored(1) = (stored(1) + 1).toByte
+      a[RuntimeException] should be thrownBy compression("lz4").decompress(stored)
+    }
+
+    "reject unknown headers and codecs" in {
+      a[RuntimeException] should be thrownBy compression("lz4").decompress(Array[Byte](0x7f, 0, 0, 0, 0))
+      a[RuntimeException] should be thrownBy compression("snappy")
+    }
+  }
+}
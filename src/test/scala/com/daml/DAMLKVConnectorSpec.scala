@@ -0,0 +1,299 @@
+// Copyright (c) 2020 Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package com.daml
+
+import java.nio.charset.StandardCharsets
+import java.nio.{ByteBuffer, ByteOrder}
+import java.util.concurrent.{CompletableFuture, ConcurrentHashMap, ExecutionException, TimeUnit}
+import java.util.function.BiFunction
+
+import com.daml.Compression.ValueCompression
+import com.google.protobuf.ByteString
+import org.hyperledger.fabric.protos.ledger.rwset.kvrwset.KvRwset
+import org.scalatest.matchers.should.Matchers
+import org.scalatest.wordspec.AnyWordSpec
+
+import scala.collection.JavaConverters._
+import scala.collection.mutable
+
+class DAMLKVConnectorSpec extends AnyWordSpec with Matchers {
+
+  private def bytes(s: String): Array[Byte] = s.getBytes(StandardCharsets.UTF_8)
+
+  private def strings(args: Array[Array[Byte]]): Seq[String] =
+    args.toSeq.map(new String(_, StandardCharsets.UTF_8))
+
+  private def manifest(count: Int, total: Int): Array[Byte] =
+    ByteBuffer.allocate(9).order(ByteOrder.LITTLE_ENDIAN).put(0xC0.toByte).putInt(count).putInt(total).array()
+
+  /** The chunks of one value as RawReadChunks returns them, with the pages that were read. */
+  private class StoredChunks(chunks: Seq[Array[Byte]]) {
+    val pages = mutable.Buffer.empty[(Int, Int)]
+
+    val readPage: BiFunction[Integer, Integer, CompletableFuture[Array[Byte]]] =
+      new BiFunction[Integer, Integer, CompletableFuture[Array[Byte]]] {
+        override def apply(from: Integer, count: Integer): CompletableFuture[Array[Byte]] = {
+          pages.synchronized(pages += (from.intValue -> count.intValue))
+          val page = chunks.slice(from.intValue, from.intValue + count.intValue)
+          val output = ByteBuffer.allocate(4 + page.map(4 + _.length).sum).order(ByteOrder.LITTLE_ENDIAN)
+          output.putInt(page.size)
+          page.foreach(chunk => output.putInt(chunk.length).put(chunk))
+          CompletableFuture.completedFuture(output.array())
+        }
+      }
+
+    def read(manifest: Array[Byte], chunksPerRead: Int): CompletableFuture[Array[Byte]] =
+      DAMLKVConnector.readChunksAsync(readPage, bytes("key"), manifest, chunksPerRead)
+  }
+
+  private def failure(read: CompletableFuture[Array[Byte]]): Throwable =
+    (the[ExecutionException] thrownBy read.get(5, TimeUnit.SECONDS)).getCause
+
+  "DAMLKVConnector.multiBatchArgs" should {
+
+    "lay out the commit count, the state pairs, the commits and their log entry keys" in {
+      val stateBatch = Array(bytes("DSk1"), bytes("v1"), bytes("L1"), bytes("entry1"))
+      val commits = Array(bytes("c1"), bytes("c2"))
+      val entryKeys = Array(bytes("L1"), bytes("L2"))
+
+      val args = DAMLKVConnector.multiBatchArgs(stateBatch, commits, entryKeys)
+
+      args should have length 9
+      ByteBuffer.wrap(args(0)).order(ByteOrder.LITTLE_ENDIAN).getInt shouldBe 2
+      args(0) should have length 4
+      strings(args.drop(1)) shouldBe Seq("DSk1", "v1", "L1", "entry1", "c1", "c2", "L1", "L2")
+    }
+
+    "lay out commits without state updates" in {
+      val args = DAMLKVConnector.multiBatchArgs(Array.empty, Array(bytes("c1")), Array(bytes("L1")))
+
+      ByteBuffer.wrap(args(0)).order(ByteOrder.LITTLE_ENDIAN).getInt shouldBe 1
+      strings(args.drop(1)) shouldBe Seq("c1", "L1")
+    }
+
+    "reject commits without a log entry key each" in {
+      an[IllegalArgumentException] should be thrownBy
+        DAMLKVConnector.multiBatchArgs(Array.empty, Array(bytes("c1"), bytes("c2")), Array(bytes("L1")))
+    }
+
+    "reject state that is not in key, value pairs" in {
+      an[IllegalArgumentException] should be thrownBy
+        DAMLKVConnector.multiBatchArgs(Array(bytes("DSk1")), Array(bytes("c1")), Array(bytes("L1")))
+    }
+  }
+
+  "DAMLKVConnector.chunkArgs" should {
+
+    "cut the data into chunks of the chunk size, the last one shorter" in {
+      val args = DAMLKVConnector.chunkArgs(bytes("key"), bytes("abcdefghij"), 4)
+      strings(args) shouldBe Seq("key", "abcd", "efgh", "ij")
+    }
+
+    "not add an empty chunk to data of a multiple of the chunk size" in {
+      val args = DAMLKVConnector.chunkArgs(bytes("key"), bytes("abcdefgh"), 4)
+      strings(args) shouldBe Seq("key", "abcd", "efgh")
+    }
+  }
+
+  "DAMLKVConnector.readChunksAsync" should {
+
+    "read back the chunks chunkArgs wrote" in {
+      val data = bytes("the value of a large contract")
+      val chunks = DAMLKVConnector.chunkArgs(bytes("key"), data, 8).toSeq.drop(1)
+      val stored = new StoredChunks(chunks)
+
+      stored.read(manifest(chunks.size, data.length), 8).get(5, TimeUnit.SECONDS) shouldBe data
+    }
+
+    "read a manifest of many chunks with one query per page and join the pages in order" in {
+      val data = bytes("abcdefghijklmnopqrstuvwxyz")
+      val chunks = DAMLKVConnector.chunkArgs(bytes("key"), data, 3).toSeq.drop(1)
+      val stored = new StoredChunks(chunks)
+
+      stored.read(manifest(9, data.length), 4).get(5, TimeUnit.SECONDS) shouldBe data
+      stored.pages.toSeq shouldBe Seq(0 -> 4, 4 -> 4, 8 -> 1)
+    }
+
+    "read an empty value without a query" in {
+      val stored = new StoredChunks(Seq.empty)
+
+      stored.read(manifest(0, 0), 4).get(5, TimeUnit.SECONDS) shouldBe empty
+      stored.pages shouldBe empty
+    }
+
+    "reject a manifest with a negative chunk count or size" in {
+      val stored = new StoredChunks(Seq(bytes("abcd")))
+
+      failure(stored.read(manifest(-1, 4), 4)).getMessage should include("Corrupt chunk manifest")
+      failure(stored.read(manifest(1, -4), 4)).getMessage should include("Corrupt chunk manifest")
+      stored.pages shouldBe empty
+    }
+
+    "reject chunks that exceed the size of the manifest" in {
+      val stored = new StoredChunks(Seq(bytes("abcd"), bytes("efgh")))
+
+      failure(stored.read(manifest(2, 6), 4)).getMessage should include("exceed the 6 bytes")
+    }
+
+    "reject chunks missing from the ledger" in {
+      val stored = new StoredChunks(Seq(bytes("abcd"), bytes("efgh")))
+
+      failure(stored.read(manifest(3, 12), 2)).getMessage should include("Read 2 chunks (8 bytes)")
+    }
+
+    "reject chunks shorter than the size of the manifest" in {
+      val stored = new StoredChunks(Seq(bytes("abcd"), bytes("ef")))
+
+      failure(stored.read(manifest(2, 8), 4)).getMessage should include("Read 2 chunks (6 bytes)")
+    }
+
+    "fail when a page cannot be read" in {
+      val readPage = new BiFunction[Integer, Integer, CompletableFuture[Array[Byte]]] {
+        override def apply(from: Integer, count: Integer): CompletableFuture[Array[Byte]] = {
+          val page = new CompletableFuture[Array[Byte]]
+          page.completeExceptionally(new RuntimeException("peer unavailable"))
+          page
+        }
+      }
+
+      failure(DAMLKVConnector.readChunksAsync(readPage, bytes("key"), manifest(1, 4), 4))
+        .getMessage shouldBe "peer unavailable"
+    }
+  }
+
+  "DAMLKVConnector.applyBlockWrites" should {
+
+    val compression = new ValueCompression(ValueCompression.GZIP, 64, 3, null)
+
+    def write(key: String, value: Array[Byte], isDelete: Boolean = false): KvRwset.KVWrite =
+      KvRwset.KVWrite.newBuilder.setKey(key).setValue(ByteString.copyFrom(value)).setIsDelete(isDelete).build
+
+    /** The state cache and package index the writes of blocks are applied to. */
+    class Connector {
+      val cache = new StateCache(1024L)
+      val packages: java.util.Set[String] = ConcurrentHashMap.newKeySet[String]
+
+      def apply(writes: KvRwset.KVWrite*): Int =
+        DAMLKVConnector.applyBlockWrites(writes.asJava, cache, packages, compression)
+    }
+
+    val key = "DState:a2V5"
+
+    "replace cached values with the decompressed values of the block" in {
+      val connector = new Connector
+      connector.cache.cacheRead(key, connector.cache.generation(key), bytes("ours"))
+
+      connector(write(key, compression.compress(bytes("theirs")))) shouldBe -1
+      connector.cache.getIfPresent(key) shouldBe bytes("theirs")
+    }
+
+    "not cache values of keys that were not cached, but keep reads in progress from caching older values" in {
+      val connector = new Connector
+      val generation = connector.cache.generation(key)
+
+      connector(write(key, compression.compress(bytes("theirs"))))
+      connector.cache.getIfPresent(key) shouldBe null
+      connector.cache.generation(key) should not be generation
+    }
+
+    "drop cached values the block deletes or replaces with a chunk manifest" in {
+      val connector = new Connector
+      val chunked = "DState:Y2h1bmtlZA=="
+      connector.cache.cacheRead(key, connector.cache.generation(key), bytes("ours"))
+      connector.cache.cacheRead(chunked, connector.cache.generation(chunked), bytes("ours"))
+
+      connector(write(key, Array.empty, isDelete = true), write(chunked, manifest(2, 2048)))
+      connector.cache.getIfPresent(key) shouldBe null
+      connector.cache.getIfPresent(chunked) shouldBe null
+    }
+
+    "add the packages the block writes to the package index" in {
+      val connector = new Connector
+
+      connector(write("DPackages:0a1b", bytes("archive")), write("DPackages:2c3d", Array.empty, isDelete = true))
+      connector.packages.asScala shouldBe Set("0a1b")
+    }
+
+    "return the commit log height the block sets" in {
+      val connector = new Connector
+      val height = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(42).array()
+
+      connector(write("DCommitLog:00000029", bytes("c")), write("DCommitLogIndex", height)) shouldBe 42
+      connector(write("DCommitLogIndex", bytes("corrupt"))) shouldBe -1
+    }
+  }
+
+  "DAMLKVConnector.decodeCommitRecords" should {
+
+    val compression = new ValueCompression(ValueCompression.GZIP, 64, 3, null)
+
+    // the DCommitLogAppended event: the first index and the number of commits, then each commit
+    //   and its log entry, length-prefixed as the chaincode's encodeCommitRecord writes them
+    def event(firstIndex: Int, records: (Array[Byte], Array[Byte])*): Array[Byte] = {
+      val payload = ByteBuffer
+        .allocate(8 + records.map { case (c, e) => 8 + c.length + e.length }.sum)
+        .order(ByteOrder.LITTLE_ENDIAN)
+        .putInt(firstIndex)
+        .putInt(records.size)
+      records.foreach {
+        case (commit, logEntry) => payload.putInt(commit.length).put(commit).putInt(logEntry.length).put(logEntry)
+      }
+      payload.array()
+    }
+
+    def decode(payload: Array[Byte]): Seq[(String, String)] =
+      DAMLKVConnector
+        .decodeCommitRecords(payload, 8, ByteBuffer.wrap(payload).order(ByteOrder.LITTLE_ENDIAN).getInt(4), compression)
+        .toSeq
+        .map(record => (Option(record.commit).map(new String(_, StandardCharsets.UTF_8)).orNull,
+          Option(record.logEntry).map(new String(_, StandardCharsets.UTF_8)).orNull))
+
+    "decode the commits of an event with their log entries" in {
+      val large = "a log entry that is compressed" * 10
+      val payload = event(
+        7,
+        compression.compress(bytes("c7")) -> compression.compress(bytes("entry7")),
+        compression.compress(bytes("c8")) -> compression.compress(bytes(large))
+      )
+
+      decode(payload) shouldBe Seq("c7" -> "entry7", "c8" -> large)
+    }
+
+    "leave the log entries that were not written with their commit or are chunked to be read separately" in {
+      val payload = event(
+        0,
+        compression.compress(bytes("c0")) -> Array.empty[Byte],
+        compression.compress(bytes("c1")) -> manifest(2, 2048)
+      )
+
+      decode(payload) shouldBe Seq(("c0", null), ("c1", null))
+    }
+
+    "fail on a truncated event" in {
+      val payload = event(0, compression.compress(bytes("c0")) -> compression.compress(bytes("entry0")))
+
+      an[IndexOutOfBoundsException] should be thrownBy decode(payload.take(payload.length - 3))
+    }
+  }
+
+  "DAMLKVConnector.decodePackageList" should {
+
+    def packageList(hashes: String*): Array[Byte] = {
+      val output = ByteBuffer.allocate(4 + hashes.map(4 + _.length).sum).order(ByteOrder.LITTLE_ENDIAN)
+      output.putInt(hashes.size)
+      hashes.foreach(hash => output.putInt(hash.length).put(bytes(hash)))
+      output.array()
+    }
+
+    "decode the package hashes of a PackageListRead response in order" in {
+      val hashes = Seq("0a1b" * 16, "2c3d" * 16, "4e5f" * 16)
+
+      DAMLKVConnector.decodePackageList(packageList(hashes: _*)).toSeq shouldBe hashes
+    }
+
+    "decode an empty package list" in {
+      DAMLKVConnector.decodePackageList(packageList()) shouldBe empty
+    }
+  }
+}
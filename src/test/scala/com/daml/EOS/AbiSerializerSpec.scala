@@ -0,0 +1,86 @@
+// Copyright (c) 2020 Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package com.daml.EOS
+
+import com.daml.EOS.client.domain.response.chain.code.Abi
+import com.daml.Fabric.FabricContextException
+import com.fasterxml.jackson.databind.{DeserializationFeature, ObjectMapper}
+import org.scalatest.matchers.should.Matchers
+import org.scalatest.wordspec.AnyWordSpec
+
+import scala.collection.JavaConverters._
+
+class AbiSerializerSpec extends AnyWordSpec with Matchers {
+
+  // the rawwrite action of the hello contract, and a struct of the other supported types
+  private val abiJson =
+    """{
+      |  "version": "eosio::abi/1.1",
+      |  "types": [{"new_type_name": "account_name", "type": "name"}],
+      |  "structs": [
+      |    {"name": "rawwrite", "base": "", "fields": [{"name": "rawArgs", "type": "string[]"}]},
+      |    {"name": "header", "base": "", "fields": [{"name": "flag", "type": "bool"}]},
+      |    {"name": "sample", "base": "header", "fields": [
+      |      {"name": "count", "type": "uint16"},
+      |      {"name": "length", "type": "varuint32"},
+      |      {"name": "delta", "type": "varint32"},
+      |      {"name": "owner", "type": "account_name"},
+      |      {"name": "data", "type": "bytes"},
+      |      {"name": "note", "type": "string?"},
+      |      {"name": "items", "type": "uint8[]"}
+      |    ]}
+      |  ],
+      |  "actions": [{"name": "rawwrite", "type": "rawwrite"}, {"name": "sample", "type": "sample"}]
+      |}""".stripMargin
+
+  private val serializer = new AbiSerializer(
+    new ObjectMapper()
+      .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+      .readValue(abiJson, classOf[Abi]))
+
+  private def sample(note: String): java.util.Map[String, Any] =
+    Map[String, Any](
+      "flag" -> true,
+      "count" -> 513,
+      "length" -> 300,
+      "delta" -> -2,
+      "owner" -> "eosio",
+      "data" -> "cafe",
+      "note" -> note,
+      "items" -> List(1, 2, 255).asJava
+    ).asJava
+
+  "AbiSerializer" should {
+
+    "pack byte arrays of string[] as base64 text" in {
+      val rawArgs = Map("rawArgs" -> Array(Array[Byte](1, 2, 3), Array.emptyByteArray)).asJava
+      serializer.packActionHex("rawwrite", rawArgs) shouldBe "02044151494400"
+    }
+
+    "pack the fields of a struct after those of its base" in {
+      serializer.packActionHex("sample", sample(null)) shouldBe
+        "01" + "0102" + "ac02" + "03" + "0000000000ea3055" + "02cafe" + "00" + "030102ff"
+      serializer.packActionHex("sample", sample("hi")) shouldBe
+        "01" + "0102" + "ac02" + "03" + "0000000000ea3055" + "02cafe" + "01026869" + "030102ff"
+    }
+
+    "pack varuint32 in groups of 7 bits" in {
+      AbiSerializer.toHex(serializer.pack("varuint32", Long.box(16384L))) shouldBe "808001"
+    }
+
+    "pack names as the node does" in {
+      AbiSerializer.nameToLong("eosio") shouldBe 6138663577826885632L
+      AbiSerializer.nameToLong("") shouldBe 0L
+      a[FabricContextException] should be thrownBy AbiSerializer.nameToLong("Hello")
+      a[FabricContextException] should be thrownBy AbiSerializer.nameToLong("abcdefghijklmn")
+    }
+
+    "reject actions and values that do not fit the ABI" in {
+      a[FabricContextException] should be thrownBy serializer.packActionHex("transfer", Map.empty[String, Any].asJava)
+      a[FabricContextException] should be thrownBy serializer.pack("checksum256", "cafe")
+      a[FabricContextException] should be thrownBy serializer.pack("float128", Int.box(1))
+      a[FabricContextException] should be thrownBy serializer.pack("uint16", null)
+    }
+  }
+}
@@ -0,0 +1,173 @@
+// Copyright (c) 2020 Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package com.daml.EOS
+
+import java.nio.charset.StandardCharsets
+import java.util.concurrent.{CompletableFuture, CountDownLatch, LinkedBlockingQueue, TimeUnit}
+
+import com.codahale.metrics.MetricRegistry
+import com.daml.EOS.client.domain.common.transaction.TransactionAction
+import com.daml.EOS.client.domain.response.chain.transaction.PushedTransaction
+import com.daml.Fabric.{ChaincodeMetrics, FabricContextConfigYaml}
+import org.scalatest.matchers.should.Matchers
+import org.scalatest.wordspec.AnyWordSpec
+
+import scala.collection.JavaConverters._
+
+class ActionBatcherSpec extends AnyWordSpec with Matchers {
+
+  private def config(settings: FabricContextConfigYaml.EosConfig => Unit): FabricContextConfigYaml.EosConfig = {
+    val eosConfig = new FabricContextConfigYaml.EosConfig()
+    eosConfig.batchMaxActions = 10
+    eosConfig.batchMaxTransactions = 1
+    settings(eosConfig)
+    eosConfig
+  }
+
+  /** An EOS node that records the pushes, by the names of their actions. Pushes wait for
+    * `hold` and fail while `failing` is set.
+    */
+  private class TestNode extends ActionBatcher.Node {
+    val pushes = new LinkedBlockingQueue[Seq[Seq[String]]]
+    @volatile var hold = new CountDownLatch(0)
+    @volatile var failing = false
+
+    // the first argument names the action, the second gives the size of its data
+    override def createAction(fcn: String, args: Array[Byte]*): TransactionAction = {
+      val action = new TransactionAction()
+      action.setName(new String(args.head, StandardCharsets.UTF_8))
+      action.setData("00" * args.drop(1).map(_.length).sum)
+      action
+    }
+
+    override def pushTransactions(
+        fcn: String,
+        transactions: java.util.List[java.util.List[TransactionAction]]
+    ): java.util.List[PushedTransaction] = {
+      pushes.put(transactions.asScala.map(_.asScala.map(_.getName).toList).toList)
+      hold.await(5, TimeUnit.SECONDS)
+      if (failing) throw new RuntimeException("push failed")
+      transactions.asScala.map { _ =>
+        val pushed = new PushedTransaction()
+        pushed.setTransactionId("a1b2")
+        pushed
+      }.asJava
+    }
+
+    def nextPush(): Seq[Seq[String]] = {
+      val push = pushes.poll(5, TimeUnit.SECONDS)
+      push should not be null
+      push
+    }
+
+    def noPush(): Unit = Option(pushes.poll(300, TimeUnit.MILLISECONDS)) shouldBe None
+  }
+
+  private def batcher(node: TestNode, eosConfig: FabricContextConfigYaml.EosConfig): ActionBatcher = {
+    val metrics = new MetricRegistry
+    new ActionBatcher(node, new ChaincodeMetrics(metrics, "daml.eos"), eosConfig, metrics)
+  }
+
+  private def add(batcher: ActionBatcher, name: String, dataBytes: Int = 0): CompletableFuture[Array[Byte]] =
+    batcher.add("rawbatchwrite", name.getBytes(StandardCharsets.UTF_8), new Array[Byte](dataBytes))
+
+  "ActionBatcher" should {
+
+    "pack the actions added within the window into transactions of at most batchMaxActions" in {
+      val node = new TestNode
+      val b = batcher(node, config { c =>
+        c.batchMaxActions = 2
+        c.batchMaxTransactions = 2
+        c.batchWindow = 200
+      })
+
+      val writes = (1 to 5).map(i => add(b, s"a$i"))
+      node.nextPush() shouldBe Seq(Seq("a1", "a2"), Seq("a3", "a4"))
+      node.nextPush() shouldBe Seq(Seq("a5"))
+      writes.foreach(_.get(5, TimeUnit.SECONDS) shouldBe null)
+    }
+
+    "start a new transaction when the next action would exceed the NET or CPU budget" in {
+      val node = new TestNode
+      // room for two actions of 100 bytes (40 bytes of overhead each) after the transaction overhead
+      val net = batcher(node, config { c =>
+        c.batchMaxTransactions = 3
+        c.batchWindow = 200
+        c.batchMaxNetBytes = 16 + 2 * 140
+      })
+      (1 to 3).foreach(i => add(net, s"n$i", dataBytes = 100))
+      node.nextPush() shouldBe Seq(Seq("n1", "n2"), Seq("n3"))
+
+      val cpu = batcher(node, config { c =>
+        c.batchMaxTransactions = 3
+        c.batchWindow = 200
+        c.actionCpuUs = 1000
+        c.batchMaxCpuUs = 2500
+      })
+      (1 to 5).foreach(i => add(cpu, s"c$i"))
+      node.nextPush() shouldBe Seq(Seq("c1", "c2"), Seq("c3", "c4"), Seq("c5"))
+    }
+
+    "push an action over the NET budget in a transaction of its own" in {
+      val node = new TestNode
+      val b = batcher(node, config { c =>
+        c.batchMaxTransactions = 2
+        c.batchWindow = 200
+        c.batchMaxNetBytes = 100
+      })
+
+      add(b, "large", dataBytes = 500)
+      add(b, "small")
+      node.nextPush() shouldBe Seq(Seq("large"), Seq("small"))
+    }
+
+    "push the actions added during a push together, right after it" in {
+      val node = new TestNode
+      node.hold = new CountDownLatch(1)
+      val b = batcher(node, config(_.batchWindow = 0))
+
+      val first = add(b, "a1")
+      node.nextPush() shouldBe Seq(Seq("a1"))
+      val later = Seq(add(b, "a2"), add(b, "a3"))
+      node.noPush()
+      first.isDone shouldBe false
+
+      node.hold.countDown()
+      first.get(5, TimeUnit.SECONDS) shouldBe null
+      node.nextPush() shouldBe Seq(Seq("a2", "a3"))
+      later.foreach(_.get(5, TimeUnit.SECONDS) shouldBe null)
+    }
+
+    "complete the writes of a failed push and keep pushing" in {
+      val node = new TestNode
+      node.failing = true
+      val b = batcher(node, config(_.batchWindow = 0))
+
+      add(b, "a1").get(5, TimeUnit.SECONDS) shouldBe null
+      node.nextPush() shouldBe Seq(Seq("a1"))
+
+      node.failing = false
+      add(b, "a2").get(5, TimeUnit.SECONDS) shouldBe null
+      node.nextPush() shouldBe Seq(Seq("a2"))
+    }
+
+    "complete a write whose action cannot be created without pushing it" in {
+      val node = new TestNode {
+        override def createAction(fcn: String, args: Array[Byte]*): TransactionAction =
+          throw new IllegalArgumentException("not in the ABI")
+      }
+      val b = batcher(node, config(_.batchWindow = 0))
+
+      add(b, "a1").get(5, TimeUnit.SECONDS) shouldBe null
+      node.noPush()
+    }
+
+    "batch only the configured functions" in {
+      val b = batcher(new TestNode, config(_.batchFunctions = java.util.Arrays.asList("rawbatchwrite")))
+
+      b.batches("rawbatchwrite") shouldBe true
+      b.batches("ledgeridwrite") shouldBe false
+    }
+  }
+}
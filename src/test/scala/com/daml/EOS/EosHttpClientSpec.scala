@@ -0,0 +1,106 @@
+// Copyright (c) 2020 Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package com.daml.EOS
+
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.{ConcurrentHashMap, CountDownLatch, Executors, TimeUnit}
+
+import com.daml.Fabric.{FabricContextConfigYaml, FabricContextException}
+import okhttp3._
+import org.scalatest.concurrent.Eventually
+import org.scalatest.matchers.should.Matchers
+import org.scalatest.time.{Seconds, Span}
+import org.scalatest.wordspec.AnyWordSpec
+
+import scala.collection.JavaConverters._
+import scala.concurrent.duration._
+import scala.concurrent.{Await, ExecutionContext, Future}
+
+class EosHttpClientSpec extends AnyWordSpec with Matchers with Eventually {
+
+  override implicit val patienceConfig: PatienceConfig = PatienceConfig(timeout = Span(5, Seconds))
+
+  private def config(settings: FabricContextConfigYaml.EosConfig => Unit = _ => ()): FabricContextConfigYaml.EosConfig = {
+    val eosConfig = new FabricContextConfigYaml.EosConfig()
+    eosConfig.httpLog = "none"
+    settings(eosConfig)
+    eosConfig
+  }
+
+  /** EOS nodes that answer every request once released, with the requests each host received. */
+  private class TestNodes extends Interceptor {
+    val release = new CountDownLatch(1)
+    val received = new ConcurrentHashMap[String, AtomicInteger]
+
+    def receivedBy(host: String): Int = Option(received.get(host)).fold(0)(_.get)
+
+    override def intercept(chain: Interceptor.Chain): Response = {
+      received.computeIfAbsent(chain.request.url.host, _ => new AtomicInteger).incrementAndGet()
+      release.await(5, TimeUnit.SECONDS)
+      new Response.Builder()
+        .request(chain.request)
+        .protocol(Protocol.HTTP_1_1)
+        .code(200)
+        .message("OK")
+        .body(ResponseBody.create("{}", MediaType.get("application/json")))
+        .build()
+    }
+  }
+
+  "EOSContext.createHttpClient" should {
+
+    "build one client with the connection and timeout settings of the eos section" in {
+      val client = EOSContext.createHttpClient(config { c =>
+        c.maxRequestsPerHost = 4
+        c.connectTimeout = 1234
+        c.readTimeout = 5678
+        c.http2 = false
+      })
+
+      client.dispatcher.getMaxRequestsPerHost shouldBe 4
+      client.connectTimeoutMillis shouldBe 1234
+      client.readTimeoutMillis shouldBe 5678
+      client.protocols.asScala shouldBe Seq(Protocol.HTTP_1_1)
+      EOSContext.createHttpClient(config()).protocols.asScala shouldBe Seq(Protocol.HTTP_2, Protocol.HTTP_1_1)
+    }
+
+    "reject an unknown HTTP log level" in {
+      a[FabricContextException] should be thrownBy EOSContext.createHttpClient(config(_.httpLog = "verbose"))
+    }
+
+    "let no more than maxRequestsPerHost requests reach a node at once, whatever other nodes do" in {
+      val nodes = new TestNodes
+      val client = EOSContext
+        .createHttpClient(config(_.maxRequestsPerHost = 2))
+        .newBuilder
+        .addInterceptor(nodes)
+        .build
+      val callers = Executors.newFixedThreadPool(8)
+      implicit val ec: ExecutionContext = ExecutionContext.fromExecutorService(callers)
+
+      def call(host: String): Future[Int] = Future {
+        val response = client.newCall(new Request.Builder().url(s"http://$host:8888/v1/chain/get_info").build).execute()
+        try response.code
+        finally response.close()
+      }
+
+      try {
+        val calls = Seq("node-a", "node-a", "node-a", "node-b").map(call)
+        eventually {
+          nodes.receivedBy("node-a") shouldBe 2
+          nodes.receivedBy("node-b") shouldBe 1
+        }
+        Thread.sleep(200)
+        nodes.receivedBy("node-a") shouldBe 2
+
+        nodes.release.countDown()
+        Await.result(Future.sequence(calls), 5.seconds) shouldBe Seq(200, 200, 200, 200)
+        nodes.receivedBy("node-a") shouldBe 3
+      } finally {
+        nodes.release.countDown()
+        callers.shutdown()
+      }
+    }
+  }
+}
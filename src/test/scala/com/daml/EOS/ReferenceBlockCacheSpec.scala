@@ -0,0 +1,26 @@
+// Copyright (c) 2020 Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package com.daml.EOS
+
+import com.daml.Fabric.FabricContextException
+import org.scalatest.matchers.should.Matchers
+import org.scalatest.wordspec.AnyWordSpec
+
+class ReferenceBlockCacheSpec extends AnyWordSpec with Matchers {
+
+  "ReferenceBlockCache" should {
+
+    "read the reference block prefix from bytes 8 to 11 of the block id, little-endian" in {
+      ReferenceBlockCache.refBlockPrefix(
+        "0000a7e4" + "00000000" + "15cd5b07" + "00" * 20) shouldBe 123456789L
+      ReferenceBlockCache.refBlockPrefix(
+        "0000a7e4c8b7e4a3d3a2e1f0a1b2c3d4e5f60718293a4b5c6d7e8f9012345678") shouldBe 4041319123L
+    }
+
+    "reject block ids too short to hold a prefix" in {
+      a[FabricContextException] should be thrownBy ReferenceBlockCache.refBlockPrefix("0000a7e4c8b7e4a3")
+      a[FabricContextException] should be thrownBy ReferenceBlockCache.refBlockPrefix(null)
+    }
+  }
+}
@@ -0,0 +1,111 @@
+// Copyright (c) 2020 Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package com.daml.EOS
+
+import java.math.BigInteger
+import java.util.Collections
+
+import com.daml.EOS.client.domain.common.transaction.{
+  PackedTransaction,
+  TransactionAction,
+  TransactionAuthorization
+}
+import com.daml.Fabric.FabricContextException
+import org.bouncycastle.crypto.ec.CustomNamedCurves
+import org.bouncycastle.crypto.params.{ECDomainParameters, ECPublicKeyParameters}
+import org.bouncycastle.crypto.signers.ECDSASigner
+import org.scalatest.matchers.should.Matchers
+import org.scalatest.wordspec.AnyWordSpec
+
+import scala.collection.JavaConverters._
+
+class TransactionSignerSpec extends AnyWordSpec with Matchers {
+
+  // the eosio development key
+  private val privateKey = "5KQwrPbwdL6PhXujxW37FSSQZ1JiwsST4cqQzDeyXtP79zkvFD3"
+  private val publicKey = "EOS6MRyAjQq8ud7hVNYcfnVPJqcVpscN5So8BhtHuGYqET5GDW5CV"
+  private val chainId = "cf057bbfb72640471fd910bcb67639c22df9f92470936cddc1ade0e2f2e7dc4f"
+
+  private val curve = {
+    val params = CustomNamedCurves.getByName("secp256k1")
+    new ECDomainParameters(params.getCurve, params.getG, params.getN, params.getH)
+  }
+
+  // a rawwrite of the hello contract with rawArgs {1, 2, 3} and {}
+  private def transaction: PackedTransaction = {
+    val authorization = new TransactionAuthorization
+    authorization.setActor("hello")
+    authorization.setPermission("active")
+
+    val action = new TransactionAction
+    action.setAccount("hello")
+    action.setName("rawwrite")
+    action.setData("02044151494400")
+    action.setAuthorization(Collections.singletonList(authorization))
+
+    val t = new PackedTransaction
+    t.setExpiration("2020-09-01T00:03:00")
+    t.setRefBlockNum("42980")
+    t.setRefBlockPrefix("123456789")
+    t.setMax_net_usage_words("0")
+    t.setActions(Collections.singletonList(action))
+    t
+  }
+
+  private def fromHex(hex: String): Array[Byte] =
+    hex.grouped(2).map(Integer.parseInt(_, 16).toByte).toArray
+
+  "TransactionSigner" should {
+
+    "derive the public key of a private key" in {
+      new TransactionSigner(Collections.singletonList(privateKey)).publicKeys.asScala shouldBe Seq(publicKey)
+    }
+
+    "reject private keys with a bad checksum" in {
+      val corrupt = privateKey.dropRight(1) + (if (privateKey.last == '3') '4' else '3')
+      a[FabricContextException] should be thrownBy TransactionSigner.parsePrivateKey(corrupt)
+    }
+
+    "pack a transaction as the node does" in {
+      AbiSerializer.toHex(TransactionSigner.pack(transaction)) shouldBe
+        "b48f4d5f" + "e4a7" + "15cd5b07" + "00" + "00" + "00" + "00" +
+          "01" + "00000000001aa36a" + "0000002abbcbb9b9" +
+          "01" + "00000000001aa36a" + "00000000a8ed3232" +
+          "07" + "02044151494400" + "00"
+    }
+
+    "digest the chain id, the packed transaction and the empty context free data" in {
+      AbiSerializer.toHex(TransactionSigner.digest(transaction, chainId)) shouldBe
+        "4e26824e1fc0c1f39e4cf0d18e19d5f7b7ca55fdc6fd7af723c273a8e94a300d"
+      a[FabricContextException] should be thrownBy TransactionSigner.digest(transaction, "cf05")
+    }
+
+    "sign deterministically with a canonical signature the public key verifies" in {
+      val signer = new TransactionSigner(Collections.singletonList(privateKey))
+      val Seq(signature) = signer.sign(transaction, chainId).asScala
+      signer.sign(transaction, chainId).asScala shouldBe Seq(signature)
+      signature should startWith("SIG_K1_")
+
+      val bytes = TransactionSigner.fromBase58(signature.stripPrefix("SIG_K1_"))
+      bytes.length shouldBe 69
+      val r = new BigInteger(1, bytes.slice(1, 33))
+      val s = new BigInteger(1, bytes.slice(33, 65))
+      s.compareTo(curve.getN.shiftRight(1)) should be <= 0
+
+      val verifier = new ECDSASigner
+      val key = TransactionSigner.parsePrivateKey(privateKey)
+      verifier.init(false, new ECPublicKeyParameters(curve.getCurve.decodePoint(key.publicKey), curve))
+      verifier.verifySignature(TransactionSigner.digest(transaction, chainId), r, s) shouldBe true
+      verifier.verifySignature(fromHex("00" * 32), r, s) shouldBe false
+    }
+
+    "copy the transaction along with its signatures" in {
+      val signer = new TransactionSigner(Collections.singletonList(privateKey))
+      val signed = signer.signTransaction(transaction, chainId)
+      signed.getRefBlockNum shouldBe "42980"
+      signed.getActions.asScala.map(_.getData) shouldBe Seq("02044151494400")
+      signed.getSignatures shouldBe signer.sign(transaction, chainId)
+    }
+  }
+}
@@ -0,0 +1,44 @@
+// Copyright (c) 2020 Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package com.daml.Fabric
+
+import java.util.concurrent.{CountDownLatch, ExecutionException, RejectedExecutionException, TimeUnit}
+import java.util.function.Supplier
+
+import org.scalatest.matchers.should.Matchers
+import org.scalatest.wordspec.AnyWordSpec
+
+class BoundedExecutorSpec extends AnyWordSpec with Matchers {
+
+  private def task(f: => String): Supplier[String] = new Supplier[String] {
+    override def get(): String = f
+  }
+
+  "FabricContext.supplyAsync" should {
+
+    "fail the future of a task the full executor rejects, without running it on the caller" in {
+      val executor = FabricContext.newBoundedExecutor("bounded-spec", new FabricContextConfigYaml.ExecutorConfig(1, 1))
+      val release = new CountDownLatch(1)
+
+      try {
+        val running = FabricContext.supplyAsync(task { release.await(5, TimeUnit.SECONDS); "running" }, executor)
+        val queued = FabricContext.supplyAsync(task(Thread.currentThread.getName), executor)
+        var ranOn: Thread = null
+        val rejected = FabricContext.supplyAsync(task { ranOn = Thread.currentThread; "rejected" }, executor)
+
+        rejected.isCompletedExceptionally shouldBe true
+        val e = the[ExecutionException] thrownBy rejected.get()
+        e.getCause shouldBe a[RejectedExecutionException]
+        ranOn shouldBe null
+
+        release.countDown()
+        running.get(5, TimeUnit.SECONDS) shouldBe "running"
+        queued.get(5, TimeUnit.SECONDS) should startWith("bounded-spec-")
+      } finally {
+        release.countDown()
+        executor.shutdown()
+      }
+    }
+  }
+}
@@ -0,0 +1,94 @@
+// Copyright (c) 2020 Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package com.daml.Fabric
+
+import java.io.File
+import java.nio.charset.StandardCharsets
+import java.nio.file.Files
+import java.util.function.{Function => JFunction}
+
+import org.scalatest.matchers.should.Matchers
+import org.scalatest.wordspec.AnyWordSpec
+
+import scala.collection.JavaConverters._
+
+class FabricEndorsementPolicySpec extends AnyWordSpec with Matchers {
+
+  private val identities =
+    """identities:
+      |    admin1: {"role": {"name": "admin", "mspId": "Org1MSP"}}
+      |    member1: {"role": {"name": "member", "mspId": "Org1MSP"}}
+      |    member2: {"role": {"name": "member", "mspId": "Org2MSP"}}
+      |    member3: {"role": {"name": "member", "mspId": "Org3MSP"}}
+      |""".stripMargin
+
+  private def policy(rule: String): FabricEndorsementPolicy = {
+    val file = File.createTempFile("endorsement-policy", ".yaml")
+    file.deleteOnExit()
+    Files.write(file.toPath, (identities + "policy:\n" + rule.stripMargin).getBytes(StandardCharsets.UTF_8))
+    FabricEndorsementPolicy.fromYamlFile(file)
+  }
+
+  private val anyOrg = policy("""    1-of:
+      |        - signed-by: "member1"
+      |        - signed-by: "member2"
+      |""")
+
+  private val twoOrgs = policy("""    2-of:
+      |        - signed-by: "member1"
+      |        - signed-by: "member2"
+      |        - signed-by: "member3"
+      |""")
+
+  private val admin = policy("""    signed-by: "admin1"
+      |""")
+
+  private case class TestPeer(name: String, mspId: String)
+
+  private val mspIdOf = new JFunction[TestPeer, String] {
+    override def apply(peer: TestPeer): String = peer.mspId
+  }
+
+  private def smallest(policy: FabricEndorsementPolicy, peers: TestPeer*): Option[Seq[String]] =
+    Option(policy.smallestEndorsingSet(peers.asJava, mspIdOf)).map(_.asScala.map(_.name).toList)
+
+  "FabricEndorsementPolicy" should {
+
+    "be satisfied by endorsements of the required organizations" in {
+      anyOrg.isSatisfiedBy(List("Org2MSP").asJava) shouldBe true
+      anyOrg.isSatisfiedBy(List("Org3MSP").asJava) shouldBe false
+      twoOrgs.isSatisfiedBy(List("Org1MSP", "Org3MSP").asJava) shouldBe true
+    }
+
+    "count an endorsement towards one identity only" in {
+      twoOrgs.isSatisfiedBy(List("Org1MSP", "Org1MSP").asJava) shouldBe false
+    }
+
+    "not take peer endorsements for admin signatures" in {
+      admin.isSatisfiedBy(List("Org1MSP").asJava) shouldBe false
+    }
+
+    "find the smallest endorsing set, preferring the earliest peers" in {
+      val peers = Seq(
+        TestPeer("peer0.org1", "Org1MSP"),
+        TestPeer("peer1.org1", "Org1MSP"),
+        TestPeer("peer0.org3", "Org3MSP"),
+        TestPeer("peer0.org2", "Org2MSP"))
+
+      smallest(anyOrg, peers: _*) shouldBe Some(Seq("peer0.org1"))
+      smallest(twoOrgs, peers: _*) shouldBe Some(Seq("peer0.org1", "peer0.org3"))
+    }
+
+    "find no endorsing set when the policy cannot be satisfied" in {
+      smallest(admin, TestPeer("peer0.org1", "Org1MSP")) shouldBe None
+      smallest(twoOrgs, TestPeer("peer0.org1", "Org1MSP"), TestPeer("peer1.org1", "Org1MSP")) shouldBe None
+      smallest(anyOrg) shouldBe None
+    }
+
+    "not search through too many peers" in {
+      val peers = (0 until 17).map(i => TestPeer(s"peer$i.org1", "Org1MSP"))
+      smallest(anyOrg, peers: _*) shouldBe None
+    }
+  }
+}
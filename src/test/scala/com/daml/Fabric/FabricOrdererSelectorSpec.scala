@@ -0,0 +1,63 @@
+// Copyright (c) 2020 Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package com.daml.Fabric
+
+import java.util.concurrent.TimeUnit
+
+import com.codahale.metrics.MetricRegistry
+import com.daml.Fabric.TestNodes.orderers
+import org.hyperledger.fabric.sdk.Orderer
+import org.scalatest.matchers.should.Matchers
+import org.scalatest.wordspec.AnyWordSpec
+
+import scala.collection.JavaConverters._
+
+class FabricOrdererSelectorSpec extends AnyWordSpec with Matchers {
+
+  private def millis(ms: Long): Long = TimeUnit.MILLISECONDS.toNanos(ms)
+
+  private def ordererSelector(os: Seq[Orderer], strategy: String) = {
+    val config = new FabricContextConfigYaml.OrdererSelectionConfig
+    config.strategy = strategy
+    config.downTime = 60000
+    new FabricOrdererSelector(os.asJava, config, new MetricRegistry)
+  }
+
+  "FabricOrdererSelector" should {
+
+    "try orderers that are marked down last" in {
+      val Seq(o0, o1, o2) = orderers(3)
+      val selector = ordererSelector(Seq(o0, o1, o2), "round-robin")
+      selector.finished(o1, millis(5), false)
+
+      selector.isUp(o1) shouldBe false
+      for (_ <- 1 to 3) selector.rank().asScala.last shouldBe o1
+
+      selector.finished(o1, millis(5), true)
+      selector.isUp(o1) shouldBe true
+    }
+
+    "rank orderers by broadcast latency, probing the ones without samples first" in {
+      val Seq(o0, o1, o2) = orderers(3)
+      val selector = ordererSelector(Seq(o0, o1, o2), "fastest")
+      selector.finished(o0, millis(100), true)
+      selector.finished(o1, millis(10), true)
+
+      selector.rank().asScala shouldBe Seq(o2, o1, o0)
+    }
+
+    "stick to the orderer that last accepted a transaction until it fails" in {
+      val Seq(o0, o1, o2) = orderers(3)
+      val selector = ordererSelector(Seq(o0, o1, o2), "sticky")
+      selector.rank().asScala.head shouldBe o0
+
+      selector.finished(o1, millis(10), true)
+      for (_ <- 1 to 3) selector.rank().asScala.head shouldBe o1
+
+      selector.finished(o1, millis(10), false)
+      selector.rank().asScala.head should not be o1
+      selector.rank().asScala.last shouldBe o1
+    }
+  }
+}
@@ -0,0 +1,86 @@
+// Copyright (c) 2020 Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package com.daml.Fabric
+
+import java.util.concurrent.TimeUnit
+
+import com.daml.Fabric.TestNodes.peers
+import org.hyperledger.fabric.sdk.Peer
+import org.scalatest.matchers.should.Matchers
+import org.scalatest.wordspec.AnyWordSpec
+
+import scala.collection.JavaConverters._
+
+class FabricPeerSelectorSpec extends AnyWordSpec with Matchers {
+
+  private def millis(ms: Long): Long = TimeUnit.MILLISECONDS.toNanos(ms)
+
+  private def peerSelector(ps: Seq[Peer], strategy: String) = {
+    val config = new FabricContextConfigYaml.PeerSelectionConfig
+    config.strategy = strategy
+    config.hedge = true
+    config.hedgeMinDelay = 10
+    new FabricPeerSelector(ps.asJava, config, 1000)
+  }
+
+  private def query(selector: FabricPeerSelector, peer: Peer, ms: Long, outcome: FabricPeerSelector.Outcome): Unit = {
+    selector.started(peer)
+    selector.finished(peer, millis(ms), outcome)
+  }
+
+  "FabricPeerSelector" should {
+
+    "rank peers by latency, probing the ones without samples first" in {
+      val Seq(p0, p1, p2) = peers(3)
+      val selector = peerSelector(Seq(p0, p1, p2), "latency-ewma")
+      query(selector, p0, 50, FabricPeerSelector.Outcome.SUCCESS)
+      query(selector, p1, 5, FabricPeerSelector.Outcome.SUCCESS)
+
+      selector.rank().asScala shouldBe Seq(p2, p1, p0)
+      selector.select(null) shouldBe p2
+      selector.select(p2) shouldBe p1
+    }
+
+    "charge the failure penalty to a peer that did not answer" in {
+      val Seq(p0, p1) = peers(2)
+      val selector = peerSelector(Seq(p0, p1), "latency-ewma")
+      query(selector, p0, 10, FabricPeerSelector.Outcome.SUCCESS)
+      query(selector, p1, 20, FabricPeerSelector.Outcome.SUCCESS)
+      query(selector, p0, 1, FabricPeerSelector.Outcome.UNREACHABLE)
+
+      selector.rank().asScala shouldBe Seq(p1, p0)
+    }
+
+    "charge a chaincode error the time it took" in {
+      val Seq(p0, p1) = peers(2)
+      val selector = peerSelector(Seq(p0, p1), "latency-ewma")
+      query(selector, p0, 10, FabricPeerSelector.Outcome.SUCCESS)
+      query(selector, p1, 20, FabricPeerSelector.Outcome.SUCCESS)
+      query(selector, p0, 1, FabricPeerSelector.Outcome.REJECTED)
+
+      selector.rank().asScala shouldBe Seq(p0, p1)
+    }
+
+    "rank peers by the queries they have in flight" in {
+      val Seq(p0, p1, p2) = peers(3)
+      val selector = peerSelector(Seq(p0, p1, p2), "least-outstanding")
+      selector.started(p0)
+      selector.started(p0)
+      selector.started(p2)
+
+      selector.rank().asScala shouldBe Seq(p1, p2, p0)
+      selector.select(p1) shouldBe p2
+    }
+
+    "derive the hedging delay from the latencies of answered queries only" in {
+      val Seq(p0, p1) = peers(2)
+      val selector = peerSelector(Seq(p0, p1), "round-robin")
+      for (_ <- 1 to 100) query(selector, p0, 500, FabricPeerSelector.Outcome.REJECTED)
+      selector.hedgeDelayMillis() shouldBe 10
+
+      for (ms <- 1 to 100) query(selector, p1, ms.toLong, FabricPeerSelector.Outcome.SUCCESS)
+      selector.hedgeDelayMillis() shouldBe 95
+    }
+  }
+}
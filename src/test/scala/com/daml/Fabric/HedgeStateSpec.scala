@@ -0,0 +1,41 @@
+// Copyright (c) 2020 Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package com.daml.Fabric
+
+import org.scalatest.matchers.should.Matchers
+import org.scalatest.wordspec.AnyWordSpec
+
+class HedgeStateSpec extends AnyWordSpec with Matchers {
+
+  "HedgeState" should {
+
+    "fail a query that was never hedged with its only peer" in {
+      new FabricContext.HedgeState().failed() shouldBe true
+    }
+
+    "hedge at most once" in {
+      val state = new FabricContext.HedgeState()
+      state.claimHedge() shouldBe true
+      state.claimHedge() shouldBe false
+    }
+
+    "leave the outcome to the backup when the primary fails after the timer hedged" in {
+      val state = new FabricContext.HedgeState()
+      // the timer claims the backup, then the primary fails and tries to hedge itself
+      state.claimHedge() shouldBe true
+      state.claimHedge() shouldBe false
+      state.failed() shouldBe false
+      // only the backup failing fails the query
+      state.failed() shouldBe true
+    }
+
+    "leave the outcome to the backup when the primary fails before the timer" in {
+      val state = new FabricContext.HedgeState()
+      state.claimHedge() shouldBe true
+      state.failed() shouldBe false
+      state.claimHedge() shouldBe false
+      state.failed() shouldBe true
+    }
+  }
+}
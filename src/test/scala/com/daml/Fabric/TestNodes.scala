@@ -0,0 +1,28 @@
+// Copyright (c) 2020 Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package com.daml.Fabric
+
+import java.security.KeyPairGenerator
+
+import org.hyperledger.fabric.sdk.identity.X509Enrollment
+import org.hyperledger.fabric.sdk.security.CryptoSuite
+import org.hyperledger.fabric.sdk.{HFClient, Orderer, Peer}
+
+/** Peers and orderers for tests of the selectors; nothing connects to them. */
+object TestNodes {
+
+  private lazy val client = {
+    val c = HFClient.createNewInstance()
+    c.setCryptoSuite(CryptoSuite.Factory.getCryptoSuite())
+    val key = KeyPairGenerator.getInstance("EC").generateKeyPair().getPrivate
+    c.setUserContext(new FabricUser("admin", "org1", new X509Enrollment(key, "test"), "Org1MSP"))
+    c
+  }
+
+  def peers(n: Int): Seq[Peer] =
+    (0 until n).map(i => client.newPeer(s"peer$i", s"grpc://localhost:${7051 + i}"))
+
+  def orderers(n: Int): Seq[Orderer] =
+    (0 until n).map(i => client.newOrderer(s"orderer$i", s"grpc://localhost:${7050 + 100 * i}"))
+}
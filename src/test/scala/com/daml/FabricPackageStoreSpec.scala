@@ -0,0 +1,97 @@
+// Copyright (c) 2020 Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package com.daml
+
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.zip.ZipInputStream
+
+import com.daml.daml_lf_dev.DamlLf
+import com.daml.lf.archive.{Dar, DarReader, Decode}
+import org.scalatest.concurrent.Eventually
+import org.scalatest.matchers.should.Matchers
+import org.scalatest.time.{Seconds, Span}
+import org.scalatest.wordspec.AnyWordSpec
+
+import scala.collection.JavaConverters._
+import scala.concurrent.duration._
+import scala.concurrent.{Await, ExecutionContext, Future}
+import scala.util.Try
+
+class FabricPackageStoreSpec extends AnyWordSpec with Matchers with Eventually {
+
+  implicit private val ec: ExecutionContext = ExecutionContext.global
+
+  override implicit val patienceConfig: PatienceConfig = PatienceConfig(timeout = Span(5, Seconds))
+
+  private val dar = DarReader { case (_, is) => Try(DamlLf.Archive.parseFrom(is)) }
+    .readArchive("Test-1.5.dar", new ZipInputStream(this.getClass.getClassLoader.getResourceAsStream("Test-1.5.dar")))
+    .get
+    .asInstanceOf[Dar[DamlLf.Archive]]
+
+  private val packages: Map[String, DamlLf.Archive] = dar.all.map(archive => archive.getHash -> archive).toMap
+
+  private val mainId = dar.main.getHash
+
+  /** The package store of the chaincode, with the package reads made so far. */
+  private class TestPackages(stored: Map[String, DamlLf.Archive] = packages) {
+    val reads = new ConcurrentLinkedQueue[String]
+
+    def read(packageId: String): Future[Array[Byte]] = {
+      reads.add(packageId)
+      Future.successful(stored.get(packageId).map(_.toByteArray).orNull)
+    }
+
+    def readsOf(packageId: String): Int = reads.asScala.count(_ == packageId)
+  }
+
+  private def await[T](f: Future[T]): T = Await.result(f, 5.seconds)
+
+  "FabricPackageStore" should {
+
+    "read a package once and answer later requests from memory" in {
+      val ledger = new TestPackages
+      val store = new FabricPackageStore(ledger.read, 64L * 1024 * 1024)
+
+      await(store.getArchives(Seq(mainId))) shouldBe Map(mainId -> dar.main)
+      await(store.getArchives(Seq(mainId, mainId))) shouldBe Map(mainId -> dar.main)
+      ledger.readsOf(mainId) shouldBe 1
+    }
+
+    "load the dependencies of a package as soon as the package is read" in {
+      val ledger = new TestPackages
+      val store = new FabricPackageStore(ledger.read, 64L * 1024 * 1024)
+      val dependencies = Decode.decodeArchive(dar.main)._2.directDeps.map(dependency => dependency: String)
+      dependencies should not be empty
+
+      await(store.getArchives(Seq(mainId)))
+      eventually {
+        ledger.reads.asScala.toSet should contain allElementsOf dependencies
+      }
+      await(store.getArchives(dependencies)).keySet shouldBe dependencies
+      dependencies.foreach(ledger.readsOf(_) shouldBe 1)
+    }
+
+    "leave out packages that are not on the ledger, and read them again later" in {
+      val ledger = new TestPackages(stored = Map.empty)
+      val store = new FabricPackageStore(ledger.read, 64L * 1024 * 1024)
+
+      await(store.getArchives(Seq(mainId))) shouldBe empty
+      await(store.getArchives(Seq(mainId))) shouldBe empty
+      ledger.readsOf(mainId) shouldBe 2
+    }
+
+    "leave out packages that cannot be read or parsed" in {
+      val store = new FabricPackageStore(
+        {
+          case "unreadable" => Future.failed(new RuntimeException("peer unavailable"))
+          case "corrupt" => Future.successful(Array[Byte](1, 2, 3))
+          case packageId => Future.successful(packages.get(packageId).map(_.toByteArray).orNull)
+        },
+        64L * 1024 * 1024
+      )
+
+      await(store.getArchives(Seq("unreadable", "corrupt", mainId))) shouldBe Map(mainId -> dar.main)
+    }
+  }
+}
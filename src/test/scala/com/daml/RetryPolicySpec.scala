@@ -0,0 +1,146 @@
+// Copyright (c) 2020 Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package com.daml
+
+import java.util.concurrent.{CompletionException, ExecutionException, TimeoutException}
+import java.util.function.Supplier
+
+import com.codahale.metrics.MetricRegistry
+import com.daml.Fabric.{FabricContextConfigYaml, FabricContextException}
+import org.hyperledger.fabric.protos.peer.TransactionPackage.TxValidationCode
+import org.scalatest.matchers.should.Matchers
+import org.scalatest.wordspec.AnyWordSpec
+
+class RetryPolicySpec extends AnyWordSpec with Matchers {
+
+  private def invalid(code: TxValidationCode) =
+    new FabricContextException(
+      new RuntimeException(
+        s"Received invalid transaction event. Transaction ID 4f2a9c status ${code.getNumber}"))
+
+  private val conflict = invalid(TxValidationCode.MVCC_READ_CONFLICT)
+  private val badPayload = invalid(TxValidationCode.BAD_PAYLOAD)
+  private val timeout = new FabricContextException(new TimeoutException("no answer"))
+  private val chaincodeError =
+    new FabricContextException("Chaincode returned status 500: key not found")
+
+  private def config(adjust: FabricContextConfigYaml.RetryConfig => Unit) = {
+    val c = new FabricContextConfigYaml.RetryConfig
+    c.initialBackoff = 0
+    c.maxBackoff = 0
+    adjust(c)
+    c
+  }
+
+  private def policy(adjust: FabricContextConfigYaml.RetryConfig => Unit = _ => ()) =
+    new RetryPolicy(config(adjust), null, new MetricRegistry)
+
+  // number of invokes a call that always fails with the given failure makes
+  private def attempts(policy: RetryPolicy, failure: RuntimeException): Int = {
+    var count = 0
+    a[RuntimeException] should be thrownBy policy.call(
+      "RawWrite",
+      new Supplier[Unit] {
+        override def get(): Unit = {
+          count += 1
+          throw failure
+        }
+      })
+    count
+  }
+
+  "RetryPolicy" should {
+
+    "read the validation code of an invalid transaction from the failure" in {
+      RetryPolicy.validationCode(conflict) shouldBe TxValidationCode.MVCC_READ_CONFLICT.getNumber
+      RetryPolicy.validationCode(new CompletionException(conflict)) shouldBe TxValidationCode.MVCC_READ_CONFLICT.getNumber
+    }
+
+    "not take the status of a chaincode error for a validation code" in {
+      RetryPolicy.validationCode(chaincodeError) shouldBe -1
+      RetryPolicy.validationCode(timeout) shouldBe -1
+    }
+
+    "only retry the configured validation codes" in {
+      val p = policy()
+      p.isRetryable(conflict) shouldBe true
+      p.isRetryable(new ExecutionException(conflict)) shouldBe true
+      p.isRetryable(badPayload) shouldBe false
+      p.isRetryable(timeout) shouldBe false
+      p.isRetryable(chaincodeError) shouldBe false
+    }
+
+    "retry read conflicts only by default" in {
+      val p = policy()
+      p.isRetryable(invalid(TxValidationCode.PHANTOM_READ_CONFLICT)) shouldBe true
+      p.isRetryable(invalid(TxValidationCode.ENDORSEMENT_POLICY_FAILURE)) shouldBe false
+    }
+
+    "count conflicts and unanswered calls towards the circuit breaker, but not rejections" in {
+      val p = policy()
+      p.countsTowardsBreaker(conflict) shouldBe true
+      p.countsTowardsBreaker(timeout) shouldBe true
+      p.countsTowardsBreaker(badPayload) shouldBe false
+      p.countsTowardsBreaker(new RetryPolicy.CircuitOpenException("RawWrite")) shouldBe false
+    }
+
+    "retry a conflict at most maxAttempts times" in {
+      attempts(policy(c => c.maxAttempts = 3), conflict) shouldBe 3
+      attempts(policy(c => c.maxAttempts = 3), badPayload) shouldBe 1
+    }
+
+    "stop retrying once the budget is spent" in {
+      val p = policy { c =>
+        c.maxAttempts = 1000
+        c.budgetRatio = 0
+        c.budgetMinPerSecond = 0
+        c.breakerFailures = 0
+      }
+      // the budget starts full, with 100 retries
+      attempts(p, conflict) shouldBe 101
+      attempts(p, conflict) shouldBe 1
+    }
+
+    "refill the budget with the invokes" in {
+      val p = policy { c =>
+        c.maxAttempts = 1000
+        c.budgetRatio = 1
+        c.budgetMinPerSecond = 0
+        c.breakerFailures = 0
+      }
+      attempts(p, conflict)
+      // the call itself paid for one retry
+      attempts(p, conflict) shouldBe 2
+    }
+
+    "fail the invokes of a function fast after a run of its failures" in {
+      val p = policy { c =>
+        c.maxAttempts = 1
+        c.breakerFailures = 2
+        c.breakerOpenTime = 60000
+      }
+      attempts(p, timeout) shouldBe 1
+      attempts(p, timeout) shouldBe 1
+      an[RetryPolicy.CircuitOpenException] should be thrownBy p.call(
+        "RawWrite",
+        new Supplier[String] {
+          override def get(): String = "written"
+        })
+      p.call(
+        "RawRead",
+        new Supplier[String] {
+          override def get(): String = "read"
+        }) shouldBe "read"
+    }
+
+    "not open the breaker for transactions the peers deterministically rejected" in {
+      val p = policy { c =>
+        c.maxAttempts = 1
+        c.breakerFailures = 2
+        c.breakerOpenTime = 60000
+      }
+      for (_ <- 1 to 5) attempts(p, badPayload) shouldBe 1
+    }
+  }
+}
@@ -0,0 +1,89 @@
+// Copyright (c) 2020 Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package com.daml
+
+import java.nio.charset.StandardCharsets
+import java.util.function.Supplier
+
+import org.scalatest.matchers.should.Matchers
+import org.scalatest.wordspec.AnyWordSpec
+
+class StateCacheSpec extends AnyWordSpec with Matchers {
+
+  private val key = "DState:a2V5"
+
+  private def bytes(s: String): Array[Byte] = s.getBytes(StandardCharsets.UTF_8)
+
+  private def blockValue(value: Array[Byte]): Supplier[Array[Byte]] = new Supplier[Array[Byte]] {
+    override def get(): Array[Byte] = value
+  }
+
+  "StateCache" should {
+
+    "cache a value we wrote when no block wrote the key meanwhile" in {
+      val cache = new StateCache(1024L)
+      cache.cacheWrite(key, cache.generation(key), bytes("ours"))
+      cache.getIfPresent(key) shouldBe bytes("ours")
+    }
+
+    "keep the value of a later block over the value we wrote before it" in {
+      val cache = new StateCache(1024L)
+      cache.cacheRead(key, cache.generation(key), bytes("committed"))
+
+      // our write is sent, then a later block writes the key before our write is acknowledged
+      val generation = cache.generation(key)
+      cache.blockWrite(key, blockValue(bytes("ours")))
+      cache.blockWrite(key, blockValue(bytes("later")))
+      cache.cacheWrite(key, generation, bytes("ours"))
+
+      cache.getIfPresent(key) shouldBe bytes("later")
+    }
+
+    "not cache a value we wrote if an uncached key was written by a block meanwhile" in {
+      val cache = new StateCache(1024L)
+      val generation = cache.generation(key)
+      cache.blockWrite(key, blockValue(bytes("later")))
+      cache.cacheWrite(key, generation, bytes("ours"))
+      cache.getIfPresent(key) shouldBe null
+    }
+
+    "not cache a value read before a block wrote the key" in {
+      val cache = new StateCache(1024L)
+      val generation = cache.generation(key)
+      cache.blockWrite(key, blockValue(bytes("later")))
+      cache.cacheRead(key, generation, bytes("earlier"))
+      cache.getIfPresent(key) shouldBe null
+    }
+
+    "keep a cached value over a value read meanwhile" in {
+      val cache = new StateCache(1024L)
+      val generation = cache.generation(key)
+      cache.cacheWrite(key, generation, bytes("ours"))
+      cache.cacheRead(key, generation, bytes("earlier"))
+      cache.getIfPresent(key) shouldBe bytes("ours")
+    }
+
+    "cache keys without a value as absent" in {
+      val cache = new StateCache(1024L)
+      cache.cacheRead(key, cache.generation(key), null)
+      cache.getIfPresent(key) shouldBe theSameInstanceAs(StateCache.ABSENT)
+    }
+
+    "drop values deleted by a block" in {
+      val cache = new StateCache(1024L)
+      cache.cacheRead(key, cache.generation(key), bytes("committed"))
+      cache.blockWrite(key, blockValue(null))
+      cache.getIfPresent(key) shouldBe null
+    }
+
+    "not cache reads and writes in progress when everything is invalidated" in {
+      val cache = new StateCache(1024L)
+      val generation = cache.generation(key)
+      cache.invalidateAll()
+      cache.cacheRead(key, generation, bytes("earlier"))
+      cache.cacheWrite(key, generation, bytes("ours"))
+      cache.getIfPresent(key) shouldBe null
+    }
+  }
+}